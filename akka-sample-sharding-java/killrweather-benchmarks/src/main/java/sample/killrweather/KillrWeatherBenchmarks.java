@@ -0,0 +1,23 @@
+/*
+ * Copyright (C) 2009-2024 Lightbend Inc. <https://www.lightbend.com>
+ */
+package sample.killrweather;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the JMH command line options, always with the GC profiler so that allocations per
+ * operation are reported next to the time per operation. The main class of `target/benchmarks.jar`.
+ */
+public class KillrWeatherBenchmarks {
+
+  public static void main(String[] args) throws Exception {
+    new Runner(new OptionsBuilder()
+        .parent(new CommandLineOptions(args))
+        .addProfiler(GCProfiler.class)
+        .build()).run();
+  }
+}
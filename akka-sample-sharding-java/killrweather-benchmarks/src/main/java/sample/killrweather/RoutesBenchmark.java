@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2009-2024 Lightbend Inc. <https://www.lightbend.com>
+ */
+package sample.killrweather;
+
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.cluster.MemberStatus;
+import akka.cluster.typed.Cluster;
+import akka.cluster.typed.Join;
+import akka.http.javadsl.model.ContentTypes;
+import akka.http.javadsl.model.HttpRequest;
+import akka.http.javadsl.model.HttpResponse;
+import akka.japi.function.Function;
+import com.typesafe.config.ConfigFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Requests through the {@link WeatherRoutes} on a single node cluster, from the request to the response including
+ * unmarshalling, sharding and the station, but without the HTTP connection. Each invocation sends a burst of requests
+ * for different stations and waits for all the responses. The requests are created up front, so that the
+ * allocations reported by the GC profiler are those of the server side of a request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class RoutesBenchmark {
+
+  private static final int STATIONS = 1000;
+  private static final int BURST = 100;
+
+  private ActorTestKit testKit;
+  private Function<HttpRequest, CompletionStage<HttpResponse>> handler;
+  private final HttpRequest[] recordRequests = new HttpRequest[STATIONS];
+  private final HttpRequest[] queryRequests = new HttpRequest[STATIONS];
+  private final CompletableFuture<?>[] responses = new CompletableFuture<?>[BURST];
+  private int next = 0;
+
+  @Setup
+  public void setup() throws Exception {
+    testKit = ActorTestKit.create("KillrWeather", ConfigFactory.parseString(
+        "akka.cluster.seed-nodes = []\n" +
+        "akka.loglevel = WARNING\n" +
+        // every query is answered by the station
+        "killrweather.routes.query-cache.ttl = 0s").withFallback(ConfigFactory.load()));
+    Cluster cluster = Cluster.get(testKit.system());
+    cluster.manager().tell(Join.create(cluster.selfMember().address()));
+    while (cluster.selfMember().status() != MemberStatus.up()) {
+      Thread.sleep(10);
+    }
+    WeatherStation.initSharding(testKit.system());
+    WeatherRegion.initSharding(testKit.system());
+
+    handler = new WeatherRoutes(testKit.system(), Optional.empty()).weather().seal().handler(testKit.system());
+
+    long eventTime = System.currentTimeMillis();
+    for (int i = 0; i < STATIONS; i++) {
+      long wsid = i + 1;
+      recordRequests[i] = HttpRequest.POST("/weather/" + wsid).withEntity(ContentTypes.APPLICATION_JSON,
+          "{\"eventTime\":" + eventTime + ",\"values\":[" +
+              "{\"dataType\":\"temperature\",\"value\":21.5}," +
+              "{\"dataType\":\"dewpoint\",\"value\":12.5}," +
+              "{\"dataType\":\"pressure\",\"value\":1013.2}]}");
+      queryRequests[i] = HttpRequest.GET("/weather/" + wsid + "?type=temperature&function=average");
+    }
+    // all stations started and with data to query
+    for (int i = 0; i < STATIONS; i += BURST) {
+      record();
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    testKit.shutdownTestKit();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BURST)
+  public void record() throws Exception {
+    burst(recordRequests);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BURST)
+  public void queryAverage() throws Exception {
+    burst(queryRequests);
+  }
+
+  private void burst(HttpRequest[] requests) throws Exception {
+    for (int i = 0; i < BURST; i++) {
+      responses[i] = handler.apply(requests[next]).toCompletableFuture();
+      next = (next + 1) % STATIONS;
+    }
+    CompletableFuture.allOf(responses).get(10, TimeUnit.SECONDS);
+  }
+}
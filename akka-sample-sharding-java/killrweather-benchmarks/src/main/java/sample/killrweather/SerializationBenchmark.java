@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2009-2024 Lightbend Inc. <https://www.lightbend.com>
+ */
+package sample.killrweather;
+
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.javadsl.Behaviors;
+import akka.serialization.Serialization;
+import akka.serialization.SerializationExtension;
+import akka.serialization.SerializerWithStringManifest;
+import com.typesafe.config.ConfigFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.NotSerializableException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialization of the messages sent for every reading and query with {@link KillrWeatherSerializer} compared to
+ * jackson-cbor, which is used for them without the bindings to the KillrWeather serializer. The serialized size of
+ * each message is printed at the start of each run.
+ *
+ * Run with `sbt killrweather-benchmarks/jmh:run -prof gc SerializationBenchmark` or
+ * `java -jar killrweather-benchmarks/target/benchmarks.jar SerializationBenchmark`.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+
+  @Param({"record", "observation", "batch", "data-recorded", "query", "query-result"})
+  public String message;
+
+  @Param({"killrweather", "jackson-cbor"})
+  public String serializer;
+
+  private ActorSystem<Void> system;
+  private SerializerWithStringManifest serializerInstance;
+  private Object messageInstance;
+  private String manifest;
+  private byte[] bytes;
+
+  @Setup
+  public void setup() throws NotSerializableException {
+    system = ActorSystem.create(Behaviors.empty(), "KillrWeather", ConfigFactory.parseString(
+        "akka.cluster.seed-nodes = []\n" +
+        "akka.loglevel = WARNING").withFallback(ConfigFactory.load()));
+    Serialization serialization = SerializationExtension.get(system);
+    // any class bound to the serializer picks it
+    serializerInstance = (SerializerWithStringManifest) serialization.serializerFor(
+        serializer.equals("killrweather") ? WeatherStation.Record.class : CborSerializable.class);
+    messageInstance = createMessage(message, system.deadLetters());
+    manifest = serializerInstance.manifest(messageInstance);
+    bytes = serializerInstance.toBinary(messageInstance);
+    System.out.println();
+    System.out.println(message + " with " + serializer + ": " + bytes.length + " bytes");
+  }
+
+  @TearDown
+  public void tearDown() {
+    system.terminate();
+  }
+
+  @Benchmark
+  public byte[] serialize() {
+    return serializerInstance.toBinary(messageInstance);
+  }
+
+  @Benchmark
+  public Object deserialize() throws NotSerializableException {
+    return serializerInstance.fromBinary(bytes, manifest);
+  }
+
+  static <T> Object createMessage(String message, ActorRef<T> replyTo) {
+    long now = System.currentTimeMillis();
+    switch (message) {
+      case "record":
+        return new WeatherStation.Record(
+            new WeatherStation.Data(now, WeatherStation.DataType.Temperature, 21.5), now, replyTo.unsafeUpcast());
+      case "observation":
+        return new WeatherStation.RecordObservation(
+            new WeatherStation.Observation(now, Arrays.asList(
+                new WeatherStation.Measurement(WeatherStation.DataType.Temperature, 21.5),
+                new WeatherStation.Measurement(WeatherStation.DataType.DewPoint, 12.25),
+                new WeatherStation.Measurement(WeatherStation.DataType.Pressure, 1013.2))),
+            now, replyTo.unsafeUpcast());
+      case "batch": {
+        List<WeatherStation.Data> batch = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+          batch.add(new WeatherStation.Data(now - (100 - i) * 1000L, WeatherStation.DataType.Temperature, 20 + i * 0.1));
+        }
+        return new WeatherStation.RecordBatch(batch, now, replyTo.unsafeUpcast());
+      }
+      case "data-recorded":
+        return new WeatherStation.DataRecorded("4711", 123456);
+      case "query":
+        return new WeatherStation.Query(
+            WeatherStation.DataType.Temperature, WeatherStation.Function.HighLow, Duration.ofHours(1).toMillis(),
+            now - Duration.ofDays(1).toMillis(), now, replyTo.unsafeUpcast());
+      case "query-result": {
+        long hour = Duration.ofHours(1).toMillis();
+        long start = now - now % hour - 24 * hour;
+        List<WeatherStation.TimeWindow> windows = new ArrayList<>();
+        for (int i = 0; i < 24; i++) {
+          windows.add(new WeatherStation.TimeWindow(start + i * hour, start + (i + 1) * hour, 15 + i * 0.5));
+        }
+        return new WeatherStation.QueryResult(
+            "4711", WeatherStation.DataType.Temperature, WeatherStation.Function.HighLow, 86400, windows, 123456);
+      }
+      default:
+        throw new IllegalArgumentException("Unknown message " + message);
+    }
+  }
+}
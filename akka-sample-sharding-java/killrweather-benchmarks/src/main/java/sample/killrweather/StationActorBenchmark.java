@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2009-2024 Lightbend Inc. <https://www.lightbend.com>
+ */
+package sample.killrweather;
+
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+import akka.cluster.MemberStatus;
+import akka.cluster.typed.Cluster;
+import akka.cluster.typed.Join;
+import com.typesafe.config.ConfigFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recording and querying through a running {@link WeatherStation} actor on a single node cluster, including the
+ * mailbox and dispatcher but not sharding or serialization. Each invocation sends a burst of messages and waits for
+ * all the replies, so the results are the time per message when the station is kept busy.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class StationActorBenchmark {
+
+  private static final int BURST = 1000;
+  private static final long HOUR = Duration.ofHours(1).toMillis();
+  private static final long DAY = Duration.ofDays(1).toMillis();
+
+  @Param({"1000", "100000", "10000000"})
+  public int readings;
+
+  private ActorTestKit testKit;
+  private ActorRef<WeatherStation.Command> station;
+  private TestProbe<WeatherStation.DataRecorded> recordedProbe;
+  private TestProbe<WeatherStation.QueryResult> resultProbe;
+  private long nextEventTime;
+  private final Random random = new Random(4711);
+
+  @Setup
+  public void setup() {
+    testKit = ActorTestKit.create("KillrWeather", ConfigFactory.parseString(
+        "akka.cluster.seed-nodes = []\n" +
+        "akka.loglevel = WARNING").withFallback(ConfigFactory.load()));
+    // the stations push deltas to their region through sharding
+    Cluster cluster = Cluster.get(testKit.system());
+    cluster.manager().tell(Join.create(cluster.selfMember().address()));
+    while (cluster.selfMember().status() != MemberStatus.up()) {
+      sleep();
+    }
+    WeatherRegion.initSharding(testKit.system());
+
+    station = testKit.spawn(WeatherStation.create("4711", StationStateBenchmark.settings(readings)));
+    recordedProbe = testKit.createTestProbe();
+    resultProbe = testKit.createTestProbe();
+    nextEventTime = System.currentTimeMillis() - readings * 1000L;
+    for (int i = 0; i < readings; i += BURST) {
+      record();
+    }
+  }
+
+  private static void sleep() {
+    try {
+      Thread.sleep(10);
+    } catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    testKit.shutdownTestKit();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BURST)
+  public void record() {
+    for (int i = 0; i < BURST; i++) {
+      station.tell(new WeatherStation.Record(
+          new WeatherStation.Data(nextEventTime, WeatherStation.DataType.Temperature, 5 + 30 * random.nextDouble()),
+          System.currentTimeMillis(),
+          recordedProbe.ref()));
+      nextEventTime += 1000;
+    }
+    recordedProbe.receiveSeveralMessages(BURST);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BURST)
+  public void queryAverage() {
+    for (int i = 0; i < BURST; i++) {
+      station.tell(new WeatherStation.Query(WeatherStation.DataType.Temperature, WeatherStation.Function.Average, resultProbe.ref()));
+    }
+    resultProbe.receiveSeveralMessages(BURST);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BURST)
+  public void queryHourlyHighLowLastDay() {
+    for (int i = 0; i < BURST; i++) {
+      station.tell(new WeatherStation.Query(
+          WeatherStation.DataType.Temperature, WeatherStation.Function.HighLow, HOUR, nextEventTime - DAY, nextEventTime, resultProbe.ref()));
+    }
+    resultProbe.receiveSeveralMessages(BURST);
+  }
+}
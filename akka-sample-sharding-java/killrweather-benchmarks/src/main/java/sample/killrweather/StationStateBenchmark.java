@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2009-2024 Lightbend Inc. <https://www.lightbend.com>
+ */
+package sample.killrweather;
+
+import com.typesafe.config.ConfigFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recording and querying the state of a single station directly, without the actor around it, with a station that
+ * already has 1k, 100k or 10M readings of one data type, one every second. The raw readings are retained for all
+ * of them, so that the raw readings path is measured at each size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class StationStateBenchmark {
+
+  private static final String WSID = "4711";
+  private static final long HOUR = Duration.ofHours(1).toMillis();
+  private static final long DAY = Duration.ofDays(1).toMillis();
+
+  @Param({"1000", "100000", "10000000"})
+  public int readings;
+
+  private StationState state;
+  private long nextEventTime;
+  private final Random random = new Random(4711);
+
+  @Setup
+  public void setup() {
+    WeatherStationSettings settings = settings(readings);
+    state = new StationState(settings);
+    nextEventTime = System.currentTimeMillis() - readings * 1000L;
+    for (int i = 0; i < readings; i++) {
+      state.record(nextReading());
+    }
+  }
+
+  static WeatherStationSettings settings(int readings) {
+    // retain all the readings on the heap
+    return WeatherStationSettings.create(ConfigFactory.parseString(
+        "max-readings-per-data-type = " + readings + "\n" +
+        "retention.raw = 1000d").withFallback(ConfigFactory.load().getConfig("killrweather.weather-station")));
+  }
+
+  private WeatherStation.Data nextReading() {
+    WeatherStation.Data data = new WeatherStation.Data(nextEventTime, WeatherStation.DataType.Temperature, 5 + 30 * random.nextDouble());
+    nextEventTime += 1000;
+    return data;
+  }
+
+  @Benchmark
+  public StationState record() {
+    state.record(nextReading());
+    return state;
+  }
+
+  @Benchmark
+  public WeatherStation.QueryResult queryAverage() {
+    return state.query(WSID, new WeatherStation.Query(WeatherStation.DataType.Temperature, WeatherStation.Function.Average, null));
+  }
+
+  @Benchmark
+  public WeatherStation.QueryResult queryHourlyHighLowLastDay() {
+    // from the hourly buckets
+    return state.query(WSID, new WeatherStation.Query(
+        WeatherStation.DataType.Temperature, WeatherStation.Function.HighLow, HOUR, nextEventTime - DAY, nextEventTime, null));
+  }
+
+  @Benchmark
+  public WeatherStation.QueryResult queryRawAverageLastHour() {
+    // 10 second windows do not fit the buckets, from the raw readings
+    return state.query(WSID, new WeatherStation.Query(
+        WeatherStation.DataType.Temperature, WeatherStation.Function.Average, 10_000, nextEventTime - HOUR, nextEventTime, null));
+  }
+
+  @Benchmark
+  public WeatherStation.QueryResult queryPercentile() {
+    return state.query(WSID, new WeatherStation.Query(
+        WeatherStation.DataType.Temperature, WeatherStation.Function.Percentile,
+        WeatherStation.Query.NO_WINDOW, WeatherStation.Query.OPEN_START, WeatherStation.Query.OPEN_END, 95, WeatherStation.Query.DEFAULT_TOP_K, null));
+  }
+
+  @Benchmark
+  public WeatherStation.QueryResult queryTopK() {
+    return state.query(WSID, new WeatherStation.Query(
+        WeatherStation.DataType.Temperature, WeatherStation.Function.TopK,
+        WeatherStation.Query.NO_WINDOW, WeatherStation.Query.OPEN_START, WeatherStation.Query.OPEN_END, WeatherStation.Query.DEFAULT_PERCENTILE, 10, null));
+  }
+}
@@ -12,11 +12,47 @@ public class FogSettings {
   public final int weatherStations;
   public final String host;
   public final Duration sampleInterval;
+  public final int emitterQueueSize;
+  public final boolean emitterBatching;
+  public final int emitterMaxBatch;
+  public final Duration emitterMaxBatchDelay;
+  public final boolean simulator;
+  public final Duration simulatorTickInterval;
+  public final boolean loadGenerator;
+  public final double loadTargetRate;
+  public final int loadMaxInFlight;
+  public final Duration loadRampUp;
+  public final Duration loadDuration;
 
-  public FogSettings(int weatherStations, String host, Duration sampleInterval) {
+  public FogSettings(
+      int weatherStations,
+      String host,
+      Duration sampleInterval,
+      int emitterQueueSize,
+      boolean emitterBatching,
+      int emitterMaxBatch,
+      Duration emitterMaxBatchDelay,
+      boolean simulator,
+      Duration simulatorTickInterval,
+      boolean loadGenerator,
+      double loadTargetRate,
+      int loadMaxInFlight,
+      Duration loadRampUp,
+      Duration loadDuration) {
     this.weatherStations = weatherStations;
     this.host = host;
     this.sampleInterval = sampleInterval;
+    this.emitterQueueSize = emitterQueueSize;
+    this.emitterBatching = emitterBatching;
+    this.emitterMaxBatch = emitterMaxBatch;
+    this.emitterMaxBatchDelay = emitterMaxBatchDelay;
+    this.simulator = simulator;
+    this.simulatorTickInterval = simulatorTickInterval;
+    this.loadGenerator = loadGenerator;
+    this.loadTargetRate = loadTargetRate;
+    this.loadMaxInFlight = loadMaxInFlight;
+    this.loadRampUp = loadRampUp;
+    this.loadDuration = loadDuration;
   }
 
   public static FogSettings create(ActorSystem<?> system) {
@@ -27,7 +63,18 @@ public class FogSettings {
     return new FogSettings(
         config.getInt("initial-weather-stations"),
         config.getString("weather-station.hostname"),
-        config.getDuration("weather-station.sample-interval")
+        config.getDuration("weather-station.sample-interval"),
+        config.getInt("weather-station.emitter.queue-size"),
+        config.getBoolean("weather-station.emitter.batching"),
+        config.getInt("weather-station.emitter.max-batch"),
+        config.getDuration("weather-station.emitter.max-batch-delay"),
+        config.getBoolean("simulator.enabled"),
+        config.getDuration("simulator.tick-interval"),
+        config.getBoolean("load.enabled"),
+        config.getDouble("load.target-rate"),
+        config.getInt("load.max-in-flight"),
+        config.getDuration("load.ramp-up"),
+        config.getDuration("load.duration")
     );
   }
 }
@@ -8,7 +8,10 @@ import akka.actor.typed.SupervisorStrategy;
 import akka.actor.typed.javadsl.Behaviors;
 
 import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public final class Guardian {
 
@@ -16,6 +19,26 @@ public final class Guardian {
     return Behaviors.setup(context -> {
       FogSettings settings = FogSettings.create(context.getSystem());
 
+      if (settings.loadGenerator) {
+        context.spawn(LoadGenerator.create(settings, weatherPorts), "load-generator");
+        return Behaviors.empty();
+      }
+
+      if (settings.simulator) {
+        for (int p = 0; p < weatherPorts.size(); p++) {
+          // the same stations for each node as below
+          int[] wsids = new int[settings.weatherStations / weatherPorts.size() + 1];
+          int count = 0;
+          for (int i = 1; i <= settings.weatherStations; i++) {
+            if (i % weatherPorts.size() == p) wsids[count++] = i;
+          }
+          StationSimulator.run(context.getSystem(), settings, weatherPorts.get(p), Arrays.copyOf(wsids, count));
+        }
+        return Behaviors.empty();
+      }
+
+      // one emitter for each HTTP API node, shared by all the stations reporting to it
+      Map<Integer, WeatherEmitter> emitters = new HashMap<>();
       for (int i = 1; i <= settings.weatherStations; i++) {
         String wsid = Integer.toString(i);
         // choose one of the HTTP API nodes to report to
@@ -23,7 +46,8 @@ public final class Guardian {
 
         context.spawn(
             Behaviors.supervise(
-                WeatherStation.create(wsid, settings, weatherPort)
+                WeatherStation.create(wsid, settings,
+                    emitters.computeIfAbsent(weatherPort, port -> new WeatherEmitter(context.getSystem(), settings, port)))
             ).onFailure(
                 RuntimeException.class,
                 SupervisorStrategy.restartWithBackoff(Duration.ofSeconds(1), Duration.ofSeconds(5), 0.5)
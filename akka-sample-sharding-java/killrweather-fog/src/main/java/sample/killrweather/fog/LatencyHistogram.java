@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2009-2024 Lightbend Inc. <https://www.lightbend.com>
+ */
+package sample.killrweather.fog;
+
+/**
+ * Histogram of latencies in microseconds with a fixed number of counters, in the style of HdrHistogram: exact below
+ * 64 microseconds, above that each power of two range is split in 64 sub ranges, so any recorded value is reported
+ * within about 1.5% of its actual value however large it is.
+ *
+ * Not thread safe.
+ */
+final class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 6;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  private final long[] counts = new long[(64 - SUB_BUCKET_BITS) * SUB_BUCKETS];
+  private long count = 0;
+  private long max = 0;
+
+  void recordMicros(long micros) {
+    long value = Math.max(0, micros);
+    counts[indexOf(value)]++;
+    count++;
+    if (value > max) max = value;
+  }
+
+  long count() {
+    return count;
+  }
+
+  long maxMicros() {
+    return max;
+  }
+
+  /**
+   * @param percentile between 0 and 100
+   * @return the highest value in the range the percentile falls in, 0 if nothing was recorded
+   */
+  long percentileMicros(double percentile) {
+    if (count == 0) return 0;
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+    long seen = 0;
+    for (int i = 0; i < counts.length; i++) {
+      seen += counts[i];
+      if (seen >= rank) return Math.min(highestValueAt(i), max);
+    }
+    return max;
+  }
+
+  private static int indexOf(long value) {
+    if (value < SUB_BUCKETS) return (int) value;
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int shift = exponent - SUB_BUCKET_BITS;
+    return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+  }
+
+  private static long highestValueAt(int index) {
+    if (index < SUB_BUCKETS) return index;
+    int shift = index / SUB_BUCKETS - 1;
+    long subBucket = index % SUB_BUCKETS + SUB_BUCKETS;
+    return ((subBucket + 1) << shift) - 1;
+  }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2009-2024 Lightbend Inc. <https://www.lightbend.com>
+ */
+package sample.killrweather.fog;
+
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.javadsl.AbstractBehavior;
+import akka.actor.typed.javadsl.ActorContext;
+import akka.actor.typed.javadsl.Adapter;
+import akka.actor.typed.javadsl.Behaviors;
+import akka.actor.typed.javadsl.Receive;
+import akka.http.javadsl.Http;
+import akka.http.javadsl.model.ContentTypes;
+import akka.http.javadsl.model.HttpRequest;
+import akka.serialization.jackson.JacksonObjectMapperProvider;
+import akka.stream.javadsl.Source;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Alternative to running one actor per simulated weather station, used when `killrweather.fog.load.enabled = on`,
+ * posting observations for random stations at a target rate, ramping up to it, for a fixed duration, and printing
+ * the throughput and latency percentiles at the end before terminating.
+ *
+ * Requests are sent for as long as there are fewer than the max in flight, once that is reached sending is held
+ * back, but latencies are measured from when each request was due, see {@link LoadProfile}, so a cluster not
+ * keeping up shows in the latencies rather than as a lower rate of requests.
+ */
+final class LoadGenerator extends AbstractBehavior<LoadGenerator.Command> {
+
+  interface Command {}
+
+  private static final class Completed implements Command {
+    final Results results;
+    Completed(Results results) {
+      this.results = results;
+    }
+  }
+
+  private static final class Failed implements Command {
+    final Throwable cause;
+    Failed(Throwable cause) {
+      this.cause = cause;
+    }
+  }
+
+  private static final class Response {
+    final long latencyNanos;
+    final boolean success;
+    Response(long latencyNanos, boolean success) {
+      this.latencyNanos = latencyNanos;
+      this.success = success;
+    }
+  }
+
+  private static final class Results {
+    final LatencyHistogram latencies = new LatencyHistogram();
+    long failures = 0;
+
+    Results add(Response response) {
+      if (response.success) latencies.recordMicros(response.latencyNanos / 1000);
+      else failures++;
+      return this;
+    }
+  }
+
+  private static final Duration TICK_INTERVAL = Duration.ofMillis(5);
+
+  public static Behavior<Command> create(FogSettings settings, List<Integer> weatherPorts) {
+    return Behaviors.setup(context -> new LoadGenerator(context, settings, weatherPorts));
+  }
+
+  private final FogSettings settings;
+  private final List<Integer> weatherPorts;
+  private final ActorSystem<?> system;
+  private final Http http;
+  private final ObjectMapper objectMapper;
+  private final LoadProfile profile;
+  private final long startNanos;
+
+  private LoadGenerator(ActorContext<Command> context, FogSettings settings, List<Integer> weatherPorts) {
+    super(context);
+    this.settings = settings;
+    this.weatherPorts = weatherPorts;
+    this.system = context.getSystem();
+    this.http = Http.get(Adapter.toClassic(context.getSystem()));
+    this.objectMapper = JacksonObjectMapperProvider.get(context.getSystem()).getOrCreate("weather-station", Optional.empty());
+    this.profile = new LoadProfile(settings.loadTargetRate, settings.loadRampUp);
+
+    context.getLog().info("Generating load at {} requests/s after ramping up for {}, for {}, at most {} requests in flight",
+        settings.loadTargetRate, settings.loadRampUp, settings.loadDuration, settings.loadMaxInFlight);
+    startNanos = System.nanoTime();
+    CompletionStage<Results> done = Source.tick(Duration.ZERO, TICK_INTERVAL, "tick")
+        .takeWithin(settings.loadDuration)
+        // ticks are dropped while sending is held back, each tick catches up with all requests due by then
+        .statefulMapConcat(() -> {
+          long[] requestsSent = {0};
+          return tick -> requestsDue(requestsSent);
+        })
+        .mapAsyncUnordered(settings.loadMaxInFlight, this::send)
+        .runFold(new Results(), Results::add, context.getSystem());
+    context.pipeToSelf(done, (results, failure) -> {
+      if (failure == null) return new Completed(results);
+      else return new Failed(failure);
+    });
+  }
+
+  @Override
+  public Receive<Command> createReceive() {
+    return newReceiveBuilder()
+        .onMessage(Completed.class, this::onCompleted)
+        .onMessage(Failed.class, this::onFailed)
+        .build();
+  }
+
+  /**
+   * @return the times the requests due since the last call should have been sent at
+   */
+  private List<Long> requestsDue(long[] requestsSent) {
+    long due = profile.requestsDue(System.nanoTime() - startNanos);
+    List<Long> sendTimes = new ArrayList<>((int) Math.max(0, due - requestsSent[0]));
+    while (requestsSent[0] < due) {
+      requestsSent[0]++;
+      sendTimes.add(startNanos + profile.sendTime(requestsSent[0]));
+    }
+    return sendTimes;
+  }
+
+  private CompletionStage<Response> send(long dueNanos) {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    int station = 1 + random.nextInt(settings.weatherStations);
+    int weatherPort = weatherPorts.get(station % weatherPorts.size());
+    double temperature = 5 + 30 * random.nextDouble();
+    Observation observation = new Observation(System.currentTimeMillis(), Arrays.asList(
+        new Measurement("temperature", temperature),
+        new Measurement("dewpoint", temperature - 10 * random.nextDouble()),
+        new Measurement("pressure", 990 + 40 * random.nextDouble())));
+    final String json;
+    try {
+      json = objectMapper.writeValueAsString(observation);
+    } catch (Exception e) {
+      return CompletableFuture.failedFuture(e);
+    }
+    String url = "http://" + settings.host + ":" + weatherPort + "/weather/" + station;
+    return http.singleRequest(HttpRequest.POST(url).withEntity(ContentTypes.APPLICATION_JSON, json))
+        .thenApply(response -> {
+          response.discardEntityBytes(system);
+          return new Response(System.nanoTime() - dueNanos, response.status().isSuccess());
+        })
+        // connection failures count as failed requests rather than failing the run
+        .exceptionally(failure -> new Response(System.nanoTime() - dueNanos, false));
+  }
+
+  private Behavior<Command> onCompleted(Completed completed) {
+    double seconds = (System.nanoTime() - startNanos) / 1_000_000_000d;
+    LatencyHistogram latencies = completed.results.latencies;
+    getContext().getLog().info(String.format(
+        "Load run completed in %.1f s: %d requests succeeded, %d failed, throughput %.1f requests/s%n" +
+        "Latency ms: p50 %.2f, p90 %.2f, p99 %.2f, p99.9 %.2f, max %.2f",
+        seconds,
+        latencies.count(),
+        completed.results.failures,
+        latencies.count() / seconds,
+        latencies.percentileMicros(50) / 1000d,
+        latencies.percentileMicros(90) / 1000d,
+        latencies.percentileMicros(99) / 1000d,
+        latencies.percentileMicros(99.9) / 1000d,
+        latencies.maxMicros() / 1000d));
+    getContext().getSystem().terminate();
+    return Behaviors.stopped();
+  }
+
+  private Behavior<Command> onFailed(Failed failed) {
+    getContext().getLog().error("Load run failed", failed.cause);
+    getContext().getSystem().terminate();
+    return Behaviors.stopped();
+  }
+}
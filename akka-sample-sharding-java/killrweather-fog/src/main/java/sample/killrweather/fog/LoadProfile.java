@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2009-2024 Lightbend Inc. <https://www.lightbend.com>
+ */
+package sample.killrweather.fog;
+
+import java.time.Duration;
+
+/**
+ * When each request should be sent to ramp up linearly from 0 to the target rate over the ramp up time and then
+ * stay at the target rate. Latencies are measured from the time a request should have been sent rather than when
+ * it actually was, so that requests held back by the requests in flight limit still count the time they waited.
+ */
+final class LoadProfile {
+
+  private final double ratePerNano;
+  private final long rampUpNanos;
+
+  LoadProfile(double targetRatePerSecond, Duration rampUp) {
+    if (targetRatePerSecond <= 0) throw new IllegalArgumentException("Target rate must be positive, was " + targetRatePerSecond);
+    this.ratePerNano = targetRatePerSecond / 1_000_000_000d;
+    this.rampUpNanos = rampUp.toNanos();
+  }
+
+  /**
+   * @return the number of requests that should have been sent this long after the start
+   */
+  long requestsDue(long elapsedNanos) {
+    if (elapsedNanos < rampUpNanos)
+      return (long) (ratePerNano * elapsedNanos * elapsedNanos / (2.0 * rampUpNanos));
+    else
+      return (long) (ratePerNano * (rampUpNanos / 2.0 + (elapsedNanos - rampUpNanos)));
+  }
+
+  /**
+   * @return nanos after the start when request number n, counting from 1, should be sent
+   */
+  long sendTime(long n) {
+    double rampUpRequests = ratePerNano * rampUpNanos / 2.0;
+    if (n < rampUpRequests)
+      return (long) Math.sqrt(2.0 * rampUpNanos * n / ratePerNano);
+    else
+      return (long) (rampUpNanos + (n - rampUpRequests) / ratePerNano);
+  }
+}
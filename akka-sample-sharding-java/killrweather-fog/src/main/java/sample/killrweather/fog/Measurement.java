@@ -4,15 +4,13 @@
 package sample.killrweather.fog;
 
 /**
- * Datapoint for serializing to JSON with jackson and posting to Killrweather HTTP API
+ * The value of one data type in an {@link Observation}
  */
-public class Data {
-  public final long eventTime;
+public class Measurement {
   public final String dataType;
   public final double value;
 
-  public Data(long eventTime, String dataType, double value) {
-    this.eventTime = eventTime;
+  public Measurement(String dataType, double value) {
     this.dataType = dataType;
     this.value = value;
   }
@@ -0,0 +1,20 @@
+/*
+ * Copyright (C) 2009-2024 Lightbend Inc. <https://www.lightbend.com>
+ */
+package sample.killrweather.fog;
+
+import java.util.List;
+
+/**
+ * Values of several data types measured at the same time, for serializing to JSON with jackson and posting to
+ * Killrweather HTTP API in a single request
+ */
+public class Observation {
+  public final long eventTime;
+  public final List<Measurement> values;
+
+  public Observation(long eventTime, List<Measurement> values) {
+    this.eventTime = eventTime;
+    this.values = values;
+  }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2009-2024 Lightbend Inc. <https://www.lightbend.com>
+ */
+package sample.killrweather.fog;
+
+import akka.actor.typed.ActorSystem;
+import akka.http.javadsl.model.ContentTypes;
+import akka.http.javadsl.model.HttpRequest;
+import akka.japi.Pair;
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Simulates the weather stations reporting to one HTTP API node without an actor for each station, enabled with
+ * `killrweather.fog.simulator.enabled = on`.
+ *
+ * The state of the stations is kept in primitive arrays indexed by station and a single tick source samples the
+ * stations that are due. The sample times of the stations are spread evenly over the sample interval, so that every
+ * station is sampled once per interval and each tick only has to look at the stations due since the previous one.
+ * The samples of a tick are written straight into newline delimited JSON bodies for `/weather/stream`.
+ */
+final class StationSimulator {
+
+  private static final Object TICK = new Object();
+
+  /**
+   * Start simulating the given stations, reporting to the node on the given port
+   */
+  static void run(ActorSystem<?> system, FogSettings settings, int port, int[] wsids) {
+    StationSimulator simulator = new StationSimulator(wsids, settings.sampleInterval.toMillis(), settings.emitterMaxBatch);
+    Source.tick(settings.simulatorTickInterval, settings.simulatorTickInterval, TICK)
+        // the simulator is only used from this stage, and a dropped tick is caught up with in the next one
+        .mapConcat(tick -> simulator.sample(System.currentTimeMillis()))
+        .map(batch -> Pair.create(
+            HttpRequest.POST("/weather/stream").withEntity(ContentTypes.APPLICATION_JSON, batch.first()),
+            batch.second()))
+        .runWith(WeatherEmitter.send(system, settings, port), system);
+    system.log().info("Simulating {} weather stations reporting to port {}", wsids.length, port);
+  }
+
+  private final int[] wsids;
+  private final double[] temperature;
+  private final double[] dewPointSpread;
+  private final double[] pressure;
+  private final long sampleIntervalMillis;
+  private final int maxBatch;
+  private final SplittableRandom random = new SplittableRandom();
+  private final StringBuilder json;
+  // -1 until the first tick
+  private long startMillis = -1;
+  // total number of samples taken, the next station to sample is samples % number of stations
+  private long samples = 0;
+
+  StationSimulator(int[] wsids, long sampleIntervalMillis, int maxBatch) {
+    this.wsids = wsids;
+    this.sampleIntervalMillis = sampleIntervalMillis;
+    this.maxBatch = maxBatch;
+    temperature = new double[wsids.length];
+    dewPointSpread = new double[wsids.length];
+    pressure = new double[wsids.length];
+    for (int i = 0; i < wsids.length; i++) {
+      temperature[i] = 5 + 30 * random.nextDouble();
+      dewPointSpread[i] = 10 * random.nextDouble();
+      pressure[i] = 990 + 40 * random.nextDouble();
+    }
+    json = new StringBuilder(maxBatch * 240);
+  }
+
+  /**
+   * Sample all stations that are due at the given time
+   *
+   * @return the request bodies paired with the number of samples in them
+   */
+  List<Pair<ByteString, Integer>> sample(long nowMillis) {
+    List<Pair<ByteString, Integer>> batches = new ArrayList<>();
+    if (wsids.length == 0) return batches;
+    if (startMillis == -1) startMillis = nowMillis;
+    long due = (nowMillis - startMillis) * wsids.length / sampleIntervalMillis;
+    if (due - samples > wsids.length) {
+      // more than one interval behind, sampling the stations more than once in a batch does not help
+      samples = due - wsids.length;
+    }
+    int inBatch = 0;
+    while (samples < due) {
+      int station = (int) (samples % wsids.length);
+      // the time the sample was due rather than now, so that catching up does not bunch up the event times
+      long eventTime = startMillis + samples * sampleIntervalMillis / wsids.length;
+      appendSample(station, eventTime);
+      samples++;
+      inBatch++;
+      if (inBatch == maxBatch) {
+        batches.add(Pair.create(ByteString.fromString(json.toString()), inBatch));
+        json.setLength(0);
+        inBatch = 0;
+      }
+    }
+    if (inBatch > 0) {
+      batches.add(Pair.create(ByteString.fromString(json.toString()), inBatch));
+      json.setLength(0);
+    }
+    return batches;
+  }
+
+  private void appendSample(int station, long eventTime) {
+    // a random walk from the previous sample of the station
+    temperature[station] += random.nextDouble(-0.5, 0.5);
+    dewPointSpread[station] = Math.max(0, dewPointSpread[station] + random.nextDouble(-0.2, 0.2));
+    pressure[station] += random.nextDouble(-0.3, 0.3);
+    appendValue(station, eventTime, "temperature", temperature[station]);
+    appendValue(station, eventTime, "dewpoint", temperature[station] - dewPointSpread[station]);
+    appendValue(station, eventTime, "pressure", pressure[station]);
+  }
+
+  private void appendValue(int station, long eventTime, String dataType, double value) {
+    json.append("{\"wsid\":").append(wsids[station])
+        .append(",\"eventTime\":").append(eventTime)
+        .append(",\"dataType\":\"").append(dataType)
+        .append("\",\"value\":").append(value)
+        .append("}\n");
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2009-2024 Lightbend Inc. <https://www.lightbend.com>
+ */
+package sample.killrweather.fog;
+
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.javadsl.Adapter;
+import akka.http.javadsl.ConnectHttp;
+import akka.http.javadsl.HostConnectionPool;
+import akka.http.javadsl.Http;
+import akka.http.javadsl.model.ContentTypes;
+import akka.http.javadsl.model.HttpRequest;
+import akka.http.javadsl.model.HttpResponse;
+import akka.japi.Pair;
+import akka.stream.BoundedSourceQueue;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
+import scala.util.Try;
+
+import java.util.List;
+
+/**
+ * Sends the samples of all the simulated stations reporting to the same HTTP API node through one stream with a
+ * pooled connection to the node, rather than each station making its own requests.
+ *
+ * The stations offer samples to a bounded queue without waiting for them to be sent, samples are dropped if the
+ * queue is full. When batching is enabled the samples arriving within a short time are posted as one request to
+ * the `/weather/stream` endpoint, otherwise each sample is posted to the endpoint of its station.
+ * The JSON is written directly, it is simple enough to not need an object mapper for each sample.
+ */
+final class WeatherEmitter {
+
+  static final class Sample {
+    final String wsid;
+    final Observation observation;
+
+    Sample(String wsid, Observation observation) {
+      this.wsid = wsid;
+      this.observation = observation;
+    }
+  }
+
+  private final BoundedSourceQueue<Sample> queue;
+
+  WeatherEmitter(ActorSystem<?> system, FogSettings settings, int port) {
+    Source<Sample, BoundedSourceQueue<Sample>> samples = Source.queue(settings.emitterQueueSize);
+    Source<Pair<HttpRequest, Integer>, BoundedSourceQueue<Sample>> requests = settings.emitterBatching
+        ? samples
+            .groupedWithin(settings.emitterMaxBatch, settings.emitterMaxBatchDelay)
+            .map(batch -> Pair.create(batchRequest(batch), batch.size()))
+        : samples.map(sample -> Pair.create(sampleRequest(sample), 1));
+    queue = requests.to(send(system, settings, port)).run(system);
+  }
+
+  /**
+   * Sends requests paired with the number of samples in them through the pooled connection to the node
+   */
+  static Sink<Pair<HttpRequest, Integer>, HostConnectionPool> send(ActorSystem<?> system, FogSettings settings, int port) {
+    return Http.get(Adapter.toClassic(system)).<Integer>cachedHostConnectionPool(ConnectHttp.toHost(settings.host, port))
+        .to(Sink.foreach(response -> onResponse(system, port, response.first(), response.second())));
+  }
+
+  /**
+   * @return false if the sample was dropped because the queue is full
+   */
+  boolean offer(Sample sample) {
+    return queue.offer(sample).isEnqueued();
+  }
+
+  private static HttpRequest batchRequest(List<Sample> batch) {
+    // newline delimited, one line for each value
+    StringBuilder json = new StringBuilder(batch.size() * 240);
+    for (Sample sample : batch) {
+      for (Measurement measurement : sample.observation.values) {
+        json.append("{\"wsid\":").append(sample.wsid)
+            .append(",\"eventTime\":").append(sample.observation.eventTime)
+            .append(",\"dataType\":\"").append(measurement.dataType)
+            .append("\",\"value\":").append(measurement.value)
+            .append("}\n");
+      }
+    }
+    return HttpRequest.POST("/weather/stream").withEntity(ContentTypes.APPLICATION_JSON, ByteString.fromString(json.toString()));
+  }
+
+  private static HttpRequest sampleRequest(Sample sample) {
+    StringBuilder json = new StringBuilder(160);
+    json.append("{\"eventTime\":").append(sample.observation.eventTime).append(",\"values\":[");
+    for (int i = 0; i < sample.observation.values.size(); i++) {
+      Measurement measurement = sample.observation.values.get(i);
+      if (i > 0) json.append(',');
+      json.append("{\"dataType\":\"").append(measurement.dataType)
+          .append("\",\"value\":").append(measurement.value)
+          .append('}');
+    }
+    json.append("]}");
+    return HttpRequest.POST("/weather/" + sample.wsid).withEntity(ContentTypes.APPLICATION_JSON, ByteString.fromString(json.toString()));
+  }
+
+  private static void onResponse(ActorSystem<?> system, int port, Try<HttpResponse> tried, int samples) {
+    if (tried.isSuccess()) {
+      HttpResponse response = tried.get();
+      response.discardEntityBytes(system);
+      if (!response.status().isSuccess())
+        system.log().warn("Failed to register {} samples on port {}: {}", samples, port, response.status());
+    } else {
+      system.log().warn("Failed to register {} samples on port {}: {}", samples, port, tried.failed().get().getMessage());
+    }
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2009-2024 Lightbend Inc. <https://www.lightbend.com>
+ */
+package sample.killrweather;
+
+/**
+ * Running count, sum, min, max and latest value over all readings of one data type, updated
+ * for each recorded reading so that queries over them can be answered in constant time.
+ *
+ * Readings may arrive out of event time order, the first time is the earliest event time seen and the
+ * current value is the one with the latest event time, rather than the one recorded last.
+ *
+ * Not thread safe, only to be used from inside the owning actor.
+ */
+final class Aggregate {
+
+  private long count = 0;
+  private double sum = 0;
+  private double min = Double.POSITIVE_INFINITY;
+  private long minTime = 0;
+  private double max = Double.NEGATIVE_INFINITY;
+  private long maxTime = 0;
+  private long firstTime = 0;
+  private double current = 0;
+  private long currentTime = 0;
+
+  Aggregate() {
+  }
+
+  /**
+   * Restore a previously captured aggregate
+   */
+  Aggregate(long count, double sum, double min, long minTime, double max, long maxTime, long firstTime, double current, long currentTime) {
+    this.count = count;
+    this.sum = sum;
+    this.min = min;
+    this.minTime = minTime;
+    this.max = max;
+    this.maxTime = maxTime;
+    this.firstTime = firstTime;
+    this.current = current;
+    this.currentTime = currentTime;
+  }
+
+  void add(long eventTime, double value) {
+    if (count == 0 || eventTime < firstTime) firstTime = eventTime;
+    if (count == 0 || eventTime >= currentTime) {
+      current = value;
+      currentTime = eventTime;
+    }
+    count++;
+    sum += value;
+    if (value < min) {
+      min = value;
+      minTime = eventTime;
+    }
+    if (value > max) {
+      max = value;
+      maxTime = eventTime;
+    }
+  }
+
+  boolean isEmpty() {
+    return count == 0;
+  }
+
+  long count() {
+    return count;
+  }
+
+  double sum() {
+    return sum;
+  }
+
+  double average() {
+    return sum / count;
+  }
+
+  double min() {
+    return min;
+  }
+
+  long minTime() {
+    return minTime;
+  }
+
+  double max() {
+    return max;
+  }
+
+  long maxTime() {
+    return maxTime;
+  }
+
+  long firstTime() {
+    return firstTime;
+  }
+
+  double current() {
+    return current;
+  }
+
+  long currentTime() {
+    return currentTime;
+  }
+}
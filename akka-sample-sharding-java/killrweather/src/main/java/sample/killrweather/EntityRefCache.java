@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2009-2024 Lightbend Inc. <https://www.lightbend.com>
+ */
+package sample.killrweather;
+
+import akka.cluster.sharding.typed.javadsl.ClusterSharding;
+import akka.cluster.sharding.typed.javadsl.EntityRef;
+import akka.cluster.sharding.typed.javadsl.EntityTypeKey;
+
+/**
+ * Bounded cache of the entity refs of entities with numeric ids, so that the HTTP routes do not turn the id into a
+ * string and create a new entity ref for every request. Direct mapped: each id has a single slot, shared with the
+ * other ids hashing to it, and the last id looked up in a slot wins. A hit does not allocate.
+ *
+ * Thread safe without locking, the entries are immutable and a lost update only means a later miss.
+ */
+final class EntityRefCache<M> {
+
+  private static final class Entry<M> {
+    final long id;
+    final EntityRef<M> ref;
+
+    Entry(long id, EntityRef<M> ref) {
+      this.id = id;
+      this.ref = ref;
+    }
+  }
+
+  private final ClusterSharding sharding;
+  private final EntityTypeKey<M> typeKey;
+  private final Entry<M>[] entries;
+  private final int mask;
+  private final int bits;
+
+  /**
+   * @param size rounded up to a power of two
+   */
+  @SuppressWarnings("unchecked")
+  EntityRefCache(ClusterSharding sharding, EntityTypeKey<M> typeKey, int size) {
+    this.sharding = sharding;
+    this.typeKey = typeKey;
+    int slots = Integer.highestOneBit(Math.max(1, size - 1)) << 1;
+    this.entries = (Entry<M>[]) new Entry[slots];
+    this.mask = slots - 1;
+    this.bits = Integer.numberOfTrailingZeros(slots);
+  }
+
+  EntityRef<M> get(long id) {
+    // consecutive ids get consecutive slots, folding in the higher bits keeps ids in strides of the size apart
+    int slot = (int) (id ^ (id >>> bits)) & mask;
+    Entry<M> entry = entries[slot];
+    if (entry != null && entry.id == id) return entry.ref;
+    EntityRef<M> ref = sharding.entityRefFor(typeKey, Long.toString(id));
+    entries[slot] = new Entry<>(id, ref);
+    return ref;
+  }
+}
@@ -3,9 +3,12 @@
  */
 package sample.killrweather;
 
+import akka.actor.typed.ActorRef;
 import akka.actor.typed.Behavior;
 import akka.actor.typed.javadsl.Behaviors;
 
+import java.util.Optional;
+
 /**
  * Root actor bootstrapping the application
  */
@@ -14,8 +17,15 @@ final class Guardian {
   public static Behavior<Void> create(int httpPort) {
     return Behaviors.setup(context -> {
       WeatherStation.initSharding(context.getSystem());
+      WeatherRegion.initSharding(context.getSystem());
+      context.spawn(ShardLoadTracker.create(), "shardLoadTracker");
+
+      Optional<ActorRef<WeatherIngest.Command>> ingest =
+          context.getSystem().settings().config().getBoolean("killrweather.ingest.reliable-delivery")
+              ? Optional.of(WeatherIngest.init(context))
+              : Optional.empty();
 
-      WeatherRoutes routes = new WeatherRoutes(context.getSystem());
+      WeatherRoutes routes = new WeatherRoutes(context.getSystem(), ingest);
       WeatherHttpServer.start(routes.weather(), httpPort, context.getSystem());
 
       return Behaviors.empty();
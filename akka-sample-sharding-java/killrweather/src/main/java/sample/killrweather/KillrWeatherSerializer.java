@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2009-2024 Lightbend Inc. <https://www.lightbend.com>
+ */
+package sample.killrweather;
+
+import akka.actor.ExtendedActorSystem;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.ActorRefResolver;
+import akka.actor.typed.javadsl.Adapter;
+import akka.serialization.ByteBufferSerializer;
+import akka.serialization.SerializerWithStringManifest;
+
+import java.io.NotSerializableException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Serializer for the messages sent to and from the weather stations for every reading and query, used instead of
+ * Jackson CBOR for these, see `akka.actor.serialization-bindings` in `application.conf`.
+ *
+ * Jackson writes the field names of every message and reflects over the classes, this writes fixed binary layouts
+ * instead: enums as their ordinal, integers as zig-zag varints, doubles as 8 bytes and strings as UTF-8 prefixed
+ * by their length. Event times in a batch are written as the difference to the one before, which mostly fits in a
+ * couple of bytes. As a {@link ByteBufferSerializer} the Artery transport lets it write straight into its own
+ * buffers without an intermediate byte array.
+ *
+ * The layouts have no version, changing a message requires a new manifest to keep rolling updates working.
+ */
+public final class KillrWeatherSerializer extends SerializerWithStringManifest implements ByteBufferSerializer {
+
+  private static final String RECORD_MANIFEST = "R";
+  private static final String RECORD_OBSERVATION_MANIFEST = "O";
+  private static final String RECORD_BATCH_MANIFEST = "B";
+  private static final String DATA_RECORDED_MANIFEST = "DR";
+  private static final String QUERY_MANIFEST = "Q";
+  private static final String QUERY_RESULT_MANIFEST = "QR";
+
+  private static final WeatherStation.DataType[] DATA_TYPES = WeatherStation.DataType.values();
+  private static final WeatherStation.Function[] FUNCTIONS = WeatherStation.Function.values();
+
+  private static final int INITIAL_BUFFER_SIZE = 4096;
+
+  private final ActorRefResolver actorRefResolver;
+  // for toBinary(Object) only, grown when a message does not fit
+  private final ThreadLocal<ByteBuffer> buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocate(INITIAL_BUFFER_SIZE));
+
+  public KillrWeatherSerializer(ExtendedActorSystem system) {
+    this.actorRefResolver = ActorRefResolver.get(Adapter.toTyped(system));
+  }
+
+  @Override
+  public int identifier() {
+    return 7301;
+  }
+
+  @Override
+  public String manifest(Object o) {
+    if (o instanceof WeatherStation.Record) return RECORD_MANIFEST;
+    else if (o instanceof WeatherStation.RecordObservation) return RECORD_OBSERVATION_MANIFEST;
+    else if (o instanceof WeatherStation.RecordBatch) return RECORD_BATCH_MANIFEST;
+    else if (o instanceof WeatherStation.DataRecorded) return DATA_RECORDED_MANIFEST;
+    else if (o instanceof WeatherStation.Query) return QUERY_MANIFEST;
+    else if (o instanceof WeatherStation.QueryResult) return QUERY_RESULT_MANIFEST;
+    else throw new IllegalArgumentException("Can't serialize object of type " + o.getClass());
+  }
+
+  @Override
+  public byte[] toBinary(Object o) {
+    ByteBuffer buffer = buffers.get();
+    while (true) {
+      buffer.clear();
+      try {
+        toBinary(o, buffer);
+        break;
+      } catch (BufferOverflowException e) {
+        buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+        buffers.set(buffer);
+      }
+    }
+    buffer.flip();
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.get(bytes);
+    return bytes;
+  }
+
+  @Override
+  public void toBinary(Object o, ByteBuffer buffer) {
+    if (o instanceof WeatherStation.Record) {
+      WeatherStation.Record record = (WeatherStation.Record) o;
+      putVarLong(buffer, record.data.eventTime);
+      buffer.put((byte) record.data.dataType.ordinal());
+      buffer.putDouble(record.data.value);
+      putVarLong(buffer, record.processingTimestamp);
+      putActorRef(buffer, record.replyTo);
+    } else if (o instanceof WeatherStation.RecordObservation) {
+      WeatherStation.RecordObservation record = (WeatherStation.RecordObservation) o;
+      putVarLong(buffer, record.observation.eventTime);
+      putVarLong(buffer, record.observation.values.size());
+      for (WeatherStation.Measurement measurement : record.observation.values) {
+        buffer.put((byte) measurement.dataType.ordinal());
+        buffer.putDouble(measurement.value);
+      }
+      putVarLong(buffer, record.processingTimestamp);
+      putActorRef(buffer, record.replyTo);
+    } else if (o instanceof WeatherStation.RecordBatch) {
+      WeatherStation.RecordBatch batch = (WeatherStation.RecordBatch) o;
+      putVarLong(buffer, batch.data.size());
+      long previousEventTime = 0;
+      for (WeatherStation.Data data : batch.data) {
+        putVarLong(buffer, data.eventTime - previousEventTime);
+        previousEventTime = data.eventTime;
+        buffer.put((byte) data.dataType.ordinal());
+        buffer.putDouble(data.value);
+      }
+      putVarLong(buffer, batch.processingTimestamp);
+      putActorRef(buffer, batch.replyTo);
+    } else if (o instanceof WeatherStation.DataRecorded) {
+      WeatherStation.DataRecorded recorded = (WeatherStation.DataRecorded) o;
+      putString(buffer, recorded.wsid);
+      putVarLong(buffer, recorded.version);
+    } else if (o instanceof WeatherStation.Query) {
+      WeatherStation.Query query = (WeatherStation.Query) o;
+      buffer.put((byte) query.dataType.ordinal());
+      buffer.put((byte) query.func.ordinal());
+      putVarLong(buffer, query.windowSize);
+      putVarLong(buffer, query.from);
+      putVarLong(buffer, query.to);
+      buffer.putDouble(query.percentile);
+      putVarLong(buffer, query.topK);
+      putActorRef(buffer, query.replyTo);
+    } else if (o instanceof WeatherStation.QueryResult) {
+      WeatherStation.QueryResult result = (WeatherStation.QueryResult) o;
+      putString(buffer, result.wsid);
+      buffer.put((byte) result.dataType.ordinal());
+      buffer.put((byte) result.function.ordinal());
+      putVarLong(buffer, result.readings);
+      putVarLong(buffer, result.value.size());
+      for (WeatherStation.TimeWindow window : result.value) {
+        putVarLong(buffer, window.start);
+        // windows are mostly short, the end is written relative to the start
+        putVarLong(buffer, window.end - window.start);
+        buffer.putDouble(window.value);
+      }
+      putVarLong(buffer, result.version);
+    } else {
+      throw new IllegalArgumentException("Can't serialize object of type " + o.getClass());
+    }
+  }
+
+  @Override
+  public Object fromBinary(byte[] bytes, String manifest) throws NotSerializableException {
+    return fromBinary(ByteBuffer.wrap(bytes), manifest);
+  }
+
+  @Override
+  public Object fromBinary(ByteBuffer buffer, String manifest) throws NotSerializableException {
+    switch (manifest) {
+      case RECORD_MANIFEST: {
+        WeatherStation.Data data = new WeatherStation.Data(getVarLong(buffer), DATA_TYPES[buffer.get()], buffer.getDouble());
+        long processingTimestamp = getVarLong(buffer);
+        return new WeatherStation.Record(data, processingTimestamp, getActorRef(buffer));
+      }
+      case RECORD_OBSERVATION_MANIFEST: {
+        long eventTime = getVarLong(buffer);
+        int size = (int) getVarLong(buffer);
+        List<WeatherStation.Measurement> values = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+          values.add(new WeatherStation.Measurement(DATA_TYPES[buffer.get()], buffer.getDouble()));
+        }
+        long processingTimestamp = getVarLong(buffer);
+        return new WeatherStation.RecordObservation(
+            new WeatherStation.Observation(eventTime, values), processingTimestamp, getActorRef(buffer));
+      }
+      case RECORD_BATCH_MANIFEST: {
+        int size = (int) getVarLong(buffer);
+        List<WeatherStation.Data> batch = new ArrayList<>(size);
+        long eventTime = 0;
+        for (int i = 0; i < size; i++) {
+          eventTime += getVarLong(buffer);
+          batch.add(new WeatherStation.Data(eventTime, DATA_TYPES[buffer.get()], buffer.getDouble()));
+        }
+        long processingTimestamp = getVarLong(buffer);
+        return new WeatherStation.RecordBatch(batch, processingTimestamp, getActorRef(buffer));
+      }
+      case DATA_RECORDED_MANIFEST:
+        return new WeatherStation.DataRecorded(getString(buffer), getVarLong(buffer));
+      case QUERY_MANIFEST: {
+        WeatherStation.DataType dataType = DATA_TYPES[buffer.get()];
+        WeatherStation.Function function = FUNCTIONS[buffer.get()];
+        long windowSize = getVarLong(buffer);
+        long from = getVarLong(buffer);
+        long to = getVarLong(buffer);
+        double percentile = buffer.getDouble();
+        int topK = (int) getVarLong(buffer);
+        return new WeatherStation.Query(dataType, function, windowSize, from, to, percentile, topK, getActorRef(buffer));
+      }
+      case QUERY_RESULT_MANIFEST: {
+        String wsid = getString(buffer);
+        WeatherStation.DataType dataType = DATA_TYPES[buffer.get()];
+        WeatherStation.Function function = FUNCTIONS[buffer.get()];
+        int readings = (int) getVarLong(buffer);
+        int size = (int) getVarLong(buffer);
+        List<WeatherStation.TimeWindow> windows = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+          long start = getVarLong(buffer);
+          windows.add(new WeatherStation.TimeWindow(start, start + getVarLong(buffer), buffer.getDouble()));
+        }
+        return new WeatherStation.QueryResult(wsid, dataType, function, readings, windows, getVarLong(buffer));
+      }
+      default:
+        throw new NotSerializableException("Unknown manifest " + manifest);
+    }
+  }
+
+  private void putActorRef(ByteBuffer buffer, ActorRef<?> ref) {
+    putString(buffer, actorRefResolver.toSerializationFormat(ref));
+  }
+
+  private <T> ActorRef<T> getActorRef(ByteBuffer buffer) {
+    return actorRefResolver.resolveActorRef(getString(buffer));
+  }
+
+  private static void putString(ByteBuffer buffer, String string) {
+    byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+    putVarLong(buffer, bytes.length);
+    buffer.put(bytes);
+  }
+
+  private static String getString(ByteBuffer buffer) {
+    int length = (int) getVarLong(buffer);
+    String string;
+    if (buffer.hasArray()) {
+      string = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+      buffer.position(buffer.position() + length);
+    } else {
+      byte[] bytes = new byte[length];
+      buffer.get(bytes);
+      string = new String(bytes, StandardCharsets.UTF_8);
+    }
+    return string;
+  }
+
+  // zig-zag encoded so that small negative values are short as well, 7 bits per byte
+  static void putVarLong(ByteBuffer buffer, long value) {
+    long zigZag = (value << 1) ^ (value >> 63);
+    while ((zigZag & ~0x7FL) != 0) {
+      buffer.put((byte) ((zigZag & 0x7F) | 0x80));
+      zigZag >>>= 7;
+    }
+    buffer.put((byte) zigZag);
+  }
+
+  static long getVarLong(ByteBuffer buffer) {
+    long zigZag = 0;
+    int shift = 0;
+    byte b;
+    do {
+      b = buffer.get();
+      zigZag |= (long) (b & 0x7F) << shift;
+      shift += 7;
+    } while ((b & 0x80) != 0);
+    return (zigZag >>> 1) ^ -(zigZag & 1);
+  }
+}
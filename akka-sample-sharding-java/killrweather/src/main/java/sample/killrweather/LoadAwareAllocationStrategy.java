@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2009-2024 Lightbend Inc. <https://www.lightbend.com>
+ */
+package sample.killrweather;
+
+import akka.actor.ActorRef;
+import akka.cluster.sharding.ShardCoordinator;
+import akka.dispatch.Futures;
+import scala.collection.immutable.IndexedSeq;
+import scala.concurrent.Future;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Allocates and rebalances the weather station shards by their load rather than by their number, so that a few busy
+ * stations do not overload one node while others are idle. The load of a shard is the rate of readings recorded by
+ * its stations, see {@link ShardLoad}, shards without a recent rate are idle. Until any rates are known the shards
+ * are balanced by their number like the default strategy does.
+ *
+ * New shards are allocated to the least loaded node. A rebalance moves shards from the most to the least loaded node
+ * while they differ by more than the threshold, a fraction of the average load of a node, picking the shard that
+ * best evens out the two nodes each time. A shard is only moved if that makes the two nodes differ less, so a single
+ * shard that is hotter than the difference stays where it is rather than moving back and forth.
+ */
+final class LoadAwareAllocationStrategy extends ShardCoordinator.AbstractShardAllocationStrategy {
+
+  private final Supplier<Map<String, Double>> rates;
+  private final double rebalanceThreshold;
+  private final int maxSimultaneousRebalance;
+
+  /**
+   * @param rates readings per second by shard id, shards without a rate are idle
+   */
+  LoadAwareAllocationStrategy(Supplier<Map<String, Double>> rates, double rebalanceThreshold, int maxSimultaneousRebalance) {
+    this.rates = rates;
+    this.rebalanceThreshold = rebalanceThreshold;
+    this.maxSimultaneousRebalance = maxSimultaneousRebalance;
+  }
+
+  /**
+   * The shards and total load of one shard region, that is one node
+   */
+  private static final class Region {
+    final ActorRef ref;
+    final List<String> shards;
+    double load = 0;
+
+    Region(ActorRef ref, IndexedSeq<String> shards) {
+      this.ref = ref;
+      this.shards = new ArrayList<>(shards.size());
+      for (int i = 0; i < shards.size(); i++) {
+        this.shards.add(shards.apply(i));
+      }
+    }
+  }
+
+  @Override
+  public Future<ActorRef> allocateShard(
+      ActorRef requester, String shardId, Map<ActorRef, IndexedSeq<String>> currentShardAllocations) {
+    List<Region> regions = regions(currentShardAllocations, rates.get());
+    return Futures.successful(leastLoaded(regions).ref);
+  }
+
+  @Override
+  public Future<Set<String>> rebalance(
+      Map<ActorRef, IndexedSeq<String>> currentShardAllocations, Set<String> rebalanceInProgress) {
+    // one round at a time, the loads are not up to date until the moved shards have been allocated again
+    if (!rebalanceInProgress.isEmpty() || currentShardAllocations.size() < 2)
+      return Futures.successful(Collections.emptySet());
+
+    Map<String, Double> shardRates = rates.get();
+    List<Region> regions = regions(currentShardAllocations, shardRates);
+    double totalLoad = 0;
+    for (Region region : regions) {
+      totalLoad += region.load;
+    }
+    double threshold = rebalanceThreshold * totalLoad / regions.size();
+
+    Set<String> toRebalance = new HashSet<>();
+    while (toRebalance.size() < maxSimultaneousRebalance) {
+      Region most = mostLoaded(regions);
+      Region least = leastLoaded(regions);
+      double difference = most.load - least.load;
+      if (difference <= threshold) break;
+
+      // the shard leaving the two regions closest to each other, only shards lowering the difference qualify
+      String best = null;
+      double bestLoad = 0;
+      for (String shard : most.shards) {
+        double load = load(shard, shardRates);
+        if (load > 0 && load < difference &&
+            (best == null || Math.abs(difference - 2 * load) < Math.abs(difference - 2 * bestLoad))) {
+          best = shard;
+          bestLoad = load;
+        }
+      }
+      if (best == null) break;
+
+      // as if it was already moved, for picking the next shard
+      most.shards.remove(best);
+      most.load -= bestLoad;
+      least.shards.add(best);
+      least.load += bestLoad;
+      toRebalance.add(best);
+    }
+    return Futures.successful(toRebalance);
+  }
+
+  private static List<Region> regions(Map<ActorRef, IndexedSeq<String>> allocations, Map<String, Double> shardRates) {
+    List<Region> regions = new ArrayList<>(allocations.size());
+    for (Map.Entry<ActorRef, IndexedSeq<String>> allocation : allocations.entrySet()) {
+      Region region = new Region(allocation.getKey(), allocation.getValue());
+      for (String shard : region.shards) {
+        region.load += load(shard, shardRates);
+      }
+      regions.add(region);
+    }
+    return regions;
+  }
+
+  private static double load(String shard, Map<String, Double> shardRates) {
+    // balance by the number of shards until any rates are known
+    if (shardRates.isEmpty()) return 1;
+    return shardRates.getOrDefault(shard, 0.0);
+  }
+
+  private static Region leastLoaded(List<Region> regions) {
+    Region least = null;
+    for (Region region : regions) {
+      if (least == null || region.load < least.load ||
+          (region.load == least.load && region.shards.size() < least.shards.size()))
+        least = region;
+    }
+    return least;
+  }
+
+  private static Region mostLoaded(List<Region> regions) {
+    Region most = null;
+    for (Region region : regions) {
+      if (most == null || region.load > most.load ||
+          (region.load == most.load && region.shards.size() > most.shards.size()))
+        most = region;
+    }
+    return most;
+  }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2009-2024 Lightbend Inc. <https://www.lightbend.com>
+ */
+package sample.killrweather;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread safe histogram of non-negative values with a fixed number of counters, in the style of HdrHistogram: exact
+ * below 64, above that each power of two range is split in 64 sub ranges, so any recorded value is counted within
+ * about 1.5% of its actual value however large it is. Recording is a couple of atomic increments, cheap enough to be
+ * always on.
+ */
+final class MetricsHistogram {
+
+  private static final int SUB_BUCKET_BITS = 6;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  private final AtomicLongArray counts = new AtomicLongArray((64 - SUB_BUCKET_BITS) * SUB_BUCKETS);
+  private final LongAdder count = new LongAdder();
+  private final LongAdder sum = new LongAdder();
+
+  /**
+   * @param value negative values are recorded as 0
+   */
+  void record(long value) {
+    long recorded = Math.max(0, value);
+    // counted before the bucket, so that a count read after the buckets is never below them
+    count.increment();
+    sum.add(recorded);
+    counts.incrementAndGet(indexOf(recorded));
+  }
+
+  long count() {
+    return count.sum();
+  }
+
+  long sum() {
+    return sum.sum();
+  }
+
+  /**
+   * @return the number of recorded values at most the given value, counting a value by the highest value of the
+   *         range it was counted in
+   */
+  long countAtMost(long value) {
+    long atMost = 0;
+    for (int i = 0; i < counts.length() && highestValueAt(i) <= value; i++) {
+      atMost += counts.get(i);
+    }
+    return atMost;
+  }
+
+  private static int indexOf(long value) {
+    if (value < SUB_BUCKETS) return (int) value;
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int shift = exponent - SUB_BUCKET_BITS;
+    return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+  }
+
+  private static long highestValueAt(int index) {
+    if (index < SUB_BUCKETS) return index;
+    int shift = index / SUB_BUCKETS - 1;
+    long subBucket = index % SUB_BUCKETS + SUB_BUCKETS;
+    return ((subBucket + 1) << shift) - 1;
+  }
+}
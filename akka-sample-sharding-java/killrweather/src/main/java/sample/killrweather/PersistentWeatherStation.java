@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2009-2024 Lightbend Inc. <https://www.lightbend.com>
+ */
+package sample.killrweather;
+
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.PostStop;
+import akka.actor.typed.javadsl.ActorContext;
+import akka.actor.typed.javadsl.Behaviors;
+import akka.actor.typed.javadsl.TimerScheduler;
+import akka.persistence.typed.PersistenceId;
+import akka.persistence.typed.RecoveryCompleted;
+import akka.persistence.typed.SnapshotAdapter;
+import akka.persistence.typed.javadsl.CommandHandler;
+import akka.persistence.typed.javadsl.Effect;
+import akka.persistence.typed.javadsl.EventHandler;
+import akka.persistence.typed.javadsl.EventSourcedBehavior;
+import akka.persistence.typed.javadsl.RetentionCriteria;
+import akka.persistence.typed.javadsl.SignalHandler;
+import com.fasterxml.jackson.annotation.JsonCreator;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An event sourced version of the {@link WeatherStation}, accepting the same commands but persisting each
+ * recorded data point as an event so that the station keeps its state when sharding rebalances or passivates it.
+ * Surviving a rebalance needs a journal and snapshot store shared by all nodes, the in memory journal and local
+ * snapshot store configured in the sample only keep the state of stations staying on the same node.
+ *
+ * Replaying every reading ever recorded would make recovery slower the longer the station has been running,
+ * so a snapshot is taken every `killrweather.weather-station.snapshot-every` events. The snapshot only contains the
+ * compact aggregated state, see {@link StationSnapshot}, so that recovery only needs to load that and replay the
+ * events since the snapshot. Raw readings are not included, queries needing them will only see readings replayed or
+ * recorded after the snapshot.
+ */
+final class PersistentWeatherStation
+    extends EventSourcedBehavior<WeatherStation.Command, PersistentWeatherStation.Event, StationState> {
+
+  public interface Event extends CborSerializable {}
+
+  public static final class Recorded implements Event {
+    public final WeatherStation.Data data;
+
+    @JsonCreator
+    public Recorded(WeatherStation.Data data) {
+      this.data = data;
+    }
+  }
+
+  public static final class ObservationRecorded implements Event {
+    public final WeatherStation.Observation observation;
+
+    @JsonCreator
+    public ObservationRecorded(WeatherStation.Observation observation) {
+      this.observation = observation;
+    }
+  }
+
+  public static final class BatchRecorded implements Event {
+    public final List<WeatherStation.Data> data;
+
+    @JsonCreator
+    public BatchRecorded(List<WeatherStation.Data> data) {
+      this.data = data;
+    }
+  }
+
+  public static Behavior<WeatherStation.Command> create(String wsid, PersistenceId persistenceId, WeatherStationSettings settings) {
+    return Behaviors.setup(context ->
+        Behaviors.withTimers(timers -> {
+          timers.startTimerWithFixedDelay(WeatherStation.Compact.INSTANCE, settings.compactionInterval);
+          return new PersistentWeatherStation(context, timers, wsid, persistenceId, settings);
+        }));
+  }
+
+  private final ActorContext<WeatherStation.Command> context;
+  private final String wsid;
+  private final WeatherStationSettings settings;
+  // opened with the empty state and handed over to the state restored from a snapshot
+  private Map<WeatherStation.DataType, RawReadings> rawReadings;
+  // not persisted, subscribers subscribe again after the station is moved
+  private final Subscribers subscribers;
+  // fed from the commands rather than the events, so that replayed events are not pushed to the region again
+  private final RegionFeed<WeatherStation.Command> regionFeed;
+  private final StationMeter meter;
+
+  private PersistentWeatherStation(ActorContext<WeatherStation.Command> context, TimerScheduler<WeatherStation.Command> timers, String wsid, PersistenceId persistenceId, WeatherStationSettings settings) {
+    // no restart supervision, the state is mutated in place and a restart would replay the events into the
+    // same instance again, instead a failing station stops and sharding starts it with fresh state on the next message
+    super(persistenceId);
+    this.context = context;
+    this.wsid = wsid;
+    this.settings = settings;
+    this.subscribers = new Subscribers(context, timers, wsid, settings.publishInterval);
+    this.regionFeed = WeatherStation.regionFeed(context, timers, wsid, settings);
+    this.meter = new StationMeter(context.getSystem(), wsid);
+  }
+
+  @Override
+  public StationState emptyState() {
+    rawReadings = RawReadings.open(context.getSystem(), settings, wsid);
+    return new StationState(settings, rawReadings);
+  }
+
+  @Override
+  public CommandHandler<WeatherStation.Command, Event, StationState> commandHandler() {
+    return newCommandHandlerBuilder().forAnyState()
+        .onCommand(WeatherStation.Record.class, this::onRecord)
+        .onCommand(WeatherStation.RecordObservation.class, this::onRecordObservation)
+        .onCommand(WeatherStation.RecordBatch.class, this::onRecordBatch)
+        .onCommand(WeatherStation.Query.class, this::onQuery)
+        .onCommand(WeatherStation.GetSummary.class, this::onGetSummary)
+        .onCommand(WeatherStation.Compact.class, this::onCompact)
+        .onCommand(WeatherStation.Subscribe.class, this::onSubscribe)
+        .onCommand(WeatherStation.SubscriberTerminated.class, this::onSubscriberTerminated)
+        .onCommand(WeatherStation.Publish.class, this::onPublish)
+        .onCommand(WeatherStation.FlushRegion.class, this::onFlushRegion)
+        .build();
+  }
+
+  private Effect<Event, StationState> onRecord(StationState state, WeatherStation.Record record) {
+    return Effect().persist(new Recorded(record.data))
+        .thenRun(newState -> {
+          recorded(record.data.eventTime, record.data.dataType, record.data.value, record.processingTimestamp);
+          recorded(newState, record.replyTo);
+        });
+  }
+
+  private Effect<Event, StationState> onRecordObservation(StationState state, WeatherStation.RecordObservation record) {
+    return Effect().persist(new ObservationRecorded(record.observation))
+        .thenRun(newState -> {
+          for (WeatherStation.Measurement measurement : record.observation.values) {
+            recorded(record.observation.eventTime, measurement.dataType, measurement.value, record.processingTimestamp);
+          }
+          recorded(newState, record.replyTo);
+        });
+  }
+
+  private Effect<Event, StationState> onRecordBatch(StationState state, WeatherStation.RecordBatch batch) {
+    return Effect().persist(new BatchRecorded(batch.data))
+        .thenRun(newState -> {
+          for (WeatherStation.Data data : batch.data) {
+            recorded(data.eventTime, data.dataType, data.value, batch.processingTimestamp);
+          }
+          recorded(newState, batch.replyTo);
+        });
+  }
+
+  // every persisted reading goes through here, however it was sent, the event handler has already recorded it
+  private void recorded(long eventTime, WeatherStation.DataType dataType, double value, long processingTimestamp) {
+    regionFeed.add(dataType, value);
+    meter.recorded(eventTime, processingTimestamp);
+  }
+
+  // once per command, however many readings it had
+  private void recorded(StationState state, ActorRef<WeatherStation.DataRecorded> replyTo) {
+    replyTo.tell(new WeatherStation.DataRecorded(wsid, state.version()));
+    subscribers.recorded();
+  }
+
+  private Effect<Event, StationState> onQuery(StationState state, WeatherStation.Query query) {
+    query.replyTo.tell(state.query(wsid, query));
+    return Effect().none();
+  }
+
+  private Effect<Event, StationState> onGetSummary(StationState state, WeatherStation.GetSummary getSummary) {
+    getSummary.replyTo.tell(state.summary(wsid, getSummary.dataType));
+    return Effect().none();
+  }
+
+  private Effect<Event, StationState> onCompact(StationState state, WeatherStation.Compact compact) {
+    // only drops data that is past its retention, which would be dropped again after recovery,
+    // so there is no need to persist an event for it
+    state.compact();
+    return Effect().none();
+  }
+
+  private Effect<Event, StationState> onSubscribe(StationState state, WeatherStation.Subscribe subscribe) {
+    subscribers.subscribe(subscribe.subscriber, state);
+    return Effect().none();
+  }
+
+  private Effect<Event, StationState> onSubscriberTerminated(StationState state, WeatherStation.SubscriberTerminated terminated) {
+    subscribers.terminated(terminated.subscriber);
+    return Effect().none();
+  }
+
+  private Effect<Event, StationState> onPublish(StationState state, WeatherStation.Publish publish) {
+    subscribers.publish(state);
+    return Effect().none();
+  }
+
+  private Effect<Event, StationState> onFlushRegion(StationState state, WeatherStation.FlushRegion flush) {
+    regionFeed.flush();
+    return Effect().none();
+  }
+
+  @Override
+  public EventHandler<StationState, Event> eventHandler() {
+    return newEventHandlerBuilder().forAnyState()
+        .onEvent(Recorded.class, (state, event) -> {
+          state.record(event.data);
+          return state;
+        })
+        .onEvent(ObservationRecorded.class, (state, event) -> {
+          state.record(event.observation);
+          return state;
+        })
+        .onEvent(BatchRecorded.class, (state, event) -> {
+          for (WeatherStation.Data data : event.data) {
+            state.record(data);
+          }
+          return state;
+        })
+        .build();
+  }
+
+  @Override
+  public RetentionCriteria retentionCriteria() {
+    return RetentionCriteria.snapshotEvery(settings.snapshotEvery, 2);
+  }
+
+  @Override
+  public SnapshotAdapter<StationState> snapshotAdapter() {
+    // store the compact aggregated state rather than the mutable in memory state with raw readings
+    return new SnapshotAdapter<StationState>() {
+      @Override
+      public Object toJournal(StationState state) {
+        return state.toSnapshot();
+      }
+
+      @Override
+      public StationState fromJournal(Object from) {
+        return StationState.fromSnapshot(settings, (StationSnapshot) from, rawReadings);
+      }
+    };
+  }
+
+  @Override
+  public SignalHandler<StationState> signalHandler() {
+    return newSignalHandlerBuilder()
+        .onSignal(RecoveryCompleted.instance(), state ->
+            context.getLog().debug("Recovered station {} with {} total readings", wsid, state.totalReadings()))
+        .onSignal(PostStop.instance(), state -> {
+          regionFeed.flush();
+          subscribers.stopped();
+          state.close();
+        })
+        .build();
+  }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2009-2024 Lightbend Inc. <https://www.lightbend.com>
+ */
+package sample.killrweather;
+
+import java.util.Arrays;
+
+/**
+ * Streaming quantile estimate over all readings of one data type with bounded memory, so that percentiles can
+ * be answered without keeping or sorting the readings.
+ *
+ * Values are counted in logarithmically sized bins (in the style of DDSketch) so that any quantile is estimated
+ * within the configured relative accuracy. Positive and negative values are binned separately by their absolute
+ * value. If more than `maxBins` bins are needed for one sign, the bins closest to zero are collapsed into one,
+ * losing accuracy only for the values closest to zero.
+ *
+ * Not thread safe, only to be used from inside the owning actor.
+ */
+final class QuantileSketch {
+
+  // values with an absolute value smaller than this are counted as zero
+  private static final double MIN_INDEXABLE = 1e-9;
+
+  private final double relativeAccuracy;
+  private final double gamma;
+  private final double logGamma;
+
+  private final Bins positive;
+  private final Bins negative;
+  private long zeroCount = 0;
+  private long count = 0;
+
+  QuantileSketch(double relativeAccuracy, int maxBins) {
+    if (relativeAccuracy <= 0 || relativeAccuracy >= 1)
+      throw new IllegalArgumentException("relativeAccuracy must be between 0 and 1, was " + relativeAccuracy);
+    if (maxBins < 1) throw new IllegalArgumentException("maxBins must be positive, was " + maxBins);
+    this.relativeAccuracy = relativeAccuracy;
+    this.gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+    this.logGamma = Math.log(gamma);
+    this.positive = new Bins(maxBins);
+    this.negative = new Bins(maxBins);
+  }
+
+  void add(double value) {
+    if (value > MIN_INDEXABLE) positive.add(index(value), 1);
+    else if (value < -MIN_INDEXABLE) negative.add(index(-value), 1);
+    else zeroCount++;
+    count++;
+  }
+
+  long count() {
+    return count;
+  }
+
+  double relativeAccuracy() {
+    return relativeAccuracy;
+  }
+
+  /**
+   * @param quantile between 0 and 1, for example 0.95 for the 95th percentile
+   * @return the estimated value at the quantile, NaN if no values has been added
+   */
+  double quantile(double quantile) {
+    if (count == 0) return Double.NaN;
+    long rank = (long) (quantile * (count - 1));
+    // from the most negative value, through zero, to the largest positive value
+    long seen = 0;
+    for (int i = negative.size() - 1; i >= 0; i--) {
+      seen += negative.countAt(i);
+      if (seen > rank) return -value(negative.indexAt(i));
+    }
+    seen += zeroCount;
+    if (seen > rank) return 0;
+    for (int i = 0; i < positive.size(); i++) {
+      seen += positive.countAt(i);
+      if (seen > rank) return value(positive.indexAt(i));
+    }
+    return value(positive.indexAt(positive.size() - 1));
+  }
+
+  private int index(double absoluteValue) {
+    return (int) Math.ceil(Math.log(absoluteValue) / logGamma);
+  }
+
+  private double value(int index) {
+    // the middle of the bin, within the relative accuracy of every value counted in it
+    return 2 * Math.pow(gamma, index) / (gamma + 1);
+  }
+
+  // for snapshots
+
+  long zeroCount() {
+    return zeroCount;
+  }
+
+  int positiveMinIndex() {
+    return positive.minIndex;
+  }
+
+  long[] positiveCounts() {
+    return positive.copyCounts();
+  }
+
+  int negativeMinIndex() {
+    return negative.minIndex;
+  }
+
+  long[] negativeCounts() {
+    return negative.copyCounts();
+  }
+
+  /**
+   * Restore counts from a snapshot of a sketch with the same relative accuracy
+   */
+  void restore(long zeroCount, int positiveMinIndex, long[] positiveCounts, int negativeMinIndex, long[] negativeCounts) {
+    this.zeroCount = zeroCount;
+    this.count = zeroCount;
+    for (int i = 0; i < positiveCounts.length; i++) {
+      positive.add(positiveMinIndex + i, positiveCounts[i]);
+      count += positiveCounts[i];
+    }
+    for (int i = 0; i < negativeCounts.length; i++) {
+      negative.add(negativeMinIndex + i, negativeCounts[i]);
+      count += negativeCounts[i];
+    }
+  }
+
+  /**
+   * Dense counts for a contiguous range of bin indexes, `counts[i]` is the count for bin `minIndex + i`
+   */
+  private static final class Bins {
+    private final int maxBins;
+    private long[] counts = new long[0];
+    private int minIndex = 0;
+
+    Bins(int maxBins) {
+      this.maxBins = maxBins;
+    }
+
+    void add(int index, long count) {
+      if (count == 0) return;
+      if (counts.length == 0) {
+        minIndex = index;
+        counts = new long[Math.min(maxBins, 8)];
+      }
+      if (index < minIndex) {
+        // extend downwards, but never to more than maxBins below the highest bin
+        int newMinIndex = Math.max(index, minIndex + counts.length - maxBins);
+        if (newMinIndex < minIndex) relocate(newMinIndex, counts.length + (minIndex - newMinIndex));
+        // counted in the lowest bin if still below it
+        index = Math.max(index, minIndex);
+      } else if (index >= minIndex + counts.length) {
+        int newLength = Math.max(index - minIndex + 1, Math.min(maxBins, counts.length * 2));
+        if (newLength > maxBins) {
+          // collapse the lowest bins so that the new highest bin fits
+          relocate(index - maxBins + 1, maxBins);
+        } else {
+          counts = Arrays.copyOf(counts, newLength);
+        }
+      }
+      counts[index - minIndex] += count;
+    }
+
+    /**
+     * Move the counts to a new array starting at `newMinIndex`, counts for bins below it are added to the first bin
+     */
+    private void relocate(int newMinIndex, int newLength) {
+      long[] newCounts = new long[newLength];
+      for (int i = 0; i < counts.length; i++) {
+        if (counts[i] != 0) {
+          newCounts[Math.max(minIndex + i, newMinIndex) - newMinIndex] += counts[i];
+        }
+      }
+      counts = newCounts;
+      minIndex = newMinIndex;
+    }
+
+    int size() {
+      return counts.length;
+    }
+
+    int indexAt(int i) {
+      return minIndex + i;
+    }
+
+    long countAt(int i) {
+      return counts[i];
+    }
+
+    long[] copyCounts() {
+      return counts.clone();
+    }
+  }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2009-2024 Lightbend Inc. <https://www.lightbend.com>
+ */
+package sample.killrweather;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Node local cache of query results, so that the same query repeated many times does not need a round trip
+ * to the station for each request.
+ *
+ * A cached result is used as long as it is younger than the time to live and its version is the latest version
+ * known on this node for the station, which is learned from query results and data recorded through this node.
+ * Readings recorded through other nodes are only seen once the time to live has passed. A known version is
+ * forgotten once it has not been learned again for the time to live, so that a station started again with
+ * a lower version, for example after it was moved to another node, is cached again.
+ *
+ * Thread safe, used concurrently from the HTTP routes.
+ */
+final class QueryCache {
+
+  public static final class Stats {
+    public final int size;
+    public final long hits;
+    public final long misses;
+    public final double hitRatio;
+
+    Stats(int size, long hits, long misses) {
+      this.size = size;
+      this.hits = hits;
+      this.misses = misses;
+      this.hitRatio = hits + misses == 0 ? 0.0 : (double) hits / (hits + misses);
+    }
+  }
+
+  static final class Key {
+    final long wsid;
+    final WeatherStation.DataType dataType;
+    final WeatherStation.Function function;
+    final long windowSize;
+    final long from;
+    final long to;
+    final double percentile;
+    final int topK;
+
+    Key(long wsid, WeatherStation.DataType dataType, WeatherStation.Function function, long windowSize, long from, long to, double percentile, int topK) {
+      this.wsid = wsid;
+      this.dataType = dataType;
+      this.function = function;
+      this.windowSize = windowSize;
+      this.from = from;
+      this.to = to;
+      this.percentile = percentile;
+      this.topK = topK;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      Key key = (Key) o;
+      return wsid == key.wsid &&
+          windowSize == key.windowSize &&
+          from == key.from &&
+          to == key.to &&
+          Double.compare(key.percentile, percentile) == 0 &&
+          topK == key.topK &&
+          dataType == key.dataType &&
+          function == key.function;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(wsid, dataType, function, windowSize, from, to, percentile, topK);
+    }
+  }
+
+  private static final class Version {
+    final long version;
+    final long learnedAtNanos;
+
+    Version(long version, long learnedAtNanos) {
+      this.version = version;
+      this.learnedAtNanos = learnedAtNanos;
+    }
+  }
+
+  private static final class Entry {
+    final WeatherStation.QueryResult result;
+    final long cachedAtNanos;
+
+    Entry(WeatherStation.QueryResult result, long cachedAtNanos) {
+      this.result = result;
+      this.cachedAtNanos = cachedAtNanos;
+    }
+  }
+
+  private final long ttlNanos;
+  private final LinkedHashMap<Key, Entry> entries;
+  // latest known version per station, bounded like the entries
+  private final LinkedHashMap<Long, Version> versions;
+  private long hits = 0;
+  private long misses = 0;
+
+  QueryCache(int maxEntries, Duration ttl) {
+    this.ttlNanos = ttl.toNanos();
+    // access order makes these least recently used caches
+    this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+        return size() > maxEntries;
+      }
+    };
+    this.versions = new LinkedHashMap<Long, Version>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Long, Version> eldest) {
+        return size() > maxEntries;
+      }
+    };
+  }
+
+  /**
+   * @return the cached result or null if there is none that is still valid
+   */
+  synchronized WeatherStation.QueryResult get(Key key) {
+    Entry entry = entries.get(key);
+    if (entry != null && isValid(key.wsid, entry, System.nanoTime())) {
+      hits++;
+      return entry.result;
+    } else {
+      if (entry != null) entries.remove(key);
+      misses++;
+      return null;
+    }
+  }
+
+  synchronized void put(Key key, WeatherStation.QueryResult result) {
+    // a query racing with recording may reply with a version older than already known, never cache those
+    long now = System.nanoTime();
+    Version latest = latestVersion(key.wsid, now);
+    if (latest == null || result.version >= latest.version) {
+      versions.put(key.wsid, new Version(result.version, now));
+      entries.put(key, new Entry(result, now));
+    }
+  }
+
+  /**
+   * Data was recorded for the station, results with other versions are no longer valid
+   */
+  synchronized void recorded(long wsid, long version) {
+    versions.put(wsid, new Version(version, System.nanoTime()));
+  }
+
+  synchronized Stats stats() {
+    return new Stats(entries.size(), hits, misses);
+  }
+
+  private boolean isValid(long wsid, Entry entry, long now) {
+    // a station without known version has not seen any recorded data or queries from this node for a while
+    Version latest = latestVersion(wsid, now);
+    return now - entry.cachedAtNanos < ttlNanos &&
+        (latest == null || latest.version == entry.result.version);
+  }
+
+  /**
+   * @return the latest version known for the station, or null if there is none learned within the time to live
+   */
+  private Version latestVersion(long wsid, long now) {
+    Version latest = versions.get(wsid);
+    if (latest != null && now - latest.learnedAtNanos >= ttlNanos) {
+      versions.remove(wsid);
+      return null;
+    }
+    return latest;
+  }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2009-2024 Lightbend Inc. <https://www.lightbend.com>
+ */
+package sample.killrweather;
+
+import akka.actor.typed.ActorSystem;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Storage for the raw readings of a single data type for one weather station, either on the heap in a
+ * {@link TimeSeries} or off the heap in the memory mapped segments of a {@link SegmentedTimeSeries}.
+ *
+ * Not thread safe, only to be used from inside the owning actor.
+ */
+interface RawReadings {
+
+  /**
+   * Readings are kept in event time order, a reading may be later than others already added
+   */
+  void add(long eventTime, double value);
+
+  /**
+   * Feed the retained readings with an event time in `[from, to)` to the accumulator
+   */
+  void feed(long from, long to, WindowAccumulator accumulator);
+
+  /**
+   * @return the event time of the oldest reading retained, or `Long.MAX_VALUE` if there are none
+   */
+  long firstTime();
+
+  /**
+   * Drop readings with an event time before `time`, readings stored together with newer ones may be kept
+   */
+  void trimBefore(long time);
+
+  /**
+   * Release any resources held, the readings can not be used after this
+   */
+  void close();
+
+  /**
+   * The raw readings for each data type of a station, as configured by the settings
+   */
+  static Map<WeatherStation.DataType, RawReadings> open(ActorSystem<?> system, WeatherStationSettings settings, String wsid) {
+    if (settings.segmentStore) return SegmentStore.Id.get(system).open(wsid);
+    else return onHeap(settings);
+  }
+
+  static Map<WeatherStation.DataType, RawReadings> onHeap(WeatherStationSettings settings) {
+    Map<WeatherStation.DataType, RawReadings> readings = new EnumMap<>(WeatherStation.DataType.class);
+    for (WeatherStation.DataType dataType : WeatherStation.DataType.values()) {
+      readings.put(dataType, new TimeSeries(settings.maxReadingsPerDataType));
+    }
+    return readings;
+  }
+}
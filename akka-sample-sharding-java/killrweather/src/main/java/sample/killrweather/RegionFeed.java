@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2009-2024 Lightbend Inc. <https://www.lightbend.com>
+ */
+package sample.killrweather;
+
+import akka.actor.typed.javadsl.TimerScheduler;
+import akka.cluster.sharding.typed.javadsl.EntityRef;
+
+import java.time.Duration;
+
+/**
+ * Collects what an entity recorded since the last flush and pushes it to the {@link WeatherRegion} above it
+ * as one {@link WeatherRegion.Delta} per flush interval, so that the region gets one message per interval
+ * from each active station rather than one per reading. Used by the stations to feed their region and by the
+ * regions to feed the global entity.
+ *
+ * The deltas are sent with at most once delivery, a lost delta is missing from the totals above.
+ *
+ * Not thread safe, only to be used from inside the owning actor.
+ *
+ * @param <C> command type of the owning actor, for the flush timer
+ */
+final class RegionFeed<C> {
+
+  private final TimerScheduler<C> timers;
+  private final C flush;
+  private final Duration flushInterval;
+  private final EntityRef<WeatherRegion.Command> target;
+  private final String sourceId;
+  private final RegionTotals delta = new RegionTotals();
+
+  /**
+   * @param flush message to schedule to the owning actor, which should then call {@link #flush()}
+   */
+  RegionFeed(TimerScheduler<C> timers, C flush, Duration flushInterval, EntityRef<WeatherRegion.Command> target, String sourceId) {
+    this.timers = timers;
+    this.flush = flush;
+    this.flushInterval = flushInterval;
+    this.target = target;
+    this.sourceId = sourceId;
+  }
+
+  void add(WeatherStation.DataType dataType, double value) {
+    delta.add(dataType, value);
+    scheduleFlush();
+  }
+
+  void add(WeatherRegion.DataTypeDelta dataTypeDelta) {
+    delta.add(dataTypeDelta);
+    scheduleFlush();
+  }
+
+  private void scheduleFlush() {
+    if (!timers.isTimerActive(flush)) timers.startSingleTimer(flush, flushInterval);
+  }
+
+  void flush() {
+    if (delta.isEmpty()) return;
+    target.tell(new WeatherRegion.Delta(sourceId, delta.toDeltas()));
+    delta.clear();
+  }
+}
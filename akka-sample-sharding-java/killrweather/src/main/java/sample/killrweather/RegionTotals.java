@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2009-2024 Lightbend Inc. <https://www.lightbend.com>
+ */
+package sample.killrweather;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Count, sum, min and max per data type, used both for the delta a station or region has not flushed yet
+ * and for the running totals of a {@link WeatherRegion}.
+ *
+ * Not thread safe, only to be used from inside the owning actor.
+ */
+final class RegionTotals {
+
+  private static final WeatherStation.DataType[] DATA_TYPES = WeatherStation.DataType.values();
+
+  private final long[] counts = new long[DATA_TYPES.length];
+  private final double[] sums = new double[DATA_TYPES.length];
+  private final double[] mins = new double[DATA_TYPES.length];
+  private final double[] maxs = new double[DATA_TYPES.length];
+  private boolean empty;
+
+  RegionTotals() {
+    clear();
+  }
+
+  void add(WeatherStation.DataType dataType, double value) {
+    add(dataType, 1, value, value, value);
+  }
+
+  void add(WeatherRegion.DataTypeDelta delta) {
+    add(delta.dataType, delta.count, delta.sum, delta.min, delta.max);
+  }
+
+  private void add(WeatherStation.DataType dataType, long count, double sum, double min, double max) {
+    int i = dataType.ordinal();
+    counts[i] += count;
+    sums[i] += sum;
+    if (min < mins[i]) mins[i] = min;
+    if (max > maxs[i]) maxs[i] = max;
+    empty = false;
+  }
+
+  boolean isEmpty() {
+    return empty;
+  }
+
+  List<WeatherRegion.DataTypeDelta> toDeltas() {
+    List<WeatherRegion.DataTypeDelta> deltas = new ArrayList<>(DATA_TYPES.length);
+    for (WeatherStation.DataType dataType : DATA_TYPES) {
+      int i = dataType.ordinal();
+      if (counts[i] > 0) deltas.add(new WeatherRegion.DataTypeDelta(dataType, counts[i], sums[i], mins[i], maxs[i]));
+    }
+    return deltas;
+  }
+
+  WeatherRegion.RegionSummary summary(String regionId, WeatherStation.DataType dataType, int sources) {
+    int i = dataType.ordinal();
+    if (counts[i] == 0) return new WeatherRegion.RegionSummary(regionId, dataType, sources, 0, null, null, null);
+    return new WeatherRegion.RegionSummary(regionId, dataType, sources, counts[i], sums[i] / counts[i], mins[i], maxs[i]);
+  }
+
+  void clear() {
+    for (int i = 0; i < DATA_TYPES.length; i++) {
+      counts[i] = 0;
+      sums[i] = 0;
+      mins[i] = Double.POSITIVE_INFINITY;
+      maxs[i] = Double.NEGATIVE_INFINITY;
+    }
+    empty = true;
+  }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2009-2024 Lightbend Inc. <https://www.lightbend.com>
+ */
+package sample.killrweather;
+
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.Extension;
+import akka.actor.typed.ExtensionId;
+import akka.cluster.sharding.typed.HashCodeMessageExtractor;
+import akka.cluster.typed.Cluster;
+import com.typesafe.config.Config;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Node local storage of raw readings in memory mapped segment files, used by the stations instead of keeping the raw
+ * readings on the heap when `killrweather.weather-station.segment-store.enabled = on`, so that a station can retain
+ * far more raw readings than would fit on the heap.
+ *
+ * The files are laid out in a directory per shard, with a directory per station and data type in it:
+ * `dir/host-port/shard/wsid/datatype/*.seg`. The node address is part of the path since the sample runs several
+ * nodes in the same JVM, and keeping the shards apart makes it easy to see and clean up what a node holds.
+ */
+public final class SegmentStore implements Extension {
+
+  public static final class Id extends ExtensionId<SegmentStore> {
+    private static final Id instance = new Id();
+
+    private Id() {}
+
+    @Override
+    public SegmentStore createExtension(ActorSystem<?> system) {
+      return new SegmentStore(system);
+    }
+
+    public static SegmentStore get(ActorSystem<?> system) {
+      return instance.apply(system);
+    }
+  }
+
+  private final Path nodeDirectory;
+  private final int segmentSize;
+  private final int maxSegments;
+  // the same shard for a station as sharding uses with its default message extractor
+  private final HashCodeMessageExtractor<Object> shardExtractor;
+
+  private SegmentStore(ActorSystem<?> system) {
+    Config config = system.settings().config().getConfig("killrweather.weather-station.segment-store");
+    String node = Cluster.get(system).selfMember().address().hostPort().replace(':', '-').replace('@', '-');
+    nodeDirectory = Paths.get(config.getString("dir")).resolve(node);
+    segmentSize = config.getInt("segment-size");
+    maxSegments = config.getInt("max-segments-per-data-type");
+    shardExtractor = new HashCodeMessageExtractor<>(system.settings().config().getInt("akka.cluster.sharding.number-of-shards"));
+  }
+
+  /**
+   * Open the raw readings of all data types for a station, replacing any left behind by an earlier incarnation
+   * of the station on this node.
+   */
+  Map<WeatherStation.DataType, RawReadings> open(String wsid) {
+    Path stationDirectory = nodeDirectory.resolve(shardExtractor.shardId(wsid)).resolve(wsid);
+    Map<WeatherStation.DataType, RawReadings> readings = new EnumMap<>(WeatherStation.DataType.class);
+    for (WeatherStation.DataType dataType : WeatherStation.DataType.values()) {
+      readings.put(dataType, new SegmentedTimeSeries(
+          stationDirectory.resolve(dataType.name().toLowerCase(Locale.ROOT)), segmentSize, maxSegments));
+    }
+    return readings;
+  }
+}
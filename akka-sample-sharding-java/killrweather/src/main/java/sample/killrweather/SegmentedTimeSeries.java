@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2009-2024 Lightbend Inc. <https://www.lightbend.com>
+ */
+package sample.killrweather;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+
+/**
+ * Readings of a single data type for one weather station, stored off the heap in memory mapped segment files
+ * in a directory of their own, see {@link SegmentStore}.
+ *
+ * Each segment file holds `segmentSize` fixed width records of event time and value, ordered by event time.
+ * Readings are appended to the newest segment and a new one is started once it is full, late readings are inserted
+ * in place in the newest segment but dropped if they belong in an earlier segment. Once there are `maxSegments` segments the oldest one is
+ * deleted. Queries read the records straight from the mapped files, skipping segments outside of the time range,
+ * so only the pages actually read are loaded by the operating system and nothing is copied onto the heap.
+ *
+ * Not thread safe, only to be used from inside the owning actor.
+ */
+final class SegmentedTimeSeries implements RawReadings {
+
+  // event time (long) and value (double)
+  static final int RECORD_SIZE = 16;
+
+  private static final class Segment {
+    final Path file;
+    final MappedByteBuffer buffer;
+    int size = 0;
+    // for skipping segments outside the time range of a query
+    long minTime = Long.MAX_VALUE;
+    long maxTime = Long.MIN_VALUE;
+
+    Segment(Path file, MappedByteBuffer buffer) {
+      this.file = file;
+      this.buffer = buffer;
+    }
+  }
+
+  private final Path directory;
+  private final int segmentSize;
+  private final int maxSegments;
+  // oldest first
+  private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+  private long nextSegmentNumber = 0;
+  // the latest event time in the segments before the newest one
+  private long sealedMaxTime = Long.MIN_VALUE;
+
+  /**
+   * @param directory for the segment files of this series only, any existing segment files in it are deleted
+   */
+  SegmentedTimeSeries(Path directory, int segmentSize, int maxSegments) {
+    if (segmentSize < 1 || segmentSize > Integer.MAX_VALUE / RECORD_SIZE)
+      throw new IllegalArgumentException("segmentSize must be between 1 and " + Integer.MAX_VALUE / RECORD_SIZE + ", was " + segmentSize);
+    if (maxSegments < 1) throw new IllegalArgumentException("maxSegments must be positive, was " + maxSegments);
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+    this.maxSegments = maxSegments;
+    try {
+      Files.createDirectories(directory);
+      // left behind by an earlier incarnation of the station, its state is gone
+      deleteSegmentFiles();
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to prepare segment directory " + directory, e);
+    }
+  }
+
+  @Override
+  public void add(long eventTime, double value) {
+    Segment segment = segments.peekLast();
+    if (segment != null && eventTime < segment.maxTime) {
+      // late, only kept if it belongs in the newest segment and there is room for it there,
+      // the segments before it are never changed
+      if (segment.size == segmentSize || eventTime < sealedMaxTime) return;
+      int position = segment.size;
+      MappedByteBuffer buffer = segment.buffer;
+      while (position > 0 && buffer.getLong((position - 1) * RECORD_SIZE) > eventTime) {
+        buffer.putLong(position * RECORD_SIZE, buffer.getLong((position - 1) * RECORD_SIZE));
+        buffer.putDouble(position * RECORD_SIZE + 8, buffer.getDouble((position - 1) * RECORD_SIZE + 8));
+        position--;
+      }
+      write(segment, position, eventTime, value);
+      return;
+    }
+    if (segment == null || segment.size == segmentSize) {
+      if (segment != null) sealedMaxTime = segment.maxTime;
+      segment = startSegment();
+    }
+    write(segment, segment.size, eventTime, value);
+  }
+
+  private void write(Segment segment, int index, long eventTime, double value) {
+    int position = index * RECORD_SIZE;
+    segment.buffer.putLong(position, eventTime);
+    segment.buffer.putDouble(position + 8, value);
+    segment.size++;
+    if (eventTime < segment.minTime) segment.minTime = eventTime;
+    if (eventTime > segment.maxTime) segment.maxTime = eventTime;
+  }
+
+  @Override
+  public void feed(long from, long to, WindowAccumulator accumulator) {
+    for (Segment segment : segments) {
+      if (segment.maxTime < from || segment.minTime >= to) continue;
+      MappedByteBuffer buffer = segment.buffer;
+      for (int i = 0; i < segment.size; i++) {
+        int position = i * RECORD_SIZE;
+        long eventTime = buffer.getLong(position);
+        if (eventTime >= from && eventTime < to) {
+          double value = buffer.getDouble(position + 8);
+          accumulator.add(eventTime, 1, value, value, value, eventTime, value);
+        }
+      }
+    }
+  }
+
+  @Override
+  public long firstTime() {
+    // late readings are only kept in the newest segment, so the oldest segment has the oldest reading
+    return segments.isEmpty() ? Long.MAX_VALUE : segments.peekFirst().minTime;
+  }
+
+  @Override
+  public void trimBefore(long time) {
+    // only whole segments are dropped, so some older readings may be kept
+    while (!segments.isEmpty() && segments.peekFirst().maxTime < time) {
+      deleteSegment(segments.removeFirst());
+    }
+  }
+
+  long size() {
+    long size = 0;
+    for (Segment segment : segments) size += segment.size;
+    return size;
+  }
+
+  /**
+   * Deletes the segment files, the readings are only kept for as long as the station is running just like
+   * with the readings kept on the heap
+   */
+  @Override
+  public void close() {
+    segments.clear();
+    try {
+      deleteSegmentFiles();
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to delete segments in " + directory, e);
+    }
+  }
+
+  private Segment startSegment() {
+    if (segments.size() == maxSegments) deleteSegment(segments.removeFirst());
+    Path file = directory.resolve(String.format("%016d.seg", nextSegmentNumber++));
+    try (FileChannel channel = FileChannel.open(
+        file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      // the mapping stays valid after the channel is closed
+      Segment segment = new Segment(file, channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) segmentSize * RECORD_SIZE));
+      segments.addLast(segment);
+      return segment;
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to create segment " + file, e);
+    }
+  }
+
+  private void deleteSegment(Segment segment) {
+    try {
+      // the mapping stays valid until garbage collected, deleting the file just frees the disk space then
+      Files.deleteIfExists(segment.file);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to delete segment " + segment.file, e);
+    }
+  }
+
+  private void deleteSegmentFiles() throws IOException {
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.seg")) {
+      for (Path file : files) {
+        Files.delete(file);
+      }
+    }
+  }
+}
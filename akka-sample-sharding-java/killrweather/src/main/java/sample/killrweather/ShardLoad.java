@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2009-2024 Lightbend Inc. <https://www.lightbend.com>
+ */
+package sample.killrweather;
+
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.Extension;
+import akka.actor.typed.ExtensionId;
+import akka.cluster.sharding.typed.HashCodeMessageExtractor;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.typesafe.config.Config;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The load of the weather station shards, as the rate of readings recorded by the stations in each shard.
+ *
+ * The stations count what they record into the counters of their shard on this node, the {@link ShardLoadTracker}
+ * of each node turns the counters into rates and shares them with all nodes through distributed data, and the
+ * {@link LoadAwareAllocationStrategy} of the coordinator allocates and rebalances shards by the shared rates.
+ */
+public final class ShardLoad implements Extension {
+
+  public static final class Id extends ExtensionId<ShardLoad> {
+    private static final Id instance = new Id();
+
+    private Id() {}
+
+    @Override
+    public ShardLoad createExtension(ActorSystem<?> system) {
+      return new ShardLoad(system);
+    }
+
+    public static ShardLoad get(ActorSystem<?> system) {
+      return instance.apply(system);
+    }
+  }
+
+  /**
+   * The rate of a shard as last reported by the node hosting it
+   */
+  public static final class ShardRate implements CborSerializable {
+    public final double readingsPerSecond;
+    public final long reportedAt;
+
+    @JsonCreator
+    public ShardRate(double readingsPerSecond, long reportedAt) {
+      this.readingsPerSecond = readingsPerSecond;
+      this.reportedAt = reportedAt;
+    }
+  }
+
+  final Duration reportInterval;
+  final double rebalanceThreshold;
+  final int maxSimultaneousRebalance;
+  private final long expiryMillis;
+  // the same shard for a station as sharding uses with its default message extractor
+  private final HashCodeMessageExtractor<Object> shardExtractor;
+  private final LongAdder[] recorded;
+  // as last seen by the tracker, replaced as a whole on each change
+  private volatile Map<String, ShardRate> rates = Collections.emptyMap();
+
+  private ShardLoad(ActorSystem<?> system) {
+    Config config = system.settings().config().getConfig("killrweather.shard-load");
+    reportInterval = config.getDuration("report-interval");
+    expiryMillis = config.getDuration("expiry").toMillis();
+    rebalanceThreshold = config.getDouble("rebalance-threshold");
+    maxSimultaneousRebalance = config.getInt("max-simultaneous-rebalance");
+    int numberOfShards = system.settings().config().getInt("akka.cluster.sharding.number-of-shards");
+    shardExtractor = new HashCodeMessageExtractor<>(numberOfShards);
+    recorded = new LongAdder[numberOfShards];
+    for (int i = 0; i < numberOfShards; i++) {
+      recorded[i] = new LongAdder();
+    }
+  }
+
+  /**
+   * @return the shard of the station, to count its readings with
+   */
+  int shardOf(String wsid) {
+    return Integer.parseInt(shardExtractor.shardId(wsid));
+  }
+
+  void recorded(int shard, long readings) {
+    recorded[shard].add(readings);
+  }
+
+  /**
+   * @return the readings recorded on this node for each shard since the last call, zero for shards without readings
+   */
+  long[] takeRecorded() {
+    long[] taken = new long[recorded.length];
+    for (int i = 0; i < recorded.length; i++) {
+      taken[i] = recorded[i].sumThenReset();
+    }
+    return taken;
+  }
+
+  void updateRates(Map<String, ShardRate> rates) {
+    this.rates = rates;
+  }
+
+  /**
+   * @return readings per second for each shard with a recent report, shards that have not been reported for a while
+   *         are idle or were on a node that left and are left out
+   */
+  Map<String, Double> rates() {
+    long oldest = System.currentTimeMillis() - expiryMillis;
+    Map<String, Double> current = new HashMap<>();
+    for (Map.Entry<String, ShardRate> entry : rates.entrySet()) {
+      if (entry.getValue().reportedAt >= oldest) current.put(entry.getKey(), entry.getValue().readingsPerSecond);
+    }
+    return current;
+  }
+}
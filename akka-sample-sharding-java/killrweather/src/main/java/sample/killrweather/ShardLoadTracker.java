@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2009-2024 Lightbend Inc. <https://www.lightbend.com>
+ */
+package sample.killrweather;
+
+import akka.actor.typed.Behavior;
+import akka.actor.typed.javadsl.AbstractBehavior;
+import akka.actor.typed.javadsl.ActorContext;
+import akka.actor.typed.javadsl.Behaviors;
+import akka.actor.typed.javadsl.Receive;
+import akka.cluster.ddata.Key;
+import akka.cluster.ddata.LWWMap;
+import akka.cluster.ddata.LWWMapKey;
+import akka.cluster.ddata.SelfUniqueAddress;
+import akka.cluster.ddata.typed.javadsl.DistributedData;
+import akka.cluster.ddata.typed.javadsl.Replicator;
+import akka.cluster.ddata.typed.javadsl.ReplicatorMessageAdapter;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Node local actor reporting the rates of the weather station shards on this node to all nodes, and keeping the
+ * rates reported by all nodes up to date in {@link ShardLoad} for the allocation strategy, see there.
+ *
+ * The rates are kept in a replicated map from shard id to its last reported rate. Only shards with readings are
+ * reported, so a shard that moved to another node or went idle is left with the last rate reported for it until
+ * it expires or the node now hosting it reports it.
+ */
+final class ShardLoadTracker extends AbstractBehavior<ShardLoadTracker.Command> {
+
+  static final Key<LWWMap<String, ShardLoad.ShardRate>> ShardRatesKey = LWWMapKey.create("weather-station-shard-rates");
+
+  interface Command {}
+
+  private enum Report implements Command {
+    INSTANCE
+  }
+
+  private static final class WrappedUpdateResponse implements Command {
+    final Replicator.UpdateResponse<LWWMap<String, ShardLoad.ShardRate>> response;
+    WrappedUpdateResponse(Replicator.UpdateResponse<LWWMap<String, ShardLoad.ShardRate>> response) {
+      this.response = response;
+    }
+  }
+
+  private static final class WrappedSubscribeResponse implements Command {
+    final Replicator.SubscribeResponse<LWWMap<String, ShardLoad.ShardRate>> response;
+    WrappedSubscribeResponse(Replicator.SubscribeResponse<LWWMap<String, ShardLoad.ShardRate>> response) {
+      this.response = response;
+    }
+  }
+
+  public static Behavior<Command> create() {
+    return Behaviors.setup(context ->
+        DistributedData.<Command, LWWMap<String, ShardLoad.ShardRate>>withReplicatorMessageAdapter(replicator ->
+            Behaviors.withTimers(timers -> {
+              ShardLoad shardLoad = ShardLoad.Id.get(context.getSystem());
+              timers.startTimerWithFixedDelay(Report.INSTANCE, shardLoad.reportInterval);
+              replicator.subscribe(ShardRatesKey, WrappedSubscribeResponse::new);
+              return new ShardLoadTracker(context, replicator, shardLoad);
+            })));
+  }
+
+  private final ReplicatorMessageAdapter<Command, LWWMap<String, ShardLoad.ShardRate>> replicator;
+  private final ShardLoad shardLoad;
+  private final SelfUniqueAddress node;
+  private long lastReport = System.nanoTime();
+
+  private ShardLoadTracker(
+      ActorContext<Command> context,
+      ReplicatorMessageAdapter<Command, LWWMap<String, ShardLoad.ShardRate>> replicator,
+      ShardLoad shardLoad) {
+    super(context);
+    this.replicator = replicator;
+    this.shardLoad = shardLoad;
+    this.node = DistributedData.get(context.getSystem()).selfUniqueAddress();
+  }
+
+  @Override
+  public Receive<Command> createReceive() {
+    return newReceiveBuilder()
+        .onMessageEquals(Report.INSTANCE, this::onReport)
+        .onMessage(WrappedUpdateResponse.class, this::onUpdateResponse)
+        .onMessage(WrappedSubscribeResponse.class, this::onSubscribeResponse)
+        .build();
+  }
+
+  private Behavior<Command> onReport() {
+    long now = System.nanoTime();
+    double seconds = (now - lastReport) / 1_000_000_000.0;
+    lastReport = now;
+    long[] recorded = shardLoad.takeRecorded();
+    long reportedAt = System.currentTimeMillis();
+    Map<String, ShardLoad.ShardRate> rates = new HashMap<>();
+    for (int shard = 0; shard < recorded.length; shard++) {
+      if (recorded[shard] > 0)
+        rates.put(Integer.toString(shard), new ShardLoad.ShardRate(recorded[shard] / seconds, reportedAt));
+    }
+    if (!rates.isEmpty()) {
+      // gossiped to the other nodes, the rates are only a hint so there is no need to wait for them to arrive
+      replicator.askUpdate(
+          replyTo -> new Replicator.Update<>(ShardRatesKey, LWWMap.empty(), Replicator.writeLocal(), replyTo, map -> {
+            LWWMap<String, ShardLoad.ShardRate> updated = map;
+            for (Map.Entry<String, ShardLoad.ShardRate> rate : rates.entrySet()) {
+              updated = updated.put(node, rate.getKey(), rate.getValue());
+            }
+            return updated;
+          }),
+          WrappedUpdateResponse::new);
+    }
+    return this;
+  }
+
+  private Behavior<Command> onUpdateResponse(WrappedUpdateResponse wrapped) {
+    if (!(wrapped.response instanceof Replicator.UpdateSuccess)) {
+      getContext().getLog().warn("Failed to report shard rates: {}", wrapped.response);
+    }
+    return this;
+  }
+
+  @SuppressWarnings("unchecked")
+  private Behavior<Command> onSubscribeResponse(WrappedSubscribeResponse wrapped) {
+    if (wrapped.response instanceof Replicator.Changed) {
+      LWWMap<String, ShardLoad.ShardRate> rates =
+          ((Replicator.Changed<LWWMap<String, ShardLoad.ShardRate>>) wrapped.response).get(ShardRatesKey);
+      shardLoad.updateRates(new HashMap<>(rates.getEntries()));
+    }
+    return this;
+  }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2009-2024 Lightbend Inc. <https://www.lightbend.com>
+ */
+package sample.killrweather;
+
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.Extension;
+import akka.actor.typed.ExtensionId;
+import akka.serialization.Serialization;
+import akka.serialization.SerializationExtension;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Node local store of the compact state of stopped weather stations off the heap, used by the stations when
+ * `killrweather.weather-station.spill.enabled = on`, so that a station passivated for being idle gets its state
+ * back when it is started again on the same node, while only taking up heap for as long as it is running.
+ *
+ * The state is kept as a serialized {@link StationSnapshot} in a direct buffer per station, the raw readings and
+ * fine grained buckets are not kept so the size only grows with the hourly buckets, see `spill.max-bytes` for
+ * the expected size. When the store is full the states spilled the longest ago are dropped.
+ *
+ * A spilled state is stamped with the incarnation of the shard the station ran in and only handed back to a station
+ * running in the same incarnation. Once a shard is handed off, the state of its stations may move on on another
+ * node, so when the shard is allocated to this node again its stations start empty rather than from stale state.
+ */
+public final class SpillStore implements Extension {
+
+  public static final class Id extends ExtensionId<SpillStore> {
+    private static final Id instance = new Id();
+
+    private Id() {}
+
+    @Override
+    public SpillStore createExtension(ActorSystem<?> system) {
+      return new SpillStore(system);
+    }
+
+    public static SpillStore get(ActorSystem<?> system) {
+      return instance.apply(system);
+    }
+  }
+
+  private static final class Spilled {
+    final ByteBuffer buffer;
+    final int shardIncarnation;
+
+    Spilled(ByteBuffer buffer, int shardIncarnation) {
+      this.buffer = buffer;
+      this.shardIncarnation = shardIncarnation;
+    }
+  }
+
+  private final Serialization serialization;
+  private final long maxBytes;
+  // in the order spilled, used from many station actors
+  private final LinkedHashMap<String, Spilled> spilled = new LinkedHashMap<>();
+  private long bytes = 0;
+
+  private SpillStore(ActorSystem<?> system) {
+    this(SerializationExtension.get(system), system.settings().config().getBytes("killrweather.weather-station.spill.max-bytes"));
+  }
+
+  SpillStore(Serialization serialization, long maxBytes) {
+    this.serialization = serialization;
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Keep the state of a stopping station, replacing any state spilled for it before
+   *
+   * @param shardIncarnation the incarnation of the shard the station ran in
+   */
+  void spill(String wsid, int shardIncarnation, StationSnapshot snapshot) {
+    byte[] serialized = serialization.serialize(snapshot).get();
+    ByteBuffer buffer = ByteBuffer.allocateDirect(serialized.length);
+    buffer.put(serialized).flip();
+    synchronized (this) {
+      remove(wsid);
+      spilled.put(wsid, new Spilled(buffer, shardIncarnation));
+      bytes += buffer.capacity();
+      Iterator<Map.Entry<String, Spilled>> oldest = spilled.entrySet().iterator();
+      while (bytes > maxBytes && oldest.hasNext()) {
+        bytes -= oldest.next().getValue().buffer.capacity();
+        oldest.remove();
+      }
+    }
+  }
+
+  /**
+   * @param shardIncarnation the incarnation of the shard the station is starting in
+   * @return the state spilled for the station, removed from the store, or null if there is none or it was spilled
+   *         from another incarnation of the shard
+   */
+  StationSnapshot take(String wsid, int shardIncarnation) {
+    Spilled entry;
+    synchronized (this) {
+      entry = remove(wsid);
+    }
+    if (entry == null || entry.shardIncarnation != shardIncarnation) return null;
+    byte[] serialized = new byte[entry.buffer.remaining()];
+    entry.buffer.get(serialized);
+    return serialization.deserialize(serialized, StationSnapshot.class).get();
+  }
+
+  synchronized int size() {
+    return spilled.size();
+  }
+
+  synchronized long bytes() {
+    return bytes;
+  }
+
+  private Spilled remove(String wsid) {
+    Spilled entry = spilled.remove(wsid);
+    // the direct memory itself is released once the buffer is garbage collected
+    if (entry != null) bytes -= entry.buffer.capacity();
+    return entry;
+  }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2009-2024 Lightbend Inc. <https://www.lightbend.com>
+ */
+package sample.killrweather;
+
+import akka.actor.typed.ActorSystem;
+
+/**
+ * Records the ingest lag and record rate of one station into the node {@link WeatherMetrics}, and the readings it
+ * records into the load of its shard, see {@link ShardLoad}. Shared by both kinds of station, only used from the
+ * station actor.
+ */
+final class StationMeter {
+
+  private final WeatherMetrics metrics;
+  private final ShardLoad shardLoad;
+  private final int shard;
+  private final long intervalMillis;
+  private long windowStart;
+  private long windowReadings = 0;
+
+  StationMeter(ActorSystem<?> system, String wsid) {
+    this.metrics = WeatherMetrics.Id.get(system);
+    this.shardLoad = ShardLoad.Id.get(system);
+    this.shard = shardLoad.shardOf(wsid);
+    this.intervalMillis = metrics.recordRateInterval.toMillis();
+    this.windowStart = System.currentTimeMillis();
+  }
+
+  /**
+   * Called for each recorded reading, however many readings the message that recorded it had
+   */
+  void recorded(long eventTime, long processingTimestamp) {
+    metrics.recorded(eventTime, processingTimestamp);
+    shardLoad.recorded(shard, 1);
+    // no timer, the rate is reported by the first record after the interval, so idle stations report nothing
+    long now = System.currentTimeMillis();
+    if (now - windowStart >= intervalMillis) {
+      metrics.recordRate(windowReadings, now - windowStart);
+      windowStart = now;
+      windowReadings = 0;
+    }
+    windowReadings++;
+  }
+}
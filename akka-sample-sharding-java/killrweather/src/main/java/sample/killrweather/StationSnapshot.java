@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2009-2024 Lightbend Inc. <https://www.lightbend.com>
+ */
+package sample.killrweather;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+
+import java.util.List;
+
+/**
+ * Compact snapshot of the state of a weather station: the running aggregates, the coarse time buckets, the percentile
+ * sketch and the highest values per data type, but not the raw readings or fine grained buckets, so that its size
+ * does not depend on how many readings the station has recorded.
+ */
+public final class StationSnapshot implements CborSerializable {
+  public final long totalReadings;
+  public final List<DataTypeSnapshot> dataTypes;
+
+  @JsonCreator
+  public StationSnapshot(long totalReadings, List<DataTypeSnapshot> dataTypes) {
+    this.totalReadings = totalReadings;
+    this.dataTypes = dataTypes;
+  }
+
+  public static final class DataTypeSnapshot {
+    public final WeatherStation.DataType dataType;
+
+    // running aggregate
+    public final long count;
+    public final double sum;
+    public final double min;
+    public final long minTime;
+    public final double max;
+    public final long maxTime;
+    public final long firstTime;
+    public final double current;
+    public final long currentTime;
+
+    // time buckets, one element per bucket in each column
+    public final long bucketSize;
+    public final long[] bucketStarts;
+    public final long[] bucketCounts;
+    public final double[] bucketSums;
+    public final double[] bucketMins;
+    public final double[] bucketMaxs;
+    public final long[] bucketLastTimes;
+    public final double[] bucketLasts;
+
+    // percentile sketch
+    public final double sketchRelativeAccuracy;
+    public final long sketchZeroCount;
+    public final int sketchPositiveMinIndex;
+    public final long[] sketchPositiveCounts;
+    public final int sketchNegativeMinIndex;
+    public final long[] sketchNegativeCounts;
+
+    // highest values
+    public final double[] topValues;
+    public final long[] topEventTimes;
+
+    @JsonCreator
+    public DataTypeSnapshot(
+        WeatherStation.DataType dataType,
+        long count,
+        double sum,
+        double min,
+        long minTime,
+        double max,
+        long maxTime,
+        long firstTime,
+        double current,
+        long currentTime,
+        long bucketSize,
+        long[] bucketStarts,
+        long[] bucketCounts,
+        double[] bucketSums,
+        double[] bucketMins,
+        double[] bucketMaxs,
+        long[] bucketLastTimes,
+        double[] bucketLasts,
+        double sketchRelativeAccuracy,
+        long sketchZeroCount,
+        int sketchPositiveMinIndex,
+        long[] sketchPositiveCounts,
+        int sketchNegativeMinIndex,
+        long[] sketchNegativeCounts,
+        double[] topValues,
+        long[] topEventTimes) {
+      this.dataType = dataType;
+      this.count = count;
+      this.sum = sum;
+      this.min = min;
+      this.minTime = minTime;
+      this.max = max;
+      this.maxTime = maxTime;
+      this.firstTime = firstTime;
+      this.current = current;
+      this.currentTime = currentTime;
+      this.bucketSize = bucketSize;
+      this.bucketStarts = bucketStarts;
+      this.bucketCounts = bucketCounts;
+      this.bucketSums = bucketSums;
+      this.bucketMins = bucketMins;
+      this.bucketMaxs = bucketMaxs;
+      this.bucketLastTimes = bucketLastTimes;
+      this.bucketLasts = bucketLasts;
+      this.sketchRelativeAccuracy = sketchRelativeAccuracy;
+      this.sketchZeroCount = sketchZeroCount;
+      this.sketchPositiveMinIndex = sketchPositiveMinIndex;
+      this.sketchPositiveCounts = sketchPositiveCounts;
+      this.sketchNegativeMinIndex = sketchNegativeMinIndex;
+      this.sketchNegativeCounts = sketchNegativeCounts;
+      this.topValues = topValues;
+      this.topEventTimes = topEventTimes;
+    }
+  }
+}
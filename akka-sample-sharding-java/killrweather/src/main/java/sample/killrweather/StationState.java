@@ -0,0 +1,321 @@
+/*
+ * Copyright (C) 2009-2024 Lightbend Inc. <https://www.lightbend.com>
+ */
+package sample.killrweather;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The recorded data of a weather station and the logic for querying it, shared by the in memory
+ * {@link WeatherStation} and the {@link PersistentWeatherStation}.
+ *
+ * Not thread safe, only to be used from inside the owning actor.
+ */
+final class StationState {
+
+  // raw readings per data type, on the heap or in memory mapped segments, see RawReadings
+  private final Map<WeatherStation.DataType, RawReadings> values;
+  // running aggregates over all readings per data type, to answer queries without looking at the readings
+  private final Map<WeatherStation.DataType, Aggregate> aggregates = new EnumMap<>(WeatherStation.DataType.class);
+  // pre-aggregated time buckets per data type, to answer windowed queries, the fine grained buckets
+  // are kept for a shorter time than the coarse ones
+  private final Map<WeatherStation.DataType, TimeBuckets> buckets = new EnumMap<>(WeatherStation.DataType.class);
+  private final Map<WeatherStation.DataType, TimeBuckets> fineBuckets = new EnumMap<>(WeatherStation.DataType.class);
+  // bounded streaming structures per data type for percentiles and the highest values
+  private final Map<WeatherStation.DataType, QuantileSketch> sketches = new EnumMap<>(WeatherStation.DataType.class);
+  private final Map<WeatherStation.DataType, TopValues> topValues = new EnumMap<>(WeatherStation.DataType.class);
+  private long totalReadings = 0;
+  private final long rawRetention;
+  private final long fineBucketRetention;
+  private final long allowedLateness;
+
+  StationState(WeatherStationSettings settings) {
+    this(settings, RawReadings.onHeap(settings));
+  }
+
+  /**
+   * @param values raw readings for each data type, owned by the state from here on, see {@link #close()}
+   */
+  StationState(WeatherStationSettings settings, Map<WeatherStation.DataType, RawReadings> values) {
+    this.values = values;
+    this.rawRetention = settings.rawRetention.toMillis();
+    this.fineBucketRetention = settings.fineBucketRetention.toMillis();
+    this.allowedLateness = settings.allowedLateness.toMillis();
+    // enough fine buckets for the retention, with one extra for the partially retained oldest bucket
+    int maxFineBuckets = (int) Math.min(Integer.MAX_VALUE - 1, fineBucketRetention / settings.fineBucketSize.toMillis()) + 1;
+    for (WeatherStation.DataType dataType : WeatherStation.DataType.values()) {
+      aggregates.put(dataType, new Aggregate());
+      buckets.put(dataType, new TimeBuckets(settings.bucketSize.toMillis(), settings.maxBucketsPerDataType));
+      fineBuckets.put(dataType, new TimeBuckets(settings.fineBucketSize.toMillis(), maxFineBuckets));
+      sketches.put(dataType, new QuantileSketch(settings.percentileRelativeAccuracy, settings.percentileMaxBins));
+      topValues.put(dataType, new TopValues(settings.topKMax));
+    }
+  }
+
+  void record(WeatherStation.Data data) {
+    record(data.eventTime, data.dataType, data.value);
+  }
+
+  void record(WeatherStation.Observation observation) {
+    for (WeatherStation.Measurement measurement : observation.values) {
+      record(observation.eventTime, measurement.dataType, measurement.value);
+    }
+  }
+
+  void record(long eventTime, WeatherStation.DataType dataType, double value) {
+    Aggregate aggregate = aggregates.get(dataType);
+    // the watermark trails the newest reading by the allowed lateness, readings behind it are too late to be inserted
+    // among the raw readings, but the aggregates and buckets are updated in place so they still count there
+    if (aggregate.isEmpty() || eventTime >= aggregate.currentTime() - allowedLateness) {
+      values.get(dataType).add(eventTime, value);
+    }
+    aggregate.add(eventTime, value);
+    buckets.get(dataType).add(eventTime, value);
+    fineBuckets.get(dataType).add(eventTime, value);
+    sketches.get(dataType).add(value);
+    topValues.get(dataType).add(eventTime, value);
+    totalReadings++;
+  }
+
+  long totalReadings() {
+    return totalReadings;
+  }
+
+  /**
+   * Changes with every recorded reading, the total number of readings is used since it only ever grows
+   */
+  long version() {
+    return totalReadings;
+  }
+
+  Aggregate aggregate(WeatherStation.DataType dataType) {
+    return aggregates.get(dataType);
+  }
+
+  WeatherStation.QueryResult query(String wsid, WeatherStation.Query query) {
+    if (query.func != WeatherStation.Function.Percentile && query.func != WeatherStation.Function.TopK && query.isWindowed())
+      return windowedQuery(wsid, query);
+
+    Aggregate aggregate = aggregates.get(query.dataType);
+    final List<WeatherStation.TimeWindow> queryResult;
+    if (aggregate.isEmpty()) {
+      queryResult = Collections.emptyList();
+    } else {
+      switch (query.func) {
+        case Average:
+          queryResult = Collections.singletonList(new WeatherStation.TimeWindow(aggregate.firstTime(), aggregate.currentTime(), aggregate.average()));
+          break;
+        case HighLow:
+          queryResult = Arrays.asList(
+              new WeatherStation.TimeWindow(aggregate.minTime(), aggregate.maxTime(), aggregate.min()),
+              new WeatherStation.TimeWindow(aggregate.minTime(), aggregate.maxTime(), aggregate.max()));
+          break;
+        case Current:
+          queryResult = Collections.singletonList(new WeatherStation.TimeWindow(aggregate.currentTime(), aggregate.currentTime(), aggregate.current()));
+          break;
+        case Percentile:
+          double percentile = sketches.get(query.dataType).quantile(query.percentile / 100);
+          queryResult = Collections.singletonList(new WeatherStation.TimeWindow(aggregate.firstTime(), aggregate.currentTime(), percentile));
+          break;
+        case TopK:
+          queryResult = Arrays.asList(topValues.get(query.dataType).top(query.topK));
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown operation " + query.func);
+      }
+    }
+    return new WeatherStation.QueryResult(wsid, query.dataType, query.func, saturatedInt(aggregate.count()), queryResult, version());
+  }
+
+  WeatherStation.Summary summary(String wsid, WeatherStation.DataType dataType) {
+    Aggregate aggregate = aggregates.get(dataType);
+    return new WeatherStation.Summary(
+        wsid, dataType, aggregate.count(), aggregate.sum(), aggregate.min(), aggregate.max(), aggregate.current(), aggregate.currentTime());
+  }
+
+  /**
+   * @return the summaries of the data types with any readings
+   */
+  List<WeatherStation.Summary> summaries(String wsid) {
+    List<WeatherStation.Summary> summaries = new ArrayList<>();
+    for (WeatherStation.DataType dataType : WeatherStation.DataType.values()) {
+      if (!aggregates.get(dataType).isEmpty()) summaries.add(summary(wsid, dataType));
+    }
+    return summaries;
+  }
+
+  private WeatherStation.QueryResult windowedQuery(String wsid, WeatherStation.Query query) {
+    TimeBuckets rollup = rollupFor(query);
+    // rounded up to whole buckets when answered from buckets coarser than the windows, see rollupFor
+    long windowSize = rollup == null || query.windowSize == WeatherStation.Query.NO_WINDOW ? query.windowSize :
+        -Math.floorDiv(-query.windowSize, rollup.bucketSize()) * rollup.bucketSize();
+    final WindowAccumulator accumulator;
+    if (rollup != null) {
+      // whole buckets fit in each window, widen the range to whole windows and combine the buckets
+      long alignTo = windowSize != WeatherStation.Query.NO_WINDOW ? windowSize : rollup.bucketSize();
+      long from = query.from == WeatherStation.Query.OPEN_START ? query.from : Math.floorDiv(query.from, alignTo) * alignTo;
+      int fromIndex = query.from == WeatherStation.Query.OPEN_START ? 0 : rollup.firstIndexFrom(from);
+      int untilIndex = query.to == WeatherStation.Query.OPEN_END ? rollup.size() :
+          rollup.firstIndexFrom(-Math.floorDiv(-query.to, alignTo) * alignTo);
+      // the first bucket starts before the first reading in it, a single window starts no earlier than the
+      // widened range or the first reading of the data type
+      accumulator = new WindowAccumulator(query.func, windowSize, Math.max(from, aggregates.get(query.dataType).firstTime()));
+      rollup.feed(fromIndex, untilIndex, accumulator);
+    } else {
+      // not aligned with any buckets, look at the retained readings
+      accumulator = new WindowAccumulator(query.func, windowSize);
+      values.get(query.dataType).feed(query.from, query.to, accumulator);
+    }
+    return new WeatherStation.QueryResult(wsid, query.dataType, query.func, saturatedInt(accumulator.readings()), accumulator.result(), version());
+  }
+
+  /**
+   * @return the coarsest buckets that the windows, or the time range if there are no windows, consist of whole
+   *         buckets of, or null if there are none and the raw readings are used. If the fine grained buckets or raw
+   *         readings that fit no longer retain the start of the time range, the next coarser buckets retaining it
+   *         are returned instead and the query is rounded to whole buckets of those, rather than answering only
+   *         from what is left. The coarse buckets are used for anything older, as far back as they go.
+   */
+  private TimeBuckets rollupFor(WeatherStation.Query query) {
+    TimeBuckets coarse = buckets.get(query.dataType);
+    TimeBuckets fine = fineBuckets.get(query.dataType);
+    if (alignedWith(query, coarse.bucketSize())) return coarse;
+    boolean fineRetained = retainsFrom(query, fine.size() == 0 ? Long.MAX_VALUE : fine.start(0));
+    if (alignedWith(query, fine.bucketSize())) return fineRetained ? fine : coarse;
+    if (retainsFrom(query, values.get(query.dataType).firstTime())) return null;
+    return fineRetained ? fine : coarse;
+  }
+
+  private static boolean alignedWith(WeatherStation.Query query, long bucketSize) {
+    return query.windowSize != WeatherStation.Query.NO_WINDOW ?
+        query.windowSize % bucketSize == 0 :
+        (query.from == WeatherStation.Query.OPEN_START || query.from % bucketSize == 0) &&
+            (query.to == WeatherStation.Query.OPEN_END || query.to % bucketSize == 0);
+  }
+
+  /**
+   * @param retainedFrom the oldest time of a tier, everything recorded since then is in the tier
+   * @return true if the tier has everything recorded in the time range of the query
+   */
+  private boolean retainsFrom(WeatherStation.Query query, long retainedFrom) {
+    Aggregate aggregate = aggregates.get(query.dataType);
+    return aggregate.isEmpty() || retainedFrom <= aggregate.firstTime() || query.from >= retainedFrom;
+  }
+
+  /**
+   * Drop raw readings and fine grained buckets older than their retention, measured back from the
+   * newest reading of each data type. The coarse buckets are bounded by their max number of buckets.
+   */
+  void compact() {
+    for (WeatherStation.DataType dataType : WeatherStation.DataType.values()) {
+      Aggregate aggregate = aggregates.get(dataType);
+      if (!aggregate.isEmpty()) {
+        values.get(dataType).trimBefore(aggregate.currentTime() - rawRetention);
+        fineBuckets.get(dataType).trimBefore(aggregate.currentTime() - fineBucketRetention);
+      }
+    }
+  }
+
+  /**
+   * Release the raw readings when the station stops
+   */
+  void close() {
+    for (RawReadings readings : values.values()) {
+      readings.close();
+    }
+  }
+
+  private static int saturatedInt(long value) {
+    return (int) Math.min(Integer.MAX_VALUE, value);
+  }
+
+  /**
+   * The fine grained buckets are left out, they would make up most of the snapshot, after restoring the snapshot
+   * queries that need them are answered from the coarse buckets until they have been filled again.
+   */
+  StationSnapshot toSnapshot() {
+    List<StationSnapshot.DataTypeSnapshot> dataTypes = new ArrayList<>(aggregates.size());
+    for (WeatherStation.DataType dataType : WeatherStation.DataType.values()) {
+      Aggregate aggregate = aggregates.get(dataType);
+      TimeBuckets bucketsForType = buckets.get(dataType);
+      int size = bucketsForType.size();
+      long[] starts = new long[size];
+      long[] counts = new long[size];
+      double[] sums = new double[size];
+      double[] mins = new double[size];
+      double[] maxs = new double[size];
+      long[] lastTimes = new long[size];
+      double[] lasts = new double[size];
+      for (int i = 0; i < size; i++) {
+        starts[i] = bucketsForType.start(i);
+        counts[i] = bucketsForType.count(i);
+        sums[i] = bucketsForType.sum(i);
+        mins[i] = bucketsForType.min(i);
+        maxs[i] = bucketsForType.max(i);
+        lastTimes[i] = bucketsForType.lastTime(i);
+        lasts[i] = bucketsForType.last(i);
+      }
+      QuantileSketch sketch = sketches.get(dataType);
+      TopValues top = topValues.get(dataType);
+      dataTypes.add(new StationSnapshot.DataTypeSnapshot(
+          dataType,
+          aggregate.count(),
+          aggregate.sum(),
+          aggregate.min(),
+          aggregate.minTime(),
+          aggregate.max(),
+          aggregate.maxTime(),
+          aggregate.firstTime(),
+          aggregate.current(),
+          aggregate.currentTime(),
+          bucketsForType.bucketSize(),
+          starts, counts, sums, mins, maxs, lastTimes, lasts,
+          sketch.relativeAccuracy(),
+          sketch.zeroCount(),
+          sketch.positiveMinIndex(),
+          sketch.positiveCounts(),
+          sketch.negativeMinIndex(),
+          sketch.negativeCounts(),
+          top.values(),
+          top.eventTimes()));
+    }
+    return new StationSnapshot(totalReadings, dataTypes);
+  }
+
+  /**
+   * Restore the aggregates and coarse buckets of a snapshot, the raw readings and fine grained buckets are not part
+   * of the snapshot so only readings recorded after this will be available for queries that need them.
+   */
+  static StationState fromSnapshot(WeatherStationSettings settings, StationSnapshot snapshot, Map<WeatherStation.DataType, RawReadings> values) {
+    StationState state = new StationState(settings, values);
+    state.totalReadings = snapshot.totalReadings;
+    for (StationSnapshot.DataTypeSnapshot s : snapshot.dataTypes) {
+      state.aggregates.put(s.dataType, new Aggregate(
+          s.count, s.sum, s.min, s.minTime, s.max, s.maxTime, s.firstTime, s.current, s.currentTime));
+      // if the bucket size was changed in config since the snapshot was taken the old buckets can't be used
+      if (s.bucketSize == settings.bucketSize.toMillis()) {
+        TimeBuckets bucketsForType = state.buckets.get(s.dataType);
+        for (int i = 0; i < s.bucketStarts.length; i++) {
+          bucketsForType.restore(
+              s.bucketStarts[i], s.bucketCounts[i], s.bucketSums[i], s.bucketMins[i], s.bucketMaxs[i],
+              s.bucketLastTimes[i], s.bucketLasts[i]);
+        }
+      }
+      // likewise a sketch with a different accuracy has differently sized bins
+      if (s.sketchRelativeAccuracy == settings.percentileRelativeAccuracy) {
+        state.sketches.get(s.dataType).restore(
+            s.sketchZeroCount, s.sketchPositiveMinIndex, s.sketchPositiveCounts, s.sketchNegativeMinIndex, s.sketchNegativeCounts);
+      }
+      TopValues top = state.topValues.get(s.dataType);
+      for (int i = 0; i < s.topValues.length; i++) {
+        top.add(s.topEventTimes[i], s.topValues[i]);
+      }
+    }
+    return state;
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2009-2024 Lightbend Inc. <https://www.lightbend.com>
+ */
+package sample.killrweather;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Aggregate of one data type over many weather stations, built by merging the {@link WeatherStation.Summary}
+ * of each station as they arrive. Immutable, each merge returns a new instance, so that every intermediate
+ * result can be passed on while merging continues.
+ */
+public final class StationsAggregate {
+
+  public static final class StationValue {
+    public final String wsid;
+    public final double value;
+    public final long eventTime;
+
+    public StationValue(String wsid, double value, long eventTime) {
+      this.wsid = wsid;
+      this.value = value;
+      this.eventTime = eventTime;
+    }
+  }
+
+  public final WeatherStation.DataType dataType;
+  /**
+   * number of stations asked
+   */
+  public final int stations;
+  /**
+   * number of stations that has replied so far
+   */
+  public final int responded;
+  public final long readings;
+  /**
+   * average, min and max are null until a station with readings has replied
+   */
+  public final Double average;
+  public final Double min;
+  public final Double max;
+  /**
+   * the stations with the highest current value, highest first
+   */
+  public final List<StationValue> highest;
+
+  // not part of the result, needed for merging
+  private final double sum;
+  private final int maxHighest;
+
+  public static StationsAggregate empty(WeatherStation.DataType dataType, int stations, int maxHighest) {
+    return new StationsAggregate(dataType, stations, 0, 0, 0, null, null, Collections.emptyList(), maxHighest);
+  }
+
+  private StationsAggregate(
+      WeatherStation.DataType dataType,
+      int stations,
+      int responded,
+      long readings,
+      double sum,
+      Double min,
+      Double max,
+      List<StationValue> highest,
+      int maxHighest) {
+    this.dataType = dataType;
+    this.stations = stations;
+    this.responded = responded;
+    this.readings = readings;
+    this.sum = sum;
+    this.average = readings == 0 ? null : sum / readings;
+    this.min = min;
+    this.max = max;
+    this.highest = highest;
+    this.maxHighest = maxHighest;
+  }
+
+  public StationsAggregate merge(List<WeatherStation.Summary> summaries) {
+    int newResponded = responded;
+    long newReadings = readings;
+    double newSum = sum;
+    Double newMin = min;
+    Double newMax = max;
+    List<StationValue> newHighest = new ArrayList<>(highest);
+    for (WeatherStation.Summary summary : summaries) {
+      newResponded++;
+      if (summary.count > 0) {
+        newReadings += summary.count;
+        newSum += summary.sum;
+        newMin = newMin == null ? summary.min : Math.min(newMin, summary.min);
+        newMax = newMax == null ? summary.max : Math.max(newMax, summary.max);
+        insertHighest(newHighest, new StationValue(summary.wsid, summary.current, summary.currentTime));
+      }
+    }
+    return new StationsAggregate(
+        dataType, stations, newResponded, newReadings, newSum, newMin, newMax, Collections.unmodifiableList(newHighest), maxHighest);
+  }
+
+  private void insertHighest(List<StationValue> highest, StationValue candidate) {
+    int i = highest.size();
+    while (i > 0 && highest.get(i - 1).value < candidate.value) i--;
+    if (i < maxHighest) {
+      highest.add(i, candidate);
+      if (highest.size() > maxHighest) highest.remove(highest.size() - 1);
+    }
+  }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2009-2024 Lightbend Inc. <https://www.lightbend.com>
+ */
+package sample.killrweather;
+
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.javadsl.ActorContext;
+import akka.actor.typed.javadsl.TimerScheduler;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The subscribers to live updates of a station, shared by {@link WeatherStation} and {@link PersistentWeatherStation}.
+ *
+ * Rather than pushing every reading, readings recorded within the publish interval are coalesced into one
+ * {@link WeatherStation.Update} with the latest summaries, so each subscriber gets at most one update per interval
+ * no matter how often the station records. Subscribers are watched and removed when they stop, and are told the
+ * subscription ended when the station stops, so they can subscribe again.
+ *
+ * Not thread safe, only to be used from inside the owning actor.
+ */
+final class Subscribers {
+
+  private final ActorContext<WeatherStation.Command> context;
+  private final TimerScheduler<WeatherStation.Command> timers;
+  private final String wsid;
+  private final Duration publishInterval;
+  private final Set<ActorRef<WeatherStation.Published>> subscribers = new HashSet<>();
+  private long publishedVersion = -1;
+
+  Subscribers(ActorContext<WeatherStation.Command> context, TimerScheduler<WeatherStation.Command> timers, String wsid, Duration publishInterval) {
+    this.context = context;
+    this.timers = timers;
+    this.wsid = wsid;
+    this.publishInterval = publishInterval;
+  }
+
+  void subscribe(ActorRef<WeatherStation.Published> subscriber, StationState state) {
+    if (subscribers.add(subscriber)) {
+      context.watchWith(subscriber, new WeatherStation.SubscriberTerminated(subscriber));
+    }
+    // the current state right away rather than waiting for the next reading
+    subscriber.tell(new WeatherStation.Update(wsid, state.version(), state.summaries(wsid)));
+  }
+
+  void terminated(ActorRef<WeatherStation.Published> subscriber) {
+    subscribers.remove(subscriber);
+  }
+
+  /**
+   * Data was recorded, publish it at the end of the current interval
+   */
+  void recorded() {
+    if (!subscribers.isEmpty() && !timers.isTimerActive(WeatherStation.Publish.INSTANCE)) {
+      timers.startSingleTimer(WeatherStation.Publish.INSTANCE, publishInterval);
+    }
+  }
+
+  void publish(StationState state) {
+    if (subscribers.isEmpty() || state.version() == publishedVersion) return;
+    publishedVersion = state.version();
+    WeatherStation.Update update = new WeatherStation.Update(wsid, state.version(), state.summaries(wsid));
+    for (ActorRef<WeatherStation.Published> subscriber : subscribers) {
+      subscriber.tell(update);
+    }
+  }
+
+  void stopped() {
+    for (ActorRef<WeatherStation.Published> subscriber : subscribers) {
+      subscriber.tell(WeatherStation.SubscriptionEnded.INSTANCE);
+    }
+    subscribers.clear();
+  }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2009-2024 Lightbend Inc. <https://www.lightbend.com>
+ */
+package sample.killrweather;
+
+import java.util.Arrays;
+
+/**
+ * Pre-aggregated count, sum, min, max and latest value for fixed size time buckets of one data type,
+ * kept up to date as readings arrive so that windowed queries can be answered by combining buckets
+ * rather than by looking at every reading.
+ *
+ * Buckets are aligned to multiples of the bucket size since epoch and stored ordered by start time in
+ * primitive columns. Once `maxBuckets` buckets exist, the oldest bucket is dropped when a newer one is needed,
+ * and readings older than the oldest bucket retained are ignored.
+ *
+ * Not thread safe, only to be used from inside the owning actor.
+ */
+final class TimeBuckets {
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  private final long bucketSize;
+  private final int maxBuckets;
+
+  private long[] starts;
+  private long[] counts;
+  private double[] sums;
+  private double[] mins;
+  private double[] maxs;
+  private long[] lastTimes;
+  private double[] lasts;
+  // buckets live in [offset, offset + size) of the columns, dropping the oldest just moves the offset
+  private int offset = 0;
+  private int size = 0;
+
+  TimeBuckets(long bucketSize, int maxBuckets) {
+    if (bucketSize < 1) throw new IllegalArgumentException("bucketSize must be positive, was " + bucketSize);
+    if (maxBuckets < 1) throw new IllegalArgumentException("maxBuckets must be positive, was " + maxBuckets);
+    this.bucketSize = bucketSize;
+    this.maxBuckets = maxBuckets;
+    int initialCapacity = Math.min(INITIAL_CAPACITY, maxBuckets);
+    starts = new long[initialCapacity];
+    counts = new long[initialCapacity];
+    sums = new double[initialCapacity];
+    mins = new double[initialCapacity];
+    maxs = new double[initialCapacity];
+    lastTimes = new long[initialCapacity];
+    lasts = new double[initialCapacity];
+  }
+
+  long bucketSize() {
+    return bucketSize;
+  }
+
+  int size() {
+    return size;
+  }
+
+  void add(long eventTime, double value) {
+    long start = Math.floorDiv(eventTime, bucketSize) * bucketSize;
+    int index;
+    if (size > 0 && starts[offset + size - 1] == start) {
+      // by far the most common case, the reading belongs in the newest bucket
+      index = offset + size - 1;
+    } else {
+      int found = Arrays.binarySearch(starts, offset, offset + size, start);
+      if (found >= 0) {
+        index = found;
+      } else {
+        int insertAt = -found - 1;
+        if (insertAt == offset && size == maxBuckets) return; // older than anything retained
+        index = insertBucket(insertAt, start);
+      }
+    }
+    counts[index]++;
+    sums[index] += value;
+    if (value < mins[index]) mins[index] = value;
+    if (value > maxs[index]) maxs[index] = value;
+    if (eventTime >= lastTimes[index]) {
+      lastTimes[index] = eventTime;
+      lasts[index] = value;
+    }
+  }
+
+  /**
+   * @return the index of the first bucket with a start time equal to or after `time`
+   */
+  int firstIndexFrom(long time) {
+    int found = Arrays.binarySearch(starts, offset, offset + size, Math.floorDiv(time, bucketSize) * bucketSize);
+    return (found >= 0 ? found : -found - 1) - offset;
+  }
+
+  long start(int i) {
+    return starts[offset + i];
+  }
+
+  long count(int i) {
+    return counts[offset + i];
+  }
+
+  double sum(int i) {
+    return sums[offset + i];
+  }
+
+  double min(int i) {
+    return mins[offset + i];
+  }
+
+  double max(int i) {
+    return maxs[offset + i];
+  }
+
+  long lastTime(int i) {
+    return lastTimes[offset + i];
+  }
+
+  double last(int i) {
+    return lasts[offset + i];
+  }
+
+  /**
+   * Drop the buckets ending at or before `time`
+   */
+  void trimBefore(long time) {
+    while (size > 0 && starts[offset] + bucketSize <= time) {
+      offset++;
+      size--;
+    }
+  }
+
+  /**
+   * Add a complete bucket, for restoring buckets from a snapshot, must be added in start time order
+   */
+  void restore(long start, long count, double sum, double min, double max, long lastTime, double last) {
+    if (size > 0 && start <= starts[offset + size - 1])
+      throw new IllegalArgumentException("Buckets must be restored in start time order");
+    int index = insertBucket(offset + size, start);
+    counts[index] = count;
+    sums[index] = sum;
+    mins[index] = min;
+    maxs[index] = max;
+    lastTimes[index] = lastTime;
+    lasts[index] = last;
+  }
+
+  /**
+   * Feed buckets `[from, until)` to the accumulator, in start time order
+   */
+  void feed(int from, int until, WindowAccumulator accumulator) {
+    for (int i = offset + from; i < offset + until; i++) {
+      accumulator.add(starts[i], counts[i], sums[i], mins[i], maxs[i], lastTimes[i], lasts[i]);
+    }
+  }
+
+  private int insertBucket(int insertAt, long start) {
+    if (size == maxBuckets) {
+      // drop the oldest bucket to make room
+      offset++;
+      size--;
+    }
+    if (offset + size == starts.length) {
+      int shift = offset;
+      makeRoom();
+      insertAt -= shift;
+    }
+    int tail = offset + size - insertAt;
+    if (tail > 0) {
+      System.arraycopy(starts, insertAt, starts, insertAt + 1, tail);
+      System.arraycopy(counts, insertAt, counts, insertAt + 1, tail);
+      System.arraycopy(sums, insertAt, sums, insertAt + 1, tail);
+      System.arraycopy(mins, insertAt, mins, insertAt + 1, tail);
+      System.arraycopy(maxs, insertAt, maxs, insertAt + 1, tail);
+      System.arraycopy(lastTimes, insertAt, lastTimes, insertAt + 1, tail);
+      System.arraycopy(lasts, insertAt, lasts, insertAt + 1, tail);
+    }
+    starts[insertAt] = start;
+    counts[insertAt] = 0;
+    sums[insertAt] = 0;
+    mins[insertAt] = Double.POSITIVE_INFINITY;
+    maxs[insertAt] = Double.NEGATIVE_INFINITY;
+    lastTimes[insertAt] = Long.MIN_VALUE;
+    lasts[insertAt] = 0;
+    size++;
+    return insertAt;
+  }
+
+  /**
+   * Make room for at least one more bucket at the end of the columns, by moving the retained buckets
+   * to the beginning of the columns if there is space before them, or else growing the columns.
+   */
+  private void makeRoom() {
+    if (offset > 0) {
+      System.arraycopy(starts, offset, starts, 0, size);
+      System.arraycopy(counts, offset, counts, 0, size);
+      System.arraycopy(sums, offset, sums, 0, size);
+      System.arraycopy(mins, offset, mins, 0, size);
+      System.arraycopy(maxs, offset, maxs, 0, size);
+      System.arraycopy(lastTimes, offset, lastTimes, 0, size);
+      System.arraycopy(lasts, offset, lasts, 0, size);
+      offset = 0;
+    } else {
+      int newCapacity = (int) Math.min((long) maxBuckets, starts.length * 2L);
+      starts = Arrays.copyOf(starts, newCapacity);
+      counts = Arrays.copyOf(counts, newCapacity);
+      sums = Arrays.copyOf(sums, newCapacity);
+      mins = Arrays.copyOf(mins, newCapacity);
+      maxs = Arrays.copyOf(maxs, newCapacity);
+      lastTimes = Arrays.copyOf(lastTimes, newCapacity);
+      lasts = Arrays.copyOf(lasts, newCapacity);
+    }
+  }
+}
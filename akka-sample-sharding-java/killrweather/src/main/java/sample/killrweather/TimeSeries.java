@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2009-2024 Lightbend Inc. <https://www.lightbend.com>
+ */
+package sample.killrweather;
+
+import java.util.Arrays;
+
+/**
+ * Readings of a single data type for one weather station, stored as two primitive columns
+ * (event time and value) instead of one object per reading, ordered by event time. A late reading is inserted
+ * in place, moving the readings after it, which is cheap as long as readings are only somewhat late.
+ *
+ * The columns grow as readings arrive until `maxReadings` is reached, after that they are used as a
+ * ring buffer where each new reading replaces the oldest one, so the memory used by a station is bounded.
+ * Readings older than the retention are also dropped from the oldest end by {@link #trimBefore(long)}.
+ *
+ * Not thread safe, only to be used from inside the owning actor.
+ */
+final class TimeSeries implements RawReadings {
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  private final int maxReadings;
+  private long[] eventTimes;
+  private double[] values;
+  // physical index of the oldest reading, moves when the oldest readings are dropped
+  private int head = 0;
+  private int size = 0;
+
+  TimeSeries(int maxReadings) {
+    if (maxReadings < 1) throw new IllegalArgumentException("maxReadings must be positive, was " + maxReadings);
+    this.maxReadings = maxReadings;
+    int initialCapacity = Math.min(INITIAL_CAPACITY, maxReadings);
+    this.eventTimes = new long[initialCapacity];
+    this.values = new double[initialCapacity];
+  }
+
+  @Override
+  public void add(long eventTime, double value) {
+    // by far the most common case is a reading newer than all others, which goes last
+    int position = size == 0 || eventTime >= eventTimes[physical(size - 1)] ? size : insertionPoint(eventTime);
+    if (size == maxReadings) {
+      // full, drop the oldest reading
+      if (position == 0) return; // older than anything retained
+      head = (head + 1) % eventTimes.length;
+      size--;
+      position--;
+    } else if (size == eventTimes.length) {
+      grow();
+    }
+    // move the readings after the position one step towards the end, only late readings need this
+    for (int i = size; i > position; i--) {
+      int to = (head + i) % eventTimes.length;
+      int from = (head + i - 1) % eventTimes.length;
+      eventTimes[to] = eventTimes[from];
+      values[to] = values[from];
+    }
+    int index = (head + position) % eventTimes.length;
+    eventTimes[index] = eventTime;
+    values[index] = value;
+    size++;
+  }
+
+  @Override
+  public long firstTime() {
+    return size == 0 ? Long.MAX_VALUE : eventTimes[head];
+  }
+
+  @Override
+  public void trimBefore(long time) {
+    while (size > 0 && eventTimes[head] < time) {
+      head = (head + 1) % eventTimes.length;
+      size--;
+    }
+  }
+
+  int size() {
+    return size;
+  }
+
+  boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * @param i index of the reading where 0 is the oldest one retained
+   */
+  long eventTime(int i) {
+    return eventTimes[physical(i)];
+  }
+
+  /**
+   * @param i index of the reading where 0 is the oldest one retained
+   */
+  double value(int i) {
+    return values[physical(i)];
+  }
+
+  @Override
+  public void feed(long from, long to, WindowAccumulator accumulator) {
+    for (int i = 0; i < size; i++) {
+      int index = physical(i);
+      long eventTime = eventTimes[index];
+      if (eventTime >= from && eventTime < to) {
+        double value = values[index];
+        accumulator.add(eventTime, 1, value, value, value, eventTime, value);
+      }
+    }
+  }
+
+  @Override
+  public void close() {
+    // nothing to release, the arrays are garbage collected with the station
+  }
+
+  /**
+   * @return the index after the last reading with an event time equal to or before `eventTime`
+   */
+  private int insertionPoint(long eventTime) {
+    int low = 0;
+    int high = size;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (eventTimes[physical(mid)] <= eventTime) low = mid + 1;
+      else high = mid;
+    }
+    return low;
+  }
+
+  private void grow() {
+    // copy in order from the oldest, which may not be first after readings were trimmed
+    int newCapacity = (int) Math.min((long) maxReadings, eventTimes.length * 2L);
+    long[] newEventTimes = new long[newCapacity];
+    double[] newValues = new double[newCapacity];
+    int firstPart = Math.min(size, eventTimes.length - head);
+    System.arraycopy(eventTimes, head, newEventTimes, 0, firstPart);
+    System.arraycopy(values, head, newValues, 0, firstPart);
+    System.arraycopy(eventTimes, 0, newEventTimes, firstPart, size - firstPart);
+    System.arraycopy(values, 0, newValues, firstPart, size - firstPart);
+    eventTimes = newEventTimes;
+    values = newValues;
+    head = 0;
+  }
+
+  private int physical(int i) {
+    if (i < 0 || i >= size) throw new IndexOutOfBoundsException("Index " + i + " out of bounds for size " + size);
+    int index = head + i;
+    return index < eventTimes.length ? index : index - eventTimes.length;
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2009-2024 Lightbend Inc. <https://www.lightbend.com>
+ */
+package sample.killrweather;
+
+import java.util.Arrays;
+
+/**
+ * The highest `capacity` values seen for one data type and the event times they were recorded at, kept in a
+ * min-heap so that each reading costs at most `O(log capacity)` and the top values never require looking at
+ * or sorting all readings.
+ *
+ * Not thread safe, only to be used from inside the owning actor.
+ */
+final class TopValues {
+
+  private final double[] values;
+  private final long[] eventTimes;
+  private int size = 0;
+
+  TopValues(int capacity) {
+    if (capacity < 1) throw new IllegalArgumentException("capacity must be positive, was " + capacity);
+    values = new double[capacity];
+    eventTimes = new long[capacity];
+  }
+
+  int capacity() {
+    return values.length;
+  }
+
+  int size() {
+    return size;
+  }
+
+  void add(long eventTime, double value) {
+    if (size < values.length) {
+      values[size] = value;
+      eventTimes[size] = eventTime;
+      siftUp(size);
+      size++;
+    } else if (value > values[0]) {
+      // replace the lowest of the top values
+      values[0] = value;
+      eventTimes[0] = eventTime;
+      siftDown(0, size);
+    }
+  }
+
+  /**
+   * @return the `n` highest values, highest first
+   */
+  WeatherStation.TimeWindow[] top(int n) {
+    // heap sort a copy, taking the lowest out first and filling the result from the end
+    TopValues copy = copyOf();
+    int resultSize = Math.min(n, size);
+    WeatherStation.TimeWindow[] result = new WeatherStation.TimeWindow[resultSize];
+    for (int remaining = size; remaining > 0; remaining--) {
+      if (remaining <= resultSize) {
+        result[remaining - 1] = new WeatherStation.TimeWindow(copy.eventTimes[0], copy.eventTimes[0], copy.values[0]);
+      }
+      copy.swap(0, remaining - 1);
+      copy.siftDown(0, remaining - 1);
+    }
+    return result;
+  }
+
+  // for snapshots, in heap order
+
+  double[] values() {
+    return Arrays.copyOf(values, size);
+  }
+
+  long[] eventTimes() {
+    return Arrays.copyOf(eventTimes, size);
+  }
+
+  private TopValues copyOf() {
+    TopValues copy = new TopValues(values.length);
+    System.arraycopy(values, 0, copy.values, 0, size);
+    System.arraycopy(eventTimes, 0, copy.eventTimes, 0, size);
+    copy.size = size;
+    return copy;
+  }
+
+  private void siftUp(int i) {
+    while (i > 0) {
+      int parent = (i - 1) / 2;
+      if (values[i] >= values[parent]) return;
+      swap(i, parent);
+      i = parent;
+    }
+  }
+
+  private void siftDown(int i, int heapSize) {
+    while (true) {
+      int left = 2 * i + 1;
+      if (left >= heapSize) return;
+      int smallest = left;
+      int right = left + 1;
+      if (right < heapSize && values[right] < values[left]) smallest = right;
+      if (values[i] <= values[smallest]) return;
+      swap(i, smallest);
+      i = smallest;
+    }
+  }
+
+  private void swap(int a, int b) {
+    double value = values[a];
+    values[a] = values[b];
+    values[b] = value;
+    long eventTime = eventTimes[a];
+    eventTimes[a] = eventTimes[b];
+    eventTimes[b] = eventTime;
+  }
+}
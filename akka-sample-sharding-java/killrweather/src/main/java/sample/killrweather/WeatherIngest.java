@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2009-2024 Lightbend Inc. <https://www.lightbend.com>
+ */
+package sample.killrweather;
+
+import akka.Done;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.delivery.ConsumerController;
+import akka.actor.typed.javadsl.AbstractBehavior;
+import akka.actor.typed.javadsl.ActorContext;
+import akka.actor.typed.javadsl.Behaviors;
+import akka.actor.typed.javadsl.Receive;
+import akka.cluster.sharding.typed.ShardingEnvelope;
+import akka.cluster.sharding.typed.delivery.ShardingConsumerController;
+import akka.cluster.sharding.typed.delivery.ShardingProducerController;
+import akka.cluster.sharding.typed.javadsl.ClusterSharding;
+import akka.cluster.sharding.typed.javadsl.Entity;
+import akka.cluster.sharding.typed.javadsl.EntityTypeKey;
+import akka.cluster.typed.Cluster;
+import akka.pattern.StatusReply;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.typesafe.config.Config;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Optional;
+
+/**
+ * Node local producer for ingesting readings with Akka reliable delivery, used by the HTTP routes instead of asking
+ * the weather stations directly when `killrweather.ingest.reliable-delivery = on`.
+ *
+ * Readings are sent through a `ShardingProducerController` to a {@link WeatherIngestConsumer} entity per station,
+ * which only requests more readings as it has recorded the previous ones. Rather than letting asks pile up when
+ * the stations cannot keep up, a reading is rejected right away with {@link Overloaded} when there is no demand and
+ * the buffers are full, so that the HTTP client can back off and retry.
+ */
+final class WeatherIngest extends AbstractBehavior<WeatherIngest.Command> {
+
+  public static final EntityTypeKey<ConsumerController.SequencedMessage<Reading>> TypeKey =
+      EntityTypeKey.create(ShardingConsumerController.entityTypeKeyClass(), "WeatherIngest");
+
+  /**
+   * Start the consumer entities and the producer for this node
+   */
+  public static ActorRef<Command> init(ActorContext<?> context) {
+    Config config = context.getSystem().settings().config().getConfig("killrweather.ingest");
+    Duration recordTimeout = config.getDuration("record-timeout");
+    // readings can wait for other readings before them, so confirmation can take longer than recording
+    Duration confirmTimeout = context.getSystem().settings().config().getDuration("killrweather.routes.ask-timeout");
+    ActorRef<ShardingEnvelope<ConsumerController.SequencedMessage<Reading>>> region =
+        ClusterSharding.get(context.getSystem()).init(Entity.of(TypeKey, entityContext ->
+            ShardingConsumerController.create(start ->
+                WeatherIngestConsumer.create(entityContext.getEntityId(), start, recordTimeout))));
+    // each producer needs a unique id, there is one per node
+    String producerId = "ingest-" + Cluster.get(context.getSystem()).selfMember().address().hostPort();
+    return context.spawn(
+        create(producerId, region, config.getInt("buffer-size"), config.getInt("max-buffered-per-station"), confirmTimeout),
+        "weatherIngest");
+  }
+
+  /**
+   * The message delivered to the consumer entities
+   */
+  public static final class Reading implements CborSerializable {
+    public final WeatherStation.Observation observation;
+    @JsonCreator
+    public Reading(WeatherStation.Observation observation) {
+      this.observation = observation;
+    }
+  }
+
+  interface Command {}
+
+  /**
+   * Record an observation, replied to once recorded by the station or with an {@link Overloaded} error
+   */
+  public static final class Ingest implements Command {
+    public final long wsid;
+    public final WeatherStation.Observation observation;
+    public final ActorRef<StatusReply<WeatherStation.DataRecorded>> replyTo;
+    public Ingest(long wsid, WeatherStation.Observation observation, ActorRef<StatusReply<WeatherStation.DataRecorded>> replyTo) {
+      this.wsid = wsid;
+      this.observation = observation;
+      this.replyTo = replyTo;
+    }
+  }
+
+  private static final class WrappedRequestNext implements Command {
+    final ShardingProducerController.RequestNext<Reading> next;
+    WrappedRequestNext(ShardingProducerController.RequestNext<Reading> next) {
+      this.next = next;
+    }
+  }
+
+  private static final class WrappedConfirmed implements Command {
+    final Ingest ingest;
+    final Throwable failure;
+    WrappedConfirmed(Ingest ingest, Throwable failure) {
+      this.ingest = ingest;
+      this.failure = failure;
+    }
+  }
+
+  /**
+   * Reading rejected because there is no demand, either for any station on this node or for the station of the
+   * reading specifically
+   */
+  public static final class Overloaded extends RuntimeException {
+    public final boolean singleStation;
+    Overloaded(String message, boolean singleStation) {
+      super(message);
+      this.singleStation = singleStation;
+    }
+  }
+
+  private static Behavior<Command> create(
+      String producerId,
+      ActorRef<ShardingEnvelope<ConsumerController.SequencedMessage<Reading>>> region,
+      int bufferSize,
+      int maxBufferedPerStation,
+      Duration timeout) {
+    return Behaviors.setup(context -> create(
+        context.spawn(ShardingProducerController.create(Reading.class, producerId, region, Optional.empty()), "producerController"),
+        bufferSize,
+        maxBufferedPerStation,
+        timeout));
+  }
+
+  static Behavior<Command> create(
+      ActorRef<ShardingProducerController.Command<Reading>> producerController,
+      int bufferSize,
+      int maxBufferedPerStation,
+      Duration timeout) {
+    return Behaviors.setup(context -> {
+      ActorRef<ShardingProducerController.RequestNext<Reading>> requestNextAdapter =
+          context.messageAdapter(ShardingProducerController.requestNextClass(), WrappedRequestNext::new);
+      producerController.tell(new ShardingProducerController.Start<>(requestNextAdapter));
+      return new WeatherIngest(context, bufferSize, maxBufferedPerStation, timeout);
+    });
+  }
+
+  private final int bufferSize;
+  private final int maxBufferedPerStation;
+  private final Duration timeout;
+  // readings waiting for demand, bounded by bufferSize
+  private final Deque<Ingest> buffer = new ArrayDeque<>();
+  // null until the producer controller asks for the next reading
+  private ShardingProducerController.RequestNext<Reading> requestNext = null;
+
+  private WeatherIngest(ActorContext<Command> context, int bufferSize, int maxBufferedPerStation, Duration timeout) {
+    super(context);
+    this.bufferSize = bufferSize;
+    this.maxBufferedPerStation = maxBufferedPerStation;
+    this.timeout = timeout;
+  }
+
+  @Override
+  public Receive<Command> createReceive() {
+    return newReceiveBuilder()
+        .onMessage(Ingest.class, this::onIngest)
+        .onMessage(WrappedRequestNext.class, this::onRequestNext)
+        .onMessage(WrappedConfirmed.class, this::onConfirmed)
+        .build();
+  }
+
+  private Behavior<Command> onIngest(Ingest ingest) {
+    if (requestNext != null) {
+      send(ingest);
+    } else if (buffer.size() < bufferSize) {
+      buffer.add(ingest);
+    } else {
+      ingest.replyTo.tell(StatusReply.error(
+          new Overloaded("Too many readings waiting to be recorded, try again later", false)));
+    }
+    return this;
+  }
+
+  private Behavior<Command> onRequestNext(WrappedRequestNext wrapped) {
+    requestNext = wrapped.next;
+    while (requestNext != null && !buffer.isEmpty()) {
+      send(buffer.poll());
+    }
+    return this;
+  }
+
+  private void send(Ingest ingest) {
+    String entityId = Long.toString(ingest.wsid);
+    // the producer controller buffers readings for stations without demand, limit that per station so that
+    // a single slow station does not use up the demand for all the others
+    if (!requestNext.getEntitiesWithDemand().contains(entityId) &&
+        requestNext.getBufferedForEntitiesWithoutDemand().getOrDefault(entityId, 0) >= maxBufferedPerStation) {
+      ingest.replyTo.tell(StatusReply.error(
+          new Overloaded("Too many readings waiting to be recorded for station " + entityId + ", try again later", true)));
+      return;
+    }
+    getContext().ask(
+        Done.class,
+        requestNext.askNextTo(),
+        timeout,
+        askReplyTo -> new ShardingProducerController.MessageWithConfirmation<>(entityId, new Reading(ingest.observation), askReplyTo),
+        (done, failure) -> new WrappedConfirmed(ingest, failure));
+    requestNext = null;
+  }
+
+  private Behavior<Command> onConfirmed(WrappedConfirmed confirmed) {
+    if (confirmed.failure == null) {
+      confirmed.ingest.replyTo.tell(StatusReply.success(
+          new WeatherStation.DataRecorded(Long.toString(confirmed.ingest.wsid), WeatherStation.DataRecorded.UNKNOWN_VERSION)));
+    } else {
+      // still delivered later, but the client has to assume it was not
+      confirmed.ingest.replyTo.tell(StatusReply.error(confirmed.failure));
+    }
+    return this;
+  }
+}
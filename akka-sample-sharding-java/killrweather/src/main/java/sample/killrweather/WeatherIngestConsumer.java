@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2009-2024 Lightbend Inc. <https://www.lightbend.com>
+ */
+package sample.killrweather;
+
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.RecipientRef;
+import akka.actor.typed.delivery.ConsumerController;
+import akka.actor.typed.javadsl.AbstractBehavior;
+import akka.actor.typed.javadsl.ActorContext;
+import akka.actor.typed.javadsl.Behaviors;
+import akka.actor.typed.javadsl.Receive;
+import akka.cluster.sharding.typed.javadsl.ClusterSharding;
+
+import java.time.Duration;
+
+/**
+ * Sharded entity receiving the readings for one weather station through reliable delivery from the
+ * {@link WeatherIngest} producers, see there. Each reading is recorded by the weather station and only confirmed
+ * once the station has replied, so the producers can only have as many readings in flight for a station as the
+ * flow control window of the consumer controller allows.
+ */
+final class WeatherIngestConsumer extends AbstractBehavior<WeatherIngestConsumer.Command> {
+
+  interface Command {}
+
+  private static final class WrappedDelivery implements Command {
+    final WeatherIngest.Reading reading;
+    final ActorRef<ConsumerController.Confirmed> confirmTo;
+    WrappedDelivery(WeatherIngest.Reading reading, ActorRef<ConsumerController.Confirmed> confirmTo) {
+      this.reading = reading;
+      this.confirmTo = confirmTo;
+    }
+  }
+
+  private static final class WrappedRecorded implements Command {
+    final WrappedDelivery delivery;
+    final Throwable failure;
+    WrappedRecorded(WrappedDelivery delivery, Throwable failure) {
+      this.delivery = delivery;
+      this.failure = failure;
+    }
+  }
+
+  public static Behavior<Command> create(String wsid, ActorRef<ConsumerController.Start<WeatherIngest.Reading>> consumerController, Duration timeout) {
+    return Behaviors.setup(context ->
+        create(wsid, ClusterSharding.get(context.getSystem()).entityRefFor(WeatherStation.TypeKey, wsid), consumerController, timeout));
+  }
+
+  static Behavior<Command> create(
+      String wsid,
+      RecipientRef<WeatherStation.Command> station,
+      ActorRef<ConsumerController.Start<WeatherIngest.Reading>> consumerController,
+      Duration timeout) {
+    return Behaviors.setup(context -> {
+      ActorRef<ConsumerController.Delivery<WeatherIngest.Reading>> deliveryAdapter =
+          context.messageAdapter(ConsumerController.deliveryClass(), delivery ->
+              new WrappedDelivery(delivery.message(), delivery.confirmTo()));
+      consumerController.tell(new ConsumerController.Start<>(deliveryAdapter));
+      return new WeatherIngestConsumer(context, wsid, station, timeout);
+    });
+  }
+
+  private final String wsid;
+  private final RecipientRef<WeatherStation.Command> station;
+  private final Duration timeout;
+
+  private WeatherIngestConsumer(ActorContext<Command> context, String wsid, RecipientRef<WeatherStation.Command> station, Duration timeout) {
+    super(context);
+    this.wsid = wsid;
+    this.station = station;
+    this.timeout = timeout;
+  }
+
+  @Override
+  public Receive<Command> createReceive() {
+    return newReceiveBuilder()
+        .onMessage(WrappedDelivery.class, this::onDelivery)
+        .onMessage(WrappedRecorded.class, this::onRecorded)
+        .build();
+  }
+
+  private Behavior<Command> onDelivery(WrappedDelivery delivery) {
+    // the next reading is not delivered until this one is confirmed
+    getContext().ask(
+        WeatherStation.DataRecorded.class,
+        station,
+        timeout,
+        replyTo -> new WeatherStation.RecordObservation(delivery.reading.observation, System.currentTimeMillis(), replyTo),
+        (recorded, failure) -> new WrappedRecorded(delivery, failure));
+    return this;
+  }
+
+  private Behavior<Command> onRecorded(WrappedRecorded recorded) {
+    if (recorded.failure == null) {
+      recorded.delivery.confirmTo.tell(ConsumerController.confirmed());
+    } else {
+      // not confirming would stop all further deliveries for the station, so keep trying, a reading may
+      // end up recorded twice if only the reply was lost
+      getContext().getLog().warn("Failed recording reading for station {}, retrying: {}", wsid, recorded.failure.getMessage());
+      onDelivery(recorded.delivery);
+    }
+    return this;
+  }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2009-2024 Lightbend Inc. <https://www.lightbend.com>
+ */
+package sample.killrweather;
+
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.Extension;
+import akka.actor.typed.ExtensionId;
+import com.typesafe.config.Config;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Node local metrics of the ingest pipeline, always on and served in the Prometheus text format from `/metrics`:
+ *
+ * - the ingest lag, from the event time of a reading until it was received by the HTTP API
+ * - the latency of the asks from the HTTP routes to the entities, per operation
+ * - the record rate of the stations on this node, each station reporting its rate over the last interval
+ *   whenever it records
+ */
+public final class WeatherMetrics implements Extension {
+
+  public static final class Id extends ExtensionId<WeatherMetrics> {
+    private static final Id instance = new Id();
+
+    private Id() {}
+
+    @Override
+    public WeatherMetrics createExtension(ActorSystem<?> system) {
+      return new WeatherMetrics(system.settings().config().getConfig("killrweather.metrics"));
+    }
+
+    public static WeatherMetrics get(ActorSystem<?> system) {
+      return instance.apply(system);
+    }
+  }
+
+  enum Ask {
+    Record, Batch, Query, Summary, Region
+  }
+
+  // bucket upper bounds exported for the histograms
+  private static final double[] SECONDS_BOUNDS = {0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60};
+  private static final double[] RATE_BOUNDS = {0.01, 0.1, 0.5, 1, 2, 5, 10, 50, 100, 1000};
+
+  final Duration recordRateInterval;
+  private final MetricsHistogram ingestLagMillis = new MetricsHistogram();
+  private final Map<Ask, MetricsHistogram> askLatencyMicros = new EnumMap<>(Ask.class);
+  // thousandths of readings per second, to keep low rates apart
+  private final MetricsHistogram recordRateMillis = new MetricsHistogram();
+  private final LongAdder readingsRecorded = new LongAdder();
+
+  private WeatherMetrics(Config config) {
+    recordRateInterval = config.getDuration("record-rate-interval");
+    for (Ask ask : Ask.values()) {
+      askLatencyMicros.put(ask, new MetricsHistogram());
+    }
+  }
+
+  void recorded(long eventTime, long processingTimestamp) {
+    ingestLagMillis.record(processingTimestamp - eventTime);
+    readingsRecorded.increment();
+  }
+
+  void recordRate(long readings, long intervalMillis) {
+    recordRateMillis.record(readings * 1000 * 1000 / Math.max(1, intervalMillis));
+  }
+
+  /**
+   * @return the reply of the ask, recording how long it took whether it succeeded or not
+   */
+  <T> CompletionStage<T> timed(Ask ask, Supplier<CompletionStage<T>> asking) {
+    long start = System.nanoTime();
+    return asking.get().whenComplete((reply, failure) ->
+        askLatencyMicros.get(ask).record((System.nanoTime() - start) / 1000));
+  }
+
+  /**
+   * @return all metrics in the Prometheus text exposition format
+   */
+  String prometheus() {
+    StringBuilder text = new StringBuilder(8192);
+    header(text, "killrweather_ingest_lag_seconds", "histogram",
+        "Time from the event time of a reading until it was received by the HTTP API");
+    histogram(text, "killrweather_ingest_lag_seconds", "", ingestLagMillis, 1000, SECONDS_BOUNDS);
+    header(text, "killrweather_ask_duration_seconds", "histogram",
+        "Time from asking an entity from the HTTP routes until the reply or failure");
+    for (Ask ask : Ask.values()) {
+      histogram(text, "killrweather_ask_duration_seconds", "operation=\"" + ask.name().toLowerCase(Locale.ROOT) + "\",",
+          askLatencyMicros.get(ask), 1000 * 1000, SECONDS_BOUNDS);
+    }
+    header(text, "killrweather_station_record_rate", "histogram",
+        "Readings per second recorded by a station, observed every " + recordRateInterval.getSeconds() + "s per active station");
+    histogram(text, "killrweather_station_record_rate", "", recordRateMillis, 1000, RATE_BOUNDS);
+    header(text, "killrweather_readings_recorded_total", "counter", "Readings recorded by the stations on this node");
+    text.append("killrweather_readings_recorded_total ").append(readingsRecorded.sum()).append('\n');
+    return text.toString();
+  }
+
+  private static void header(StringBuilder text, String name, String type, String help) {
+    text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+    text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+  }
+
+  /**
+   * @param labels extra labels, each followed by a comma
+   * @param divisor recorded values divided by this are the exported unit
+   */
+  private static void histogram(StringBuilder text, String name, String labels, MetricsHistogram histogram, double divisor, double[] bounds) {
+    long[] atMost = new long[bounds.length];
+    for (int i = 0; i < bounds.length; i++) {
+      atMost[i] = histogram.countAtMost((long) (bounds[i] * divisor));
+    }
+    // read after the buckets, see MetricsHistogram.record
+    long count = histogram.count();
+    long sum = histogram.sum();
+    for (int i = 0; i < bounds.length; i++) {
+      text.append(name).append("_bucket{").append(labels).append("le=\"").append(bounds[i]).append("\"} ")
+          .append(atMost[i]).append('\n');
+    }
+    text.append(name).append("_bucket{").append(labels).append("le=\"+Inf\"} ").append(count).append('\n');
+    String sumLabels = labels.isEmpty() ? "" : "{" + labels.substring(0, labels.length() - 1) + "}";
+    text.append(name).append("_sum").append(sumLabels).append(' ').append(sum / divisor).append('\n');
+    text.append(name).append("_count").append(sumLabels).append(' ').append(count).append('\n');
+  }
+}
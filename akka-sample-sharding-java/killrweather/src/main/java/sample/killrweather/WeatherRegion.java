@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2009-2024 Lightbend Inc. <https://www.lightbend.com>
+ */
+package sample.killrweather;
+
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.PostStop;
+import akka.actor.typed.javadsl.AbstractBehavior;
+import akka.actor.typed.javadsl.ActorContext;
+import akka.actor.typed.javadsl.Behaviors;
+import akka.actor.typed.javadsl.Receive;
+import akka.actor.typed.javadsl.TimerScheduler;
+import akka.cluster.sharding.typed.ClusterShardingSettings;
+import akka.cluster.sharding.typed.javadsl.ClusterSharding;
+import akka.cluster.sharding.typed.javadsl.Entity;
+import akka.cluster.sharding.typed.javadsl.EntityTypeKey;
+import com.fasterxml.jackson.annotation.JsonCreator;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Sharded entity with the running totals of all the stations in a region, or with entity id {@link #GLOBAL} of all
+ * regions, so that region and global averages are read from a single entity instead of asking every station.
+ *
+ * Each station belongs to the region `wsid / stations-per-region` and pushes what it recorded since the last flush
+ * to its region once per flush interval, see {@link RegionFeed}, the regions push to the global entity the same way.
+ * The totals lag behind the stations by up to two flush intervals. Like the non persistent {@link WeatherStation}
+ * the totals are only kept in memory, they start over if the entity is moved to another node.
+ */
+final class WeatherRegion extends AbstractBehavior<WeatherRegion.Command> {
+
+  public static final EntityTypeKey<Command> TypeKey =
+      EntityTypeKey.create(WeatherRegion.Command.class, "WeatherRegion");
+
+  public static final String GLOBAL = "global";
+
+  public static void initSharding(ActorSystem<?> system) {
+    WeatherStationSettings settings = WeatherStationSettings.create(system);
+    ClusterSharding.get(system).init(Entity.of(TypeKey, entityContext ->
+        WeatherRegion.create(entityContext.getEntityId(), settings.regionFlushInterval))
+        // the totals are lost when stopped, a region receiving no deltas for a while must not be passivated
+        .withSettings(ClusterShardingSettings.create(system).withNoPassivationStrategy()));
+  }
+
+  public static String regionOf(String wsid, int stationsPerRegion) {
+    return Long.toString(Math.floorDiv(Long.parseLong(wsid), stationsPerRegion));
+  }
+
+  interface Command extends CborSerializable {}
+
+  /**
+   * What a station or region recorded since its last flush
+   */
+  public static final class Delta implements Command {
+    public final String source;
+    public final List<DataTypeDelta> deltas;
+    @JsonCreator
+    public Delta(String source, List<DataTypeDelta> deltas) {
+      this.source = source;
+      this.deltas = deltas;
+    }
+  }
+
+  public static final class DataTypeDelta {
+    public final WeatherStation.DataType dataType;
+    public final long count;
+    public final double sum;
+    public final double min;
+    public final double max;
+    @JsonCreator
+    public DataTypeDelta(WeatherStation.DataType dataType, long count, double sum, double min, double max) {
+      this.dataType = dataType;
+      this.count = count;
+      this.sum = sum;
+      this.min = min;
+      this.max = max;
+    }
+  }
+
+  public static final class GetSummary implements Command {
+    public final WeatherStation.DataType dataType;
+    public final ActorRef<RegionSummary> replyTo;
+    public GetSummary(WeatherStation.DataType dataType, ActorRef<RegionSummary> replyTo) {
+      this.dataType = dataType;
+      this.replyTo = replyTo;
+    }
+  }
+
+  /**
+   * Totals of one data type over all readings the region has been told about, min and max are only meaningful
+   * if readings is larger than 0
+   */
+  public static final class RegionSummary implements CborSerializable {
+    public final String regionId;
+    public final WeatherStation.DataType dataType;
+    /**
+     * number of stations, or regions for the global entity, that have reported
+     */
+    public final int sources;
+    public final long readings;
+    /**
+     * average, min and max are null when there are no readings
+     */
+    public final Double average;
+    public final Double min;
+    public final Double max;
+    @JsonCreator
+    public RegionSummary(String regionId, WeatherStation.DataType dataType, int sources, long readings, Double average, Double min, Double max) {
+      this.regionId = regionId;
+      this.dataType = dataType;
+      this.sources = sources;
+      this.readings = readings;
+      this.average = average;
+      this.min = min;
+      this.max = max;
+    }
+  }
+
+  enum Flush implements Command {
+    INSTANCE
+  }
+
+  public static Behavior<Command> create(String regionId, Duration flushInterval) {
+    return Behaviors.setup(context ->
+        Behaviors.withTimers(timers -> new WeatherRegion(context, timers, regionId, flushInterval)));
+  }
+
+  private final String regionId;
+  private final RegionTotals totals = new RegionTotals();
+  private final Set<String> sources = new HashSet<>();
+  // empty for the global entity
+  private final Optional<RegionFeed<Command>> globalFeed;
+
+  private WeatherRegion(ActorContext<Command> context, TimerScheduler<Command> timers, String regionId, Duration flushInterval) {
+    super(context);
+    this.regionId = regionId;
+    this.globalFeed = regionId.equals(GLOBAL) ? Optional.empty() : Optional.of(new RegionFeed<>(
+        timers,
+        Flush.INSTANCE,
+        flushInterval,
+        ClusterSharding.get(context.getSystem()).entityRefFor(TypeKey, GLOBAL),
+        regionId));
+  }
+
+  @Override
+  public Receive<Command> createReceive() {
+    return newReceiveBuilder()
+        .onMessage(Delta.class, this::onDelta)
+        .onMessage(GetSummary.class, this::onGetSummary)
+        .onMessageEquals(Flush.INSTANCE, this::onFlush)
+        .onSignalEquals(PostStop.instance(), this::onFlush)
+        .build();
+  }
+
+  private Behavior<Command> onDelta(Delta delta) {
+    sources.add(delta.source);
+    for (DataTypeDelta dataTypeDelta : delta.deltas) {
+      totals.add(dataTypeDelta);
+      globalFeed.ifPresent(feed -> feed.add(dataTypeDelta));
+    }
+    return this;
+  }
+
+  private Behavior<Command> onGetSummary(GetSummary getSummary) {
+    getSummary.replyTo.tell(totals.summary(regionId, getSummary.dataType, sources.size()));
+    return this;
+  }
+
+  private Behavior<Command> onFlush() {
+    globalFeed.ifPresent(RegionFeed::flush);
+    return this;
+  }
+}
@@ -3,88 +3,514 @@
  */
 package sample.killrweather;
 
+import akka.NotUsed;
+import akka.actor.typed.ActorRef;
 import akka.actor.typed.ActorSystem;
+import akka.actor.typed.javadsl.AskPattern;
 import akka.cluster.sharding.typed.javadsl.ClusterSharding;
 import akka.cluster.sharding.typed.javadsl.EntityRef;
 import akka.http.javadsl.marshallers.jackson.Jackson;
+import akka.http.javadsl.common.EntityStreamingSupport;
+import akka.http.javadsl.marshalling.sse.EventStreamMarshalling;
+import akka.http.javadsl.model.ContentTypes;
+import akka.http.javadsl.model.HttpEntities;
 import akka.http.javadsl.model.HttpEntity;
 import akka.http.javadsl.model.StatusCodes;
+import akka.http.javadsl.model.sse.ServerSentEvent;
 import akka.http.javadsl.server.ExceptionHandler;
 import akka.http.javadsl.server.Route;
+import akka.http.javadsl.unmarshalling.StringUnmarshallers;
 import akka.http.javadsl.unmarshalling.Unmarshaller;
+import akka.japi.Pair;
 import akka.serialization.jackson.JacksonObjectMapperProvider;
+import akka.stream.OverflowStrategy;
+import akka.stream.javadsl.Source;
+import akka.stream.typed.javadsl.ActorSource;
+import akka.util.ByteString;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.typesafe.config.Config;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.MappingIterator;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import static akka.http.javadsl.server.Directives.*;
 import static akka.http.javadsl.server.PathMatchers.*;
 
 
+import java.io.IOException;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 
 public class WeatherRoutes {
 
+  private final ActorSystem<?> system;
   private final ClusterSharding sharding;
+  private final Optional<ActorRef<WeatherIngest.Command>> ingest;
   private final Duration timeout;
   private final ObjectMapper objectMapper;
-  private final Unmarshaller<HttpEntity, WeatherStation.Data> dataUnmarshaller;
+  private final Unmarshaller<HttpEntity, WeatherStation.Observation> observationUnmarshaller;
+  private final Unmarshaller<HttpEntity, List<WeatherStation.Data>> batchUnmarshaller;
+  private final int fanOutParallelism;
+  private final Duration fanOutTimeout;
+  private final int fanOutMaxStations;
+  private final int topKMax;
+  private final Unmarshaller<ByteString, StationData> stationDataUnmarshaller;
+  private final EntityStreamingSupport streamingSupport;
+  private final int streamMaxBatch;
+  private final Duration streamMaxBatchDelay;
+  private final int streamParallelism;
+  private final QueryCache queryCache;
+  private final int liveBufferSize;
+  private final Duration liveKeepAlive;
+  private final WeatherMetrics metrics;
+  private final EntityRefCache<WeatherStation.Command> stations;
 
-  public WeatherRoutes(ActorSystem<?> system) {
+  /**
+   * @param ingest if defined single readings are recorded through it with reliable delivery rather than by
+   *               asking the station directly
+   */
+  public WeatherRoutes(ActorSystem<?> system, Optional<ActorRef<WeatherIngest.Command>> ingest) {
+    this.system = system;
+    this.ingest = ingest;
     sharding = ClusterSharding.get(system);
     timeout = system.settings().config().getDuration("killrweather.routes.ask-timeout");
     // use a pre-configured object mapper from akka-jackson also for HTTP JSON
     // this lets us use the -parameters compiler argument to skip annotating field names on immutable classes
     objectMapper = JacksonObjectMapperProvider.get(system).getOrCreate("jackson-json", Optional.empty());
-    dataUnmarshaller = Jackson.unmarshaller(objectMapper, WeatherStation.Data.class);
+    // parsed straight from the bytes of the entity rather than from a string decoded from them first
+    observationUnmarshaller = Unmarshaller.entityToByteString().thenApply(this::parseObservation);
+    batchUnmarshaller = Unmarshaller.entityToByteString().thenApply(this::parseBatch);
+    Config fanOutConfig = system.settings().config().getConfig("killrweather.routes.fan-out");
+    fanOutParallelism = fanOutConfig.getInt("parallelism");
+    fanOutTimeout = fanOutConfig.getDuration("timeout");
+    fanOutMaxStations = fanOutConfig.getInt("max-stations");
+    topKMax = system.settings().config().getInt("killrweather.weather-station.top-k.max");
+    Config streamConfig = system.settings().config().getConfig("killrweather.routes.stream");
+    stationDataUnmarshaller = Jackson.byteStringUnmarshaller(objectMapper, StationData.class);
+    // frames JSON objects both from newline delimited JSON and from a JSON array
+    streamingSupport = EntityStreamingSupport.json(streamConfig.getInt("max-reading-length"));
+    streamMaxBatch = streamConfig.getInt("max-batch");
+    streamMaxBatchDelay = streamConfig.getDuration("max-batch-delay");
+    streamParallelism = streamConfig.getInt("parallelism");
+    Config cacheConfig = system.settings().config().getConfig("killrweather.routes.query-cache");
+    queryCache = new QueryCache(cacheConfig.getInt("max-entries"), cacheConfig.getDuration("ttl"));
+    Config liveConfig = system.settings().config().getConfig("killrweather.routes.live");
+    liveBufferSize = liveConfig.getInt("buffer-size");
+    liveKeepAlive = liveConfig.getDuration("keep-alive");
+    metrics = WeatherMetrics.Id.get(system);
+    stations = new EntityRefCache<>(sharding, WeatherStation.TypeKey, system.settings().config().getInt("killrweather.routes.entity-ref-cache-size"));
   }
 
-  private CompletionStage<WeatherStation.DataRecorded> recordData(long wsid, WeatherStation.Data data) {
-    EntityRef<WeatherStation.Command> ref = sharding.entityRefFor(WeatherStation.TypeKey, Long.toString(wsid));
-    return ref.ask(replyTo -> new WeatherStation.Record(data, System.currentTimeMillis(), replyTo), timeout);
+  /**
+   * A data point for a given station, for streams carrying readings from many stations
+   */
+  public static final class StationData {
+    public final long wsid;
+    public final long eventTime;
+    public final WeatherStation.DataType dataType;
+    public final double value;
+
+    @JsonCreator
+    public StationData(long wsid, long eventTime, WeatherStation.DataType dataType, double value) {
+      this.wsid = wsid;
+      this.eventTime = eventTime;
+      this.dataType = dataType;
+      this.value = value;
+    }
+  }
+
+  /**
+   * @param body either an observation with several values or a single data point
+   */
+  private WeatherStation.Observation parseObservation(ByteString body) {
+    try (JsonParser parser = objectMapper.createParser(body.toArrayUnsafe())) {
+      return readObservation(parser);
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Invalid observation: " + e.getMessage(), e);
+    }
+  }
+
+  private static final TypeReference<List<WeatherStation.Measurement>> MEASUREMENTS = new TypeReference<List<WeatherStation.Measurement>>() {};
+
+  /**
+   * Reads either shape in one pass over the tokens, telling them apart by the fields seen on the way,
+   * rather than reading a tree first to look at its shape
+   */
+  private static WeatherStation.Observation readObservation(JsonParser parser) throws IOException {
+    if (parser.nextToken() != JsonToken.START_OBJECT) throw JsonMappingException.from(parser, "Expected a JSON object");
+    long eventTime = 0;
+    WeatherStation.DataType dataType = null;
+    double value = 0;
+    List<WeatherStation.Measurement> values = null;
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.getCurrentName();
+      parser.nextToken();
+      switch (field) {
+        case "eventTime":
+          eventTime = parser.getLongValue();
+          break;
+        case "dataType":
+          dataType = parser.readValueAs(WeatherStation.DataType.class);
+          break;
+        case "value":
+          value = parser.getDoubleValue();
+          break;
+        case "values":
+          values = parser.readValueAs(MEASUREMENTS);
+          break;
+        default:
+          parser.skipChildren();
+      }
+    }
+    if (values != null) return new WeatherStation.Observation(eventTime, values);
+    if (dataType == null) throw JsonMappingException.from(parser, "Expected values or a dataType");
+    return new WeatherStation.Observation(eventTime, Collections.singletonList(new WeatherStation.Measurement(dataType, value)));
+  }
+
+  /**
+   * @param body either a JSON array of data points or newline delimited JSON with one data point per line
+   */
+  private List<WeatherStation.Data> parseBatch(ByteString body) {
+    // reading a sequence of values also unwraps a root level JSON array
+    try (MappingIterator<WeatherStation.Data> iterator = objectMapper.readerFor(WeatherStation.Data.class).readValues(body.toArrayUnsafe())) {
+      return iterator.readAll();
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Invalid batch of data: " + e.getMessage(), e);
+    }
+  }
+
+  private CompletionStage<WeatherStation.DataRecorded> recordObservation(long wsid, WeatherStation.Observation observation) {
+    final CompletionStage<WeatherStation.DataRecorded> recorded;
+    if (ingest.isPresent()) {
+      // fails right away with WeatherIngest.Overloaded if the stations cannot keep up
+      recorded = metrics.timed(WeatherMetrics.Ask.Record, () -> AskPattern.askWithStatus(
+          ingest.get(), replyTo -> new WeatherIngest.Ingest(wsid, observation, replyTo), timeout, system.scheduler()));
+    } else {
+      EntityRef<WeatherStation.Command> ref = stations.get(wsid);
+      recorded = metrics.timed(WeatherMetrics.Ask.Record, () ->
+          ref.ask(replyTo -> new WeatherStation.RecordObservation(observation, System.currentTimeMillis(), replyTo), timeout));
+    }
+    return recorded.thenApply(dataRecorded -> invalidateCached(wsid, dataRecorded));
+  }
+
+  private CompletionStage<WeatherStation.DataRecorded> recordBatch(long wsid, List<WeatherStation.Data> batch) {
+    EntityRef<WeatherStation.Command> ref = stations.get(wsid);
+    CompletionStage<WeatherStation.DataRecorded> recorded = metrics.timed(WeatherMetrics.Ask.Batch, () ->
+        ref.ask(replyTo -> new WeatherStation.RecordBatch(batch, System.currentTimeMillis(), replyTo), timeout));
+    return recorded.thenApply(dataRecorded -> invalidateCached(wsid, dataRecorded));
   }
 
-  private CompletionStage<WeatherStation.QueryResult> query(long wsid, WeatherStation.DataType dataType, WeatherStation.Function function) {
-    EntityRef<WeatherStation.Command> ref = sharding.entityRefFor(WeatherStation.TypeKey, Long.toString(wsid));
-    return ref.ask(replyTo -> new WeatherStation.Query(dataType, function, replyTo), timeout);
+  private WeatherStation.DataRecorded invalidateCached(long wsid, WeatherStation.DataRecorded dataRecorded) {
+    queryCache.recorded(wsid, dataRecorded.version);
+    return dataRecorded;
+  }
+
+  /**
+   * Record a continuous stream of readings for many stations, readings arriving within a short time are grouped
+   * per station and recorded with one batch per station, with a bounded number of batches in flight. Backpressure
+   * propagates all the way to the client, which is only read from as fast as the stations record.
+   *
+   * @return the number of recorded readings once the stream completes
+   */
+  private CompletionStage<Long> recordStream(Source<StationData, NotUsed> readings) {
+    return readings
+        .groupedWithin(streamMaxBatch, streamMaxBatchDelay)
+        .mapConcat(WeatherRoutes::perStation)
+        .mapAsyncUnordered(streamParallelism, stationBatch ->
+            recordBatch(stationBatch.getKey(), stationBatch.getValue()).thenApply(recorded -> stationBatch.getValue().size()))
+        .runFold(0L, (total, recorded) -> total + recorded, system);
+  }
+
+  private static Collection<Map.Entry<Long, List<WeatherStation.Data>>> perStation(List<StationData> readings) {
+    // keeping the order the stations first appeared in
+    Map<Long, List<WeatherStation.Data>> byStation = new LinkedHashMap<>();
+    for (StationData reading : readings) {
+      byStation.computeIfAbsent(reading.wsid, wsid -> new ArrayList<>())
+          .add(new WeatherStation.Data(reading.eventTime, reading.dataType, reading.value));
+    }
+    return byStation.entrySet();
+  }
+
+  private CompletionStage<WeatherStation.QueryResult> query(long wsid, WeatherStation.DataType dataType, WeatherStation.Function function, long windowSize, long from, long to, double percentile, int topK) {
+    QueryCache.Key key = new QueryCache.Key(wsid, dataType, function, windowSize, from, to, percentile, topK);
+    WeatherStation.QueryResult cached = queryCache.get(key);
+    if (cached != null) return CompletableFuture.completedFuture(cached);
+    EntityRef<WeatherStation.Command> ref = stations.get(wsid);
+    return metrics.timed(WeatherMetrics.Ask.Query, () ->
+            ref.<WeatherStation.QueryResult>ask(replyTo -> new WeatherStation.Query(dataType, function, windowSize, from, to, percentile, topK, replyTo), timeout))
+        .thenApply(result -> {
+          queryCache.put(key, result);
+          return result;
+        });
+  }
+
+  private CompletionStage<WeatherStation.Summary> summary(long wsid, WeatherStation.DataType dataType) {
+    EntityRef<WeatherStation.Command> ref = stations.get(wsid);
+    return metrics.timed(WeatherMetrics.Ask.Summary, () ->
+        ref.ask(replyTo -> new WeatherStation.GetSummary(dataType, replyTo), fanOutTimeout));
+  }
+
+  private CompletionStage<WeatherRegion.RegionSummary> regionSummary(String regionId, WeatherStation.DataType dataType) {
+    EntityRef<WeatherRegion.Command> ref = sharding.entityRefFor(WeatherRegion.TypeKey, regionId);
+    return metrics.timed(WeatherMetrics.Ask.Region, () ->
+        ref.ask(replyTo -> new WeatherRegion.GetSummary(dataType, replyTo), timeout));
+  }
+
+  /**
+   * Ask all the stations for a summary of the data type and merge the replies as they arrive, emitting the merged
+   * result so far regularly. Stations that fail or do not reply within the fan out timeout are left out, the
+   * last emitted aggregate has the number of stations that replied.
+   */
+  private Source<StationsAggregate, NotUsed> aggregate(List<Long> wsids, WeatherStation.DataType dataType, int top) {
+    return Source.from(wsids)
+        .mapAsyncUnordered(fanOutParallelism, wsid ->
+            summary(wsid, dataType).handle((summary, failure) -> Optional.ofNullable(summary)))
+        .takeWithin(fanOutTimeout)
+        .filter(Optional::isPresent)
+        .map(Optional::get)
+        .groupedWithin(100, Duration.ofMillis(100))
+        .scan(StationsAggregate.empty(dataType, wsids.size(), top), StationsAggregate::merge);
+  }
+
+  /**
+   * Subscribe to live updates from the station, buffering at most a few updates for a slow client and dropping the
+   * oldest ones, the latest update has the latest summaries anyway. The subscription ends when the client goes away
+   * or when the station stops, in which case the client is expected to reconnect like SSE clients do.
+   */
+  private Source<ServerSentEvent, NotUsed> live(long wsid) {
+    Pair<ActorRef<WeatherStation.Published>, Source<WeatherStation.Published, NotUsed>> subscriber =
+        ActorSource.<WeatherStation.Published>actorRef(
+            published -> published == WeatherStation.SubscriptionEnded.INSTANCE,
+            published -> Optional.empty(),
+            liveBufferSize,
+            OverflowStrategy.dropHead())
+            .preMaterialize(system);
+    EntityRef<WeatherStation.Command> ref = stations.get(wsid);
+    ref.tell(new WeatherStation.Subscribe(subscriber.first()));
+    return subscriber.second()
+        .collectType(WeatherStation.Update.class)
+        .map(this::toServerSentEvent)
+        .keepAlive(liveKeepAlive, ServerSentEvent::heartbeat);
+  }
+
+  private ServerSentEvent toServerSentEvent(WeatherStation.Update update) {
+    try {
+      return ServerSentEvent.create(objectMapper.writeValueAsString(update), "update", Long.toString(update.version));
+    } catch (JsonProcessingException e) {
+      throw new IllegalStateException("Failed to serialize update for station " + update.wsid, e);
+    }
   }
 
   // unmarshallers for the query parameters
-  private final Unmarshaller<String, WeatherStation.Function> functionUnmarshaller = Unmarshaller.sync(text -> {
-    String lcText = text.toLowerCase();
-    switch(lcText) {
-      case "current": return WeatherStation.Function.Current;
-      case "highlow": return WeatherStation.Function.HighLow;
-      case "average": return WeatherStation.Function.Average;
-      default: throw new IllegalArgumentException("Unknown function " + lcText);
+  private final Unmarshaller<String, WeatherStation.Function> functionUnmarshaller =
+      enumUnmarshaller(WeatherStation.Function.class, "function");
+  private final Unmarshaller<String, WeatherStation.DataType> dataTypeUnmarshaller =
+      enumUnmarshaller(WeatherStation.DataType.class, "data type");
+
+  /**
+   * Case insensitive lookup of enum values by their names in the JSON API, only allocating for names not already
+   * in lower case
+   */
+  private static <E extends Enum<E>> Unmarshaller<String, E> enumUnmarshaller(Class<E> enumClass, String description) {
+    Map<String, E> byName = new HashMap<>();
+    for (E value : enumClass.getEnumConstants()) {
+      try {
+        byName.put(enumClass.getField(value.name()).getAnnotation(JsonProperty.class).value(), value);
+      } catch (NoSuchFieldException e) {
+        throw new IllegalStateException(e);
+      }
     }
+    return Unmarshaller.sync(text -> {
+      E value = byName.get(text);
+      if (value == null) value = byName.get(text.toLowerCase(Locale.ROOT));
+      if (value == null) throw new IllegalArgumentException("Unknown " + description + " " + text);
+      return value;
+    });
+  }
+  // window size as a number and a unit, for example 15m, 1h or 1d
+  private final Unmarshaller<String, Duration> windowUnmarshaller = Unmarshaller.sync(text -> {
+    if (text.length() < 2) throw new IllegalArgumentException("Unknown window size " + text);
+    Duration window = parseWindow(text);
+    if (window == null) window = parseWindow(text.toLowerCase(Locale.ROOT));
+    if (window == null) throw new IllegalArgumentException("Unknown window size " + text);
+    if (window.isZero() || window.isNegative()) throw new IllegalArgumentException("Window size must be positive, was " + text);
+    return window;
   });
-  private final Unmarshaller<String, WeatherStation.DataType> dataTypeUnmarshaller = Unmarshaller.sync(text -> {
-    String lcText = text.toLowerCase();
-    switch(lcText) {
-      case "temperature": return WeatherStation.DataType.Temperature;
-      case "dewpoint": return WeatherStation.DataType.DewPoint;
-      case "pressure": return WeatherStation.DataType.Pressure;
-      default: throw new IllegalArgumentException("Unknown data type " + lcText);
+
+  /**
+   * @return the window size or null if the unit is not known
+   */
+  private static Duration parseWindow(String text) {
+    long amount = Long.parseLong(text.substring(0, text.length() - 1));
+    switch (text.charAt(text.length() - 1)) {
+      case 's': return Duration.ofSeconds(amount);
+      case 'm': return Duration.ofMinutes(amount);
+      case 'h': return Duration.ofHours(amount);
+      case 'd': return Duration.ofDays(amount);
+      default: return null;
     }
+  }
+  private final Unmarshaller<String, Double> percentileUnmarshaller = StringUnmarshallers.DOUBLE.thenApply(percentile -> {
+    if (percentile < 0 || percentile > 100) throw new IllegalArgumentException("Percentile must be between 0 and 100, was " + percentile);
+    return percentile;
   });
+  private final Unmarshaller<String, Integer> topKUnmarshaller = StringUnmarshallers.INTEGER.thenApply(this::checkTopK);
 
+  private Integer checkTopK(Integer n) {
+    // the stations only keep this many
+    if (n < 1 || n > topKMax)
+      throw new IllegalArgumentException("Number of top values must be between 1 and " + topKMax + ", was " + n);
+    return n;
+  }
+  // comma separated station ids and ranges of ids, for example 1,2,5-10
+  private final Unmarshaller<String, List<Long>> stationsUnmarshaller = Unmarshaller.sync(this::parseStations);
+
+  private List<Long> parseStations(String text) {
+    List<Long> wsids = new ArrayList<>();
+    for (String part : text.split(",")) {
+      int dash = part.indexOf('-', 1);
+      long first = Long.parseLong(part.substring(0, dash == -1 ? part.length() : dash).trim());
+      long last = dash == -1 ? first : Long.parseLong(part.substring(dash + 1).trim());
+      if (last < first) throw new IllegalArgumentException("Invalid range of stations " + part);
+      if (last - first >= fanOutMaxStations - wsids.size())
+        throw new IllegalArgumentException("At most " + fanOutMaxStations + " stations can be queried at once");
+      for (long wsid = first; wsid <= last; wsid++) {
+        wsids.add(wsid);
+      }
+    }
+    return wsids;
+  }
 
 
+  // ingestion overloaded, asking the client to back off
+  private final ExceptionHandler overloadedHandler = ExceptionHandler.newBuilder()
+      .match(WeatherIngest.Overloaded.class, e ->
+          complete(e.singleStation ? StatusCodes.TOO_MANY_REQUESTS : StatusCodes.SERVICE_UNAVAILABLE, e.getMessage()))
+      .build();
+
   public Route weather() {
-    return path(segment("weather").slash().concat(longSegment()), wsid ->
-      concat(
+    return concat(
+      path("metrics", () ->
+        get(() ->
+          complete(HttpEntities.create(ContentTypes.TEXT_PLAIN_UTF8, metrics.prometheus()))
+        )
+      ),
+      path(segment("weather").slash("cache"), () ->
+        get(() ->
+          completeOK(queryCache.stats(), Jackson.marshaller(objectMapper))
+        )
+      ),
+      path(segment("weather").slash("stream"), () ->
+        post(() ->
+          // a long lived request, carrying readings for as long as the client keeps it open
+          withoutRequestTimeout(() ->
+            withoutSizeLimit(() ->
+              entityAsSourceOf(stationDataUnmarshaller, streamingSupport, readings ->
+                onSuccess(recordStream(readings), recorded ->
+                  complete(StatusCodes.OK, "Recorded " + recorded + " readings")
+                )
+              )
+            )
+          )
+        )
+      ),
+      path(segment("weather").slash("region").slash(longSegment()), regionId ->
+        get(() ->
+          parameter(dataTypeUnmarshaller, "type", dataType ->
+            onSuccess(regionSummary(Long.toString(regionId), dataType), summary ->
+              completeOK(summary, Jackson.marshaller(objectMapper))
+            )
+          )
+        )
+      ),
+      path(segment("weather").slash("global"), () ->
+        get(() ->
+          parameter(dataTypeUnmarshaller, "type", dataType ->
+            onSuccess(regionSummary(WeatherRegion.GLOBAL, dataType), summary ->
+              completeOK(summary, Jackson.marshaller(objectMapper))
+            )
+          )
+        )
+      ),
+      path("weather", () ->
         get(() ->
           parameter(dataTypeUnmarshaller, "type", (dataType ->
-            parameter(functionUnmarshaller, "function", (function ->
-              completeOKWithFuture(query(wsid, dataType, function), Jackson.marshaller())
+            parameter(stationsUnmarshaller, "stations", (wsids ->
+              parameterOptional(topKUnmarshaller, "top", (top ->
+                completeOKWithSource(
+                    aggregate(wsids, dataType, top.orElse(WeatherStation.Query.DEFAULT_TOP_K)),
+                    Jackson.marshaller(objectMapper),
+                    EntityStreamingSupport.json())
+              ))
             ))
           ))
-        ),
+        )
+      ),
+      path(segment("weather").slash(longSegment()).slash("live"), wsid ->
+        get(() ->
+          completeOK(live(wsid), EventStreamMarshalling.toEventStream())
+        )
+      ),
+      path(segment("weather").slash(longSegment()).slash("batch"), wsid ->
         post(() ->
-          entity(dataUnmarshaller, data ->
-            onSuccess(recordData(wsid, data), performed ->
-                complete(StatusCodes.ACCEPTED, performed + " from event time: " + data.eventTime)
+          entity(batchUnmarshaller, batch ->
+            onSuccess(recordBatch(wsid, batch), performed ->
+              complete(StatusCodes.ACCEPTED, performed + " for " + batch.size() + " readings")
+            )
+          )
+        )
+      ),
+      path(segment("weather").slash(longSegment()), wsid ->
+        concat(
+          get(() ->
+            parameter(dataTypeUnmarshaller, "type", (dataType ->
+              parameter(functionUnmarshaller, "function", (function ->
+                parameterOptional(windowUnmarshaller, "window", (window ->
+                  parameterOptional(StringUnmarshallers.LONG, "from", (from ->
+                    parameterOptional(StringUnmarshallers.LONG, "to", (to ->
+                      parameterOptional(percentileUnmarshaller, "p", (percentile ->
+                        parameterOptional(topKUnmarshaller, "n", (topK ->
+                          completeOKWithFuture(
+                              query(
+                                  wsid,
+                                  dataType,
+                                  function,
+                                  window.map(Duration::toMillis).orElse(WeatherStation.Query.NO_WINDOW),
+                                  from.orElse(WeatherStation.Query.OPEN_START),
+                                  to.orElse(WeatherStation.Query.OPEN_END),
+                                  percentile.orElse(WeatherStation.Query.DEFAULT_PERCENTILE),
+                                  topK.orElse(WeatherStation.Query.DEFAULT_TOP_K)),
+                              Jackson.marshaller())
+                        ))
+                      ))
+                    ))
+                  ))
+                ))
+              ))
+            ))
+          ),
+          post(() ->
+            entity(observationUnmarshaller, observation ->
+              handleExceptions(overloadedHandler, () ->
+                onSuccess(recordObservation(wsid, observation), performed ->
+                    complete(StatusCodes.ACCEPTED, performed + " from event time: " + observation.eventTime)
+                )
+              )
             )
           )
         )
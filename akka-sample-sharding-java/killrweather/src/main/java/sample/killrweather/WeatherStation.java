@@ -9,26 +9,34 @@ import akka.actor.typed.Behavior;
 import akka.actor.typed.PostStop;
 import akka.actor.typed.javadsl.AbstractBehavior;
 import akka.actor.typed.javadsl.ActorContext;
+import akka.actor.typed.javadsl.Adapter;
 import akka.actor.typed.javadsl.Behaviors;
 import akka.actor.typed.javadsl.Receive;
+import akka.actor.typed.javadsl.TimerScheduler;
+import akka.cluster.sharding.typed.ClusterShardingSettings;
 import akka.cluster.sharding.typed.javadsl.ClusterSharding;
 import akka.cluster.sharding.typed.javadsl.Entity;
 import akka.cluster.sharding.typed.javadsl.EntityTypeKey;
+import akka.persistence.typed.PersistenceId;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 import java.util.*;
-import java.util.stream.Collectors;
 
 /**
  * A sharded `WeatherStation` has a set of recorded datapoints
  * For each weather station common cumulative computations can be run:
- * aggregate, averages, high/low, topK (e.g. the top N highest temperatures).
+ * aggregate, averages, high/low, percentiles, topK (e.g. the top N highest temperatures).
  *
  * Note that since this station is not storing its state anywhere else than in JVM memory, if Akka Cluster Sharding
  * rebalances it - moves it to another node because of cluster nodes added removed etc - it will lose all its state.
  * For a sharded entity to have state that survives being stopped and started again it needs to be persistent,
- * for example by being an EventSourcedBehavior.
+ * for example by being an EventSourcedBehavior, which is what {@link PersistentWeatherStation} is, it is used instead
+ * of this class when `killrweather.weather-station.persistent = on`.
+ *
+ * With `killrweather.weather-station.spill.enabled = on` stations idle for a while are passivated and their compact
+ * state is kept off the heap in the {@link SpillStore} of the node, to be picked up again when the station is next
+ * started on the same node while its shard stayed there.
  */
 final class WeatherStation extends AbstractBehavior<WeatherStation.Command> {
 
@@ -39,9 +47,29 @@ final class WeatherStation extends AbstractBehavior<WeatherStation.Command> {
     EntityTypeKey.create(WeatherStation.Command.class, "WeatherStation");
 
   public static void initSharding(ActorSystem<?> system) {
-    ClusterSharding.get(system).init(Entity.of(TypeKey, entityContext ->
-      WeatherStation.create(entityContext.getEntityId())
-    ));
+    WeatherStationSettings settings = WeatherStationSettings.create(system);
+    ShardLoad shardLoad = ShardLoad.Id.get(system);
+    ClusterSharding.get(system).init(Entity.of(TypeKey, entityContext -> {
+      if (settings.persistent)
+        return PersistentWeatherStation.create(
+            entityContext.getEntityId(),
+            PersistenceId.of(entityContext.getEntityTypeKey().name(), entityContext.getEntityId()),
+            settings);
+      else
+        return WeatherStation.create(entityContext.getEntityId(), settings);
+    }).withAllocationStrategy(new LoadAwareAllocationStrategy(
+        shardLoad::rates, shardLoad.rebalanceThreshold, shardLoad.maxSimultaneousRebalance))
+        .withSettings(spilling(system, settings)));
+  }
+
+  private static ClusterShardingSettings spilling(ActorSystem<?> system, WeatherStationSettings settings) {
+    ClusterShardingSettings shardingSettings = ClusterShardingSettings.create(system);
+    if (settings.spill && !settings.persistent)
+      // the state is kept when passivated, so idle stations can be passivated sooner than by default
+      return shardingSettings.withPassivationStrategy(
+          shardingSettings.passivationStrategySettings().withIdleEntityPassivation(settings.spillIdleTimeout));
+    else
+      return shardingSettings;
   }
 
   // actor commands and responses
@@ -57,30 +85,117 @@ final class WeatherStation extends AbstractBehavior<WeatherStation.Command> {
       this.replyTo = replyTo;
     }
   }
+  /**
+   * Record an observation of several data types made at the same time with a single message, rather than one
+   * `Record` per data type
+   */
+  public static final class RecordObservation implements Command {
+    public final Observation observation;
+    public final long processingTimestamp;
+    public final ActorRef<DataRecorded> replyTo;
+    public RecordObservation(Observation observation, long processingTimestamp, ActorRef<DataRecorded> replyTo) {
+      this.observation = observation;
+      this.processingTimestamp = processingTimestamp;
+      this.replyTo = replyTo;
+    }
+  }
+  /**
+   * Record many data points with a single message, acknowledged with a single `DataRecorded` for all of them
+   */
+  public static final class RecordBatch implements Command {
+    public final List<Data> data;
+    public final long processingTimestamp;
+    public final ActorRef<DataRecorded> replyTo;
+    public RecordBatch(List<Data> data, long processingTimestamp, ActorRef<DataRecorded> replyTo) {
+      this.data = data;
+      this.processingTimestamp = processingTimestamp;
+      this.replyTo = replyTo;
+    }
+  }
   public static final class DataRecorded implements CborSerializable {
+    public static final long UNKNOWN_VERSION = -1L;
+
     public final String wsid;
+    /**
+     * version of the station state after recording, see {@link QueryResult#version}, or `UNKNOWN_VERSION`
+     */
+    public final long version;
     @JsonCreator
-    public DataRecorded(String wsid) {
+    public DataRecorded(String wsid, long version) {
       this.wsid = wsid;
+      this.version = version;
     }
 
     @Override
     public String toString() {
       return "DataRecorded{" +
           "wsid='" + wsid + '\'' +
+          ", version=" + version +
           '}';
     }
   }
 
+  /**
+   * Query over all recorded readings of a data type, or if a window size or time range is given, over the readings
+   * in the time range `[from, to)` split up in tumbling windows, aligned to multiples of the window size since epoch.
+   * A window size of 0 returns a single window covering the time range.
+   *
+   * `Percentile` and `TopK` are always answered over all recorded readings, ignoring window size and time range.
+   */
   public static final class Query implements Command {
+    public static final long NO_WINDOW = 0L;
+    public static final long OPEN_START = Long.MIN_VALUE;
+    public static final long OPEN_END = Long.MAX_VALUE;
+    public static final double DEFAULT_PERCENTILE = 50;
+    public static final int DEFAULT_TOP_K = 10;
+
     public final DataType dataType;
     public final Function func;
+    /**
+     * size of each window in milliseconds, 0 for no windows
+     */
+    public final long windowSize;
+    /**
+     * start of the time range, unix timestamp, inclusive
+     */
+    public final long from;
+    /**
+     * end of the time range, unix timestamp, exclusive
+     */
+    public final long to;
+    /**
+     * the percentile, between 0 and 100, to return for `Percentile`
+     */
+    public final double percentile;
+    /**
+     * how many of the highest values to return for `TopK`
+     */
+    public final int topK;
     public final ActorRef<QueryResult> replyTo;
     public Query(DataType dataType, Function func, ActorRef<QueryResult> replyTo) {
+      this(dataType, func, NO_WINDOW, OPEN_START, OPEN_END, replyTo);
+    }
+    public Query(DataType dataType, Function func, long windowSize, long from, long to, ActorRef<QueryResult> replyTo) {
+      this(dataType, func, windowSize, from, to, DEFAULT_PERCENTILE, DEFAULT_TOP_K, replyTo);
+    }
+    @JsonCreator
+    public Query(DataType dataType, Function func, long windowSize, long from, long to, double percentile, int topK, ActorRef<QueryResult> replyTo) {
+      if (windowSize < 0) throw new IllegalArgumentException("windowSize must not be negative, was " + windowSize);
+      if (percentile < 0 || percentile > 100) throw new IllegalArgumentException("percentile must be between 0 and 100, was " + percentile);
+      if (topK < 1) throw new IllegalArgumentException("topK must be positive, was " + topK);
       this.dataType = dataType;
       this.func = func;
+      this.windowSize = windowSize;
+      this.from = from;
+      this.to = to;
+      this.percentile = percentile;
+      this.topK = topK;
       this.replyTo = replyTo;
     }
+
+    boolean isWindowed() {
+      return windowSize != NO_WINDOW || from != OPEN_START || to != OPEN_END;
+    }
   }
   public static final class QueryResult implements CborSerializable {
     public final String wsid;
@@ -88,13 +203,121 @@ final class WeatherStation extends AbstractBehavior<WeatherStation.Command> {
     public final WeatherStation.Function function;
     public final int readings;
     public final List<TimeWindow> value;
+    /**
+     * version of the station state the result was computed from, changes with every recorded reading
+     * so that results cached outside the station can be invalidated
+     */
+    public final long version;
     @JsonCreator
-    public QueryResult(String wsid, WeatherStation.DataType dataType, WeatherStation.Function function, int readings, List<TimeWindow> value) {
+    public QueryResult(String wsid, WeatherStation.DataType dataType, WeatherStation.Function function, int readings, List<TimeWindow> value, long version) {
       this.wsid = wsid;
       this.dataType = dataType;
       this.function = function;
       this.readings = readings;
       this.value = value;
+      this.version = version;
+    }
+  }
+
+  /**
+   * Sent to itself by the station to drop data older than the configured retention
+   */
+  enum Compact implements Command {
+    INSTANCE
+  }
+
+  /**
+   * Sent to itself by the station at the end of each flush interval with readings recorded in it, see {@link RegionFeed}
+   */
+  enum FlushRegion implements Command {
+    INSTANCE
+  }
+
+  /**
+   * Subscribe to live updates of the station, see {@link Subscribers}
+   */
+  public static final class Subscribe implements Command {
+    public final ActorRef<Published> subscriber;
+    public Subscribe(ActorRef<Published> subscriber) {
+      this.subscriber = subscriber;
+    }
+  }
+
+  /**
+   * Sent to itself by the station at the end of each publish interval with readings recorded in it
+   */
+  enum Publish implements Command {
+    INSTANCE
+  }
+
+  static final class SubscriberTerminated implements Command {
+    final ActorRef<Published> subscriber;
+    SubscriberTerminated(ActorRef<Published> subscriber) {
+      this.subscriber = subscriber;
+    }
+  }
+
+  /**
+   * Pushed to subscribers
+   */
+  interface Published extends CborSerializable {}
+
+  /**
+   * The summaries of all data types with readings, published at most once per publish interval
+   */
+  public static final class Update implements Published {
+    public final String wsid;
+    public final long version;
+    public final List<Summary> summaries;
+    @JsonCreator
+    public Update(String wsid, long version, List<Summary> summaries) {
+      this.wsid = wsid;
+      this.version = version;
+      this.summaries = summaries;
+    }
+  }
+
+  /**
+   * The station stopped, subscribe again to keep getting updates
+   */
+  enum SubscriptionEnded implements Published {
+    INSTANCE
+  }
+
+  /**
+   * Ask for the running aggregate of a data type, used to combine the aggregates of many stations
+   */
+  public static final class GetSummary implements Command {
+    public final DataType dataType;
+    public final ActorRef<Summary> replyTo;
+    public GetSummary(DataType dataType, ActorRef<Summary> replyTo) {
+      this.dataType = dataType;
+      this.replyTo = replyTo;
+    }
+  }
+  /**
+   * Count, sum, min, max and latest value over all readings of a data type for one station,
+   * min, max and current are only meaningful if count is larger than 0
+   */
+  public static final class Summary implements CborSerializable {
+    public final String wsid;
+    public final DataType dataType;
+    public final long count;
+    public final double sum;
+    public final double min;
+    public final double max;
+    public final double current;
+    public final long currentTime;
+    @JsonCreator
+    public Summary(String wsid, DataType dataType, long count, double sum, double min, double max, double current, long currentTime) {
+      this.wsid = wsid;
+      this.dataType = dataType;
+      this.count = count;
+      this.sum = sum;
+      this.min = min;
+      this.max = max;
+      this.current = current;
+      this.currentTime = currentTime;
     }
   }
 
@@ -109,7 +332,11 @@ final class WeatherStation extends AbstractBehavior<WeatherStation.Command> {
     @JsonProperty("average")
     Average,
     @JsonProperty("current")
-    Current
+    Current,
+    @JsonProperty("percentile")
+    Percentile,
+    @JsonProperty("topk")
+    TopK
   }
   enum DataType {
     @JsonProperty("temperature")
@@ -139,10 +366,39 @@ final class WeatherStation extends AbstractBehavior<WeatherStation.Command> {
     }
   }
 
-  public final class TimeWindow {
+  /**
+   * Values of several data types measured at the same time
+   */
+  public static final class Observation {
+    /**
+     * unix timestamp when collected
+     */
+    public final long eventTime;
+    public final List<Measurement> values;
+
+    @JsonCreator
+    public Observation(long eventTime, List<Measurement> values) {
+      this.eventTime = eventTime;
+      this.values = values;
+    }
+  }
+
+  public static final class Measurement {
+    public final DataType dataType;
+    public final double value;
+
+    @JsonCreator
+    public Measurement(DataType dataType, double value) {
+      this.dataType = dataType;
+      this.value = value;
+    }
+  }
+
+  public static final class TimeWindow {
     public final long start;
     public final long end;
     public final double value;
+    @JsonCreator
     public TimeWindow(long start, long end, double value) {
       this.start = start;
       this.end = end;
@@ -150,88 +406,169 @@ final class WeatherStation extends AbstractBehavior<WeatherStation.Command> {
     }
   }
 
-  public static Behavior<Command> create(String wsid) {
+  public static Behavior<Command> create(String wsid, WeatherStationSettings settings) {
     return Behaviors.setup(context ->
-        new WeatherStation(context, wsid)
+        Behaviors.withTimers(timers -> {
+          timers.startTimerWithFixedDelay(Compact.INSTANCE, settings.compactionInterval);
+          return new WeatherStation(context, timers, wsid, settings);
+        })
     );
   }
 
-  private static double average(List<Double> values) {
-    return values.stream().mapToDouble(i -> i).average().getAsDouble();
-  }
-
   private final String wsid;
-  private final List<Data> values = new ArrayList<>();
+  private final StationState state;
+  private final Subscribers subscribers;
+  private final RegionFeed<Command> regionFeed;
+  private final StationMeter meter;
+  // null unless spilling is enabled
+  private final SpillStore spillStore;
+  private final int shardIncarnation;
 
-  public WeatherStation(ActorContext<Command> context, String wsid) {
+  public WeatherStation(ActorContext<Command> context, TimerScheduler<Command> timers, String wsid, WeatherStationSettings settings) {
     super(context);
     this.wsid = wsid;
+    this.spillStore = settings.spill ? SpillStore.Id.get(context.getSystem()) : null;
+    this.shardIncarnation = shardIncarnation(context);
+    this.state = initialState(context, wsid, settings, spillStore, shardIncarnation);
+    this.subscribers = new Subscribers(context, timers, wsid, settings.publishInterval);
+    this.regionFeed = regionFeed(context, timers, wsid, settings);
+    this.meter = new StationMeter(context.getSystem(), wsid);
+  }
+
+  /**
+   * @return the uid of the shard actor the station runs in, a shard handed off and allocated to this node again
+   *         runs in a new actor with another uid
+   */
+  private static int shardIncarnation(ActorContext<Command> context) {
+    return Adapter.toClassic(context).parent().path().uid();
+  }
+
+  private static StationState initialState(ActorContext<Command> context, String wsid, WeatherStationSettings settings, SpillStore spillStore, int shardIncarnation) {
+    Map<DataType, RawReadings> values = RawReadings.open(context.getSystem(), settings, wsid);
+    StationSnapshot spilled = spillStore == null ? null : spillStore.take(wsid, shardIncarnation);
+    if (spilled == null) return new StationState(settings, values);
+    context.getLog().debug("Restored spilled state of station {} with {} total readings", wsid, spilled.totalReadings);
+    return StationState.fromSnapshot(settings, spilled, values);
+  }
+
+  static RegionFeed<Command> regionFeed(ActorContext<Command> context, TimerScheduler<Command> timers, String wsid, WeatherStationSettings settings) {
+    return new RegionFeed<>(
+        timers,
+        FlushRegion.INSTANCE,
+        settings.regionFlushInterval,
+        ClusterSharding.get(context.getSystem()).entityRefFor(
+            WeatherRegion.TypeKey, WeatherRegion.regionOf(wsid, settings.stationsPerRegion)),
+        wsid);
   }
 
   @Override
   public Receive<Command> createReceive() {
     return newReceiveBuilder()
         .onMessage(Record.class, this::onRecord)
+        .onMessage(RecordObservation.class, this::onRecordObservation)
+        .onMessage(RecordBatch.class, this::onRecordBatch)
         .onMessage(Query.class, this::onQuery)
+        .onMessage(GetSummary.class, this::onGetSummary)
+        .onMessage(Compact.class, this::onCompact)
+        .onMessage(Subscribe.class, this::onSubscribe)
+        .onMessage(SubscriberTerminated.class, this::onSubscriberTerminated)
+        .onMessageEquals(Publish.INSTANCE, this::onPublish)
+        .onMessageEquals(FlushRegion.INSTANCE, this::onFlushRegion)
         .onSignalEquals(PostStop.instance(), this::postStop)
         .build();
   }
 
   private Behavior<Command> onRecord(Record record) {
-    values.add(record.data);
+    record(record.data.eventTime, record.data.dataType, record.data.value, record.processingTimestamp);
+    recorded(record.replyTo);
+    return this;
+  }
+
+  private Behavior<Command> onRecordObservation(RecordObservation record) {
+    Observation observation = record.observation;
+    for (Measurement measurement : observation.values) {
+      record(observation.eventTime, measurement.dataType, measurement.value, record.processingTimestamp);
+    }
+    recorded(record.replyTo);
+    return this;
+  }
+
+  private Behavior<Command> onRecordBatch(RecordBatch batch) {
+    for (Data data : batch.data) {
+      record(data.eventTime, data.dataType, data.value, batch.processingTimestamp);
+    }
+    recorded(batch.replyTo);
+    return this;
+  }
+
+  // every reading is recorded here, however it was sent
+  private void record(long eventTime, DataType dataType, double value, long processingTimestamp) {
+    state.record(eventTime, dataType, value);
+    regionFeed.add(dataType, value);
+    meter.recorded(eventTime, processingTimestamp);
     if (getContext().getLog().isDebugEnabled()) {
-      List<Double> dataForSameType = values.stream()
-          .filter(d -> d.dataType == record.data.dataType)
-          .map(d -> d.value)
-          .collect(Collectors.toList());
-      double averageForSameType = average(dataForSameType);
       getContext().getLog().debug("{} total readings from station {}, type {}, average {}, diff: processingTime - eventTime: {} ms",
-          values.size(),
+          state.totalReadings(),
           wsid,
-          record.data.dataType,
-          averageForSameType,
-          record.processingTimestamp - record.data.eventTime
+          dataType,
+          state.aggregate(dataType).average(),
+          processingTimestamp - eventTime
       );
     }
-    record.replyTo.tell(new DataRecorded(wsid));
-    return this;
+  }
+
+  // once per message, however many readings it had
+  private void recorded(ActorRef<DataRecorded> replyTo) {
+    replyTo.tell(new DataRecorded(wsid, state.version()));
+    subscribers.recorded();
   }
 
   private Behavior<Command> onQuery(Query query) {
-    List<Data> dataForType = values.stream().filter(d -> d.dataType == query.dataType).collect(Collectors.toList());
-    final List<TimeWindow> queryResult;
-    if (dataForType.isEmpty()) {
-      queryResult = Collections.emptyList();
-    } else {
-      switch (query.func) {
-        case Average:
-          long start = dataForType.stream().findFirst().map(d -> d.eventTime).orElse(0L);
-          long end = dataForType.isEmpty() ? 0 : dataForType.get(dataForType.size() - 1).eventTime;
-          List<Double> valuesForType = dataForType.stream().map(d -> d.value).collect(Collectors.toList());
-          queryResult = Collections.singletonList(new TimeWindow(start, end, average(valuesForType)));
-          break;
-        case HighLow:
-          Data min = dataForType.stream().reduce((a, b) -> a.value < b.value ? a : b).get();
-          Data max = dataForType.stream().reduce((a, b) -> a.value > b.value ? a : b).get();
-          queryResult = Arrays.asList(
-              new TimeWindow(min.eventTime, max.eventTime, min.value),
-              new TimeWindow(min.eventTime, max.eventTime, max.value));
-          break;
-        case Current:
-          // we know it is not empty from up above
-          Data current = dataForType.get(dataForType.size() - 1);
-          queryResult = Collections.singletonList(new TimeWindow(current.eventTime, current.eventTime, current.value));
-          break;
-        default:
-          throw new IllegalArgumentException("Unknown operation " + query.func);
-      }
-    }
-    query.replyTo.tell(new QueryResult(wsid, query.dataType, query.func, dataForType.size(), queryResult));
+    query.replyTo.tell(state.query(wsid, query));
+    return this;
+  }
+
+  private Behavior<Command> onGetSummary(GetSummary getSummary) {
+    getSummary.replyTo.tell(state.summary(wsid, getSummary.dataType));
+    return this;
+  }
+
+  private Behavior<Command> onCompact(Compact compact) {
+    state.compact();
+    return this;
+  }
+
+  private Behavior<Command> onSubscribe(Subscribe subscribe) {
+    subscribers.subscribe(subscribe.subscriber, state);
+    return this;
+  }
+
+  private Behavior<Command> onSubscriberTerminated(SubscriberTerminated terminated) {
+    subscribers.terminated(terminated.subscriber);
+    return this;
+  }
+
+  private Behavior<Command> onPublish() {
+    subscribers.publish(state);
+    return this;
+  }
+
+  private Behavior<Command> onFlushRegion() {
+    regionFeed.flush();
     return this;
   }
 
   private Behavior<Command> postStop() {
-    getContext().getLog().info("Stopping, losing all recorded state for station {}", wsid);
+    if (spillStore == null) {
+      getContext().getLog().info("Stopping, losing all recorded state for station {}", wsid);
+    } else {
+      spillStore.spill(wsid, shardIncarnation, state.toSnapshot());
+      getContext().getLog().debug("Stopping, spilled state of station {}, {} stations in {} bytes spilled on this node",
+          wsid, spillStore.size(), spillStore.bytes());
+    }
+    regionFeed.flush();
+    subscribers.stopped();
+    state.close();
     return this;
   }
 
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2009-2024 Lightbend Inc. <https://www.lightbend.com>
+ */
+package sample.killrweather;
+
+import akka.actor.typed.ActorSystem;
+import com.typesafe.config.Config;
+
+import java.time.Duration;
+
+public final class WeatherStationSettings {
+  public final int maxReadingsPerDataType;
+  public final Duration bucketSize;
+  public final int maxBucketsPerDataType;
+  public final boolean persistent;
+  public final int snapshotEvery;
+  public final double percentileRelativeAccuracy;
+  public final int percentileMaxBins;
+  public final int topKMax;
+  public final boolean segmentStore;
+  public final Duration rawRetention;
+  public final Duration fineBucketSize;
+  public final Duration fineBucketRetention;
+  public final Duration compactionInterval;
+  public final Duration allowedLateness;
+  public final Duration publishInterval;
+  public final int stationsPerRegion;
+  public final Duration regionFlushInterval;
+  public final boolean spill;
+  public final Duration spillIdleTimeout;
+
+  public WeatherStationSettings(
+      int maxReadingsPerDataType,
+      Duration bucketSize,
+      int maxBucketsPerDataType,
+      boolean persistent,
+      int snapshotEvery,
+      double percentileRelativeAccuracy,
+      int percentileMaxBins,
+      int topKMax,
+      boolean segmentStore,
+      Duration rawRetention,
+      Duration fineBucketSize,
+      Duration fineBucketRetention,
+      Duration compactionInterval,
+      Duration allowedLateness,
+      Duration publishInterval,
+      int stationsPerRegion,
+      Duration regionFlushInterval,
+      boolean spill,
+      Duration spillIdleTimeout) {
+    this.maxReadingsPerDataType = maxReadingsPerDataType;
+    this.bucketSize = bucketSize;
+    this.maxBucketsPerDataType = maxBucketsPerDataType;
+    this.persistent = persistent;
+    this.snapshotEvery = snapshotEvery;
+    this.percentileRelativeAccuracy = percentileRelativeAccuracy;
+    this.percentileMaxBins = percentileMaxBins;
+    this.topKMax = topKMax;
+    this.segmentStore = segmentStore;
+    this.rawRetention = rawRetention;
+    this.fineBucketSize = fineBucketSize;
+    this.fineBucketRetention = fineBucketRetention;
+    this.compactionInterval = compactionInterval;
+    this.allowedLateness = allowedLateness;
+    this.publishInterval = publishInterval;
+    this.stationsPerRegion = stationsPerRegion;
+    this.regionFlushInterval = regionFlushInterval;
+    this.spill = spill;
+    this.spillIdleTimeout = spillIdleTimeout;
+  }
+
+  public static WeatherStationSettings create(ActorSystem<?> system) {
+    return create(system.settings().config().getConfig("killrweather.weather-station"));
+  }
+
+  public static WeatherStationSettings create(Config config) {
+    return new WeatherStationSettings(
+        config.getInt("max-readings-per-data-type"),
+        config.getDuration("bucket-size"),
+        config.getInt("max-buckets-per-data-type"),
+        config.getBoolean("persistent"),
+        config.getInt("snapshot-every"),
+        config.getDouble("percentile.relative-accuracy"),
+        config.getInt("percentile.max-bins"),
+        config.getInt("top-k.max"),
+        config.getBoolean("segment-store.enabled"),
+        config.getDuration("retention.raw"),
+        config.getDuration("retention.fine-bucket-size"),
+        config.getDuration("retention.fine-buckets"),
+        config.getDuration("retention.compaction-interval"),
+        config.getDuration("allowed-lateness"),
+        config.getDuration("publish-interval"),
+        config.getInt("region.stations-per-region"),
+        config.getDuration("region.flush-interval"),
+        config.getBoolean("spill.enabled"),
+        config.getDuration("spill.idle-timeout")
+    );
+  }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2009-2024 Lightbend Inc. <https://www.lightbend.com>
+ */
+package sample.killrweather;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Combines pre-aggregated buckets or single readings, fed in time order, into tumbling windows of a given size
+ * aligned to multiples of the window size since epoch, and computes the query function for each window.
+ *
+ * A window size of 0 means everything fed is combined into a single window.
+ */
+final class WindowAccumulator {
+
+  private final WeatherStation.Function function;
+  private final long windowSize;
+  private final long notBefore;
+  private final List<WeatherStation.TimeWindow> windows = new ArrayList<>();
+
+  private long readings = 0;
+
+  // the currently open window
+  private boolean open = false;
+  private long windowStart;
+  private long firstTime;
+  private long count;
+  private double sum;
+  private double min;
+  private double max;
+  private long lastTime;
+  private double last;
+
+  WindowAccumulator(WeatherStation.Function function, long windowSize) {
+    this(function, windowSize, Long.MIN_VALUE);
+  }
+
+  /**
+   * @param notBefore the earliest event time of anything fed, a bucket may start before its first reading so the
+   *                  single window of a window size of 0 is made to start no earlier than this
+   */
+  WindowAccumulator(WeatherStation.Function function, long windowSize, long notBefore) {
+    this.function = function;
+    this.windowSize = windowSize;
+    this.notBefore = notBefore;
+  }
+
+  /**
+   * @param time the event time of a single reading or the start of a bucket
+   */
+  void add(long time, long count, double sum, double min, double max, long lastTime, double last) {
+    long start = windowSize == 0 ? 0 : Math.floorDiv(time, windowSize) * windowSize;
+    if (open && start != windowStart) closeWindow();
+    if (!open) {
+      open = true;
+      windowStart = start;
+      firstTime = time;
+      this.count = 0;
+      this.sum = 0;
+      this.min = Double.POSITIVE_INFINITY;
+      this.max = Double.NEGATIVE_INFINITY;
+      this.lastTime = Long.MIN_VALUE;
+    }
+    this.count += count;
+    this.sum += sum;
+    if (min < this.min) this.min = min;
+    if (max > this.max) this.max = max;
+    if (lastTime >= this.lastTime) {
+      this.lastTime = lastTime;
+      this.last = last;
+    }
+    readings += count;
+  }
+
+  long readings() {
+    return readings;
+  }
+
+  List<WeatherStation.TimeWindow> result() {
+    if (open) closeWindow();
+    return windows;
+  }
+
+  private void closeWindow() {
+    open = false;
+    final long start;
+    final long end;
+    if (windowSize == 0) {
+      start = Math.max(firstTime, notBefore);
+      end = lastTime;
+    } else {
+      start = windowStart;
+      end = windowStart + windowSize;
+    }
+    switch (function) {
+      case Average:
+        windows.add(new WeatherStation.TimeWindow(start, end, sum / count));
+        break;
+      case HighLow:
+        windows.add(new WeatherStation.TimeWindow(start, end, min));
+        windows.add(new WeatherStation.TimeWindow(start, end, max));
+        break;
+      case Current:
+        windows.add(new WeatherStation.TimeWindow(lastTime, lastTime, last));
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown operation " + function);
+    }
+  }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2009-2024 Lightbend Inc. <https://www.lightbend.com>
+ */
+package sample.killrweather;
+
+import akka.actor.testkit.typed.javadsl.TestKitJunitResource;
+import akka.actor.typed.javadsl.Behaviors;
+import akka.cluster.sharding.typed.javadsl.ClusterSharding;
+import akka.cluster.sharding.typed.javadsl.Entity;
+import akka.cluster.sharding.typed.javadsl.EntityRef;
+import akka.cluster.sharding.typed.javadsl.EntityTypeKey;
+import com.typesafe.config.ConfigFactory;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class EntityRefCacheTest {
+
+  @ClassRule
+  public static final TestKitJunitResource testKit = new TestKitJunitResource(
+      ConfigFactory.parseString("akka.cluster.seed-nodes = []").withFallback(ConfigFactory.load()));
+
+  private static final EntityTypeKey<String> typeKey = EntityTypeKey.create(String.class, "EntityRefCacheTest");
+
+  @BeforeClass
+  public static void initSharding() {
+    // the refs are never sent to, the entities only have to be known
+    ClusterSharding.get(testKit.system()).init(Entity.of(typeKey, entityContext -> Behaviors.empty()));
+  }
+
+  private static EntityRefCache<String> cache(int size) {
+    return new EntityRefCache<>(ClusterSharding.get(testKit.system()), typeKey, size);
+  }
+
+  @Test
+  public void reuseTheRefOnAHit() {
+    EntityRefCache<String> cache = cache(4);
+    EntityRef<String> ref = cache.get(1);
+    assertEquals("1", ref.getEntityId());
+    assertSame(ref, cache.get(1));
+  }
+
+  @Test
+  public void replaceTheRefWhenIdsShareASlot() {
+    EntityRefCache<String> cache = cache(4);
+    // with 4 slots, 1 and 4 both end up in slot 1
+    EntityRef<String> first = cache.get(1);
+    EntityRef<String> second = cache.get(4);
+    assertEquals("4", second.getEntityId());
+    assertSame(second, cache.get(4));
+
+    // the slot was overwritten, so the ref for 1 is created again
+    EntityRef<String> again = cache.get(1);
+    assertNotSame(first, again);
+    assertEquals("1", again.getEntityId());
+  }
+
+  @Test
+  public void alwaysReturnTheRefOfTheIdAskedFor() {
+    // far more ids than slots, so that most lookups replace another id
+    EntityRefCache<String> cache = cache(3);
+    Random random = new Random(42);
+    for (int i = 0; i < 10000; i++) {
+      long id = random.nextInt(64) + (random.nextBoolean() ? 0 : (long) Integer.MAX_VALUE * random.nextInt(4));
+      assertEquals(Long.toString(id), cache.get(id).getEntityId());
+    }
+  }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2009-2024 Lightbend Inc. <https://www.lightbend.com>
+ */
+package sample.killrweather;
+
+import akka.actor.ExtendedActorSystem;
+import akka.actor.testkit.typed.javadsl.TestKitJunitResource;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.javadsl.Adapter;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class KillrWeatherSerializerTest {
+
+  @ClassRule
+  public static final TestKitJunitResource testKit = new TestKitJunitResource("akka.actor.provider = local");
+
+  private static final KillrWeatherSerializer serializer =
+      new KillrWeatherSerializer((ExtendedActorSystem) Adapter.toClassic(testKit.system()));
+
+  private static final double DELTA = 0.0;
+
+  @Test
+  public void roundTripRecord() throws Exception {
+    ActorRef<WeatherStation.DataRecorded> replyTo = testKit.<WeatherStation.DataRecorded>createTestProbe().getRef();
+    for (long eventTime : new long[] {0, -1, 1700000000000L, Long.MIN_VALUE, Long.MAX_VALUE}) {
+      WeatherStation.Record record = new WeatherStation.Record(
+          new WeatherStation.Data(eventTime, WeatherStation.DataType.Pressure, -12.5), -eventTime, replyTo);
+      for (Object copy : roundTrip(record)) {
+        WeatherStation.Record result = (WeatherStation.Record) copy;
+        assertData(record.data, result.data);
+        assertEquals(record.processingTimestamp, result.processingTimestamp);
+        assertEquals(replyTo, result.replyTo);
+      }
+    }
+  }
+
+  @Test
+  public void roundTripRecordObservation() throws Exception {
+    ActorRef<WeatherStation.DataRecorded> replyTo = testKit.<WeatherStation.DataRecorded>createTestProbe().getRef();
+    List<List<WeatherStation.Measurement>> valueLists = Arrays.asList(
+        Collections.emptyList(),
+        Arrays.asList(
+            new WeatherStation.Measurement(WeatherStation.DataType.Temperature, 21.5),
+            new WeatherStation.Measurement(WeatherStation.DataType.DewPoint, -3.25),
+            new WeatherStation.Measurement(WeatherStation.DataType.Pressure, Double.MAX_VALUE)));
+    for (List<WeatherStation.Measurement> values : valueLists) {
+      WeatherStation.RecordObservation record = new WeatherStation.RecordObservation(
+          new WeatherStation.Observation(Long.MIN_VALUE, values), Long.MAX_VALUE, replyTo);
+      for (Object copy : roundTrip(record)) {
+        WeatherStation.RecordObservation result = (WeatherStation.RecordObservation) copy;
+        assertEquals(record.observation.eventTime, result.observation.eventTime);
+        assertEquals(values.size(), result.observation.values.size());
+        for (int i = 0; i < values.size(); i++) {
+          assertEquals(values.get(i).dataType, result.observation.values.get(i).dataType);
+          assertEquals(values.get(i).value, result.observation.values.get(i).value, DELTA);
+        }
+        assertEquals(record.processingTimestamp, result.processingTimestamp);
+        assertEquals(replyTo, result.replyTo);
+      }
+    }
+  }
+
+  @Test
+  public void roundTripRecordBatch() throws Exception {
+    ActorRef<WeatherStation.DataRecorded> replyTo = testKit.<WeatherStation.DataRecorded>createTestProbe().getRef();
+    // event times going back and forth, with differences that overflow a long
+    List<List<WeatherStation.Data>> batches = Arrays.asList(
+        Collections.emptyList(),
+        Arrays.asList(
+            new WeatherStation.Data(1700000000000L, WeatherStation.DataType.Temperature, 1.0),
+            new WeatherStation.Data(1700000001000L, WeatherStation.DataType.Temperature, 2.0),
+            new WeatherStation.Data(1699999999000L, WeatherStation.DataType.DewPoint, 3.0),
+            new WeatherStation.Data(-1, WeatherStation.DataType.Pressure, 4.0),
+            new WeatherStation.Data(Long.MIN_VALUE, WeatherStation.DataType.Pressure, 5.0),
+            new WeatherStation.Data(Long.MAX_VALUE, WeatherStation.DataType.Pressure, 6.0),
+            new WeatherStation.Data(Long.MIN_VALUE, WeatherStation.DataType.Temperature, -7.0)));
+    for (List<WeatherStation.Data> data : batches) {
+      WeatherStation.RecordBatch batch = new WeatherStation.RecordBatch(data, 1700000002000L, replyTo);
+      for (Object copy : roundTrip(batch)) {
+        WeatherStation.RecordBatch result = (WeatherStation.RecordBatch) copy;
+        assertEquals(data.size(), result.data.size());
+        for (int i = 0; i < data.size(); i++) {
+          assertData(data.get(i), result.data.get(i));
+        }
+        assertEquals(batch.processingTimestamp, result.processingTimestamp);
+        assertEquals(replyTo, result.replyTo);
+      }
+    }
+  }
+
+  @Test
+  public void roundTripDataRecorded() throws Exception {
+    for (WeatherStation.DataRecorded recorded : Arrays.asList(
+        new WeatherStation.DataRecorded("", 0),
+        new WeatherStation.DataRecorded("3", 17),
+        new WeatherStation.DataRecorded("station-\u00c5\u00c4\u00d6-\u6c17\u8c61", Long.MAX_VALUE))) {
+      for (Object copy : roundTrip(recorded)) {
+        WeatherStation.DataRecorded result = (WeatherStation.DataRecorded) copy;
+        assertEquals(recorded.wsid, result.wsid);
+        assertEquals(recorded.version, result.version);
+      }
+    }
+  }
+
+  @Test
+  public void roundTripQuery() throws Exception {
+    ActorRef<WeatherStation.QueryResult> replyTo = testKit.<WeatherStation.QueryResult>createTestProbe().getRef();
+    for (WeatherStation.Query query : Arrays.asList(
+        new WeatherStation.Query(WeatherStation.DataType.Temperature, WeatherStation.Function.Average, replyTo),
+        new WeatherStation.Query(WeatherStation.DataType.DewPoint, WeatherStation.Function.HighLow, 3600000, -86400000, 1700000000000L, replyTo),
+        new WeatherStation.Query(WeatherStation.DataType.Pressure, WeatherStation.Function.Percentile, 0,
+            WeatherStation.Query.OPEN_START, WeatherStation.Query.OPEN_END, 99.9, 1, replyTo),
+        new WeatherStation.Query(WeatherStation.DataType.Pressure, WeatherStation.Function.TopK, Long.MAX_VALUE,
+            Long.MIN_VALUE, Long.MIN_VALUE, 0, Integer.MAX_VALUE, replyTo))) {
+      for (Object copy : roundTrip(query)) {
+        WeatherStation.Query result = (WeatherStation.Query) copy;
+        assertEquals(query.dataType, result.dataType);
+        assertEquals(query.func, result.func);
+        assertEquals(query.windowSize, result.windowSize);
+        assertEquals(query.from, result.from);
+        assertEquals(query.to, result.to);
+        assertEquals(query.percentile, result.percentile, DELTA);
+        assertEquals(query.topK, result.topK);
+        assertEquals(replyTo, result.replyTo);
+      }
+    }
+  }
+
+  @Test
+  public void roundTripQueryResult() throws Exception {
+    List<WeatherStation.TimeWindow> windows = new ArrayList<>();
+    windows.add(new WeatherStation.TimeWindow(WeatherStation.Query.OPEN_START, WeatherStation.Query.OPEN_END, 1.5));
+    windows.add(new WeatherStation.TimeWindow(-3600000, 0, -0.5));
+    for (long start = 1700000000000L; start < 1700000000000L + 100 * 3600000L; start += 3600000) {
+      windows.add(new WeatherStation.TimeWindow(start, start + 3600000, start / 1e12));
+    }
+    for (WeatherStation.QueryResult queryResult : Arrays.asList(
+        new WeatherStation.QueryResult("1", WeatherStation.DataType.Temperature, WeatherStation.Function.Current, 0, Collections.emptyList(), 0),
+        new WeatherStation.QueryResult("2", WeatherStation.DataType.Pressure, WeatherStation.Function.HighLow, Integer.MAX_VALUE, windows, Long.MAX_VALUE))) {
+      for (Object copy : roundTrip(queryResult)) {
+        WeatherStation.QueryResult result = (WeatherStation.QueryResult) copy;
+        assertEquals(queryResult.wsid, result.wsid);
+        assertEquals(queryResult.dataType, result.dataType);
+        assertEquals(queryResult.function, result.function);
+        assertEquals(queryResult.readings, result.readings);
+        assertEquals(queryResult.value.size(), result.value.size());
+        for (int i = 0; i < queryResult.value.size(); i++) {
+          assertEquals(queryResult.value.get(i).start, result.value.get(i).start);
+          assertEquals(queryResult.value.get(i).end, result.value.get(i).end);
+          assertEquals(queryResult.value.get(i).value, result.value.get(i).value, DELTA);
+        }
+        assertEquals(queryResult.version, result.version);
+      }
+    }
+  }
+
+  @Test
+  public void roundTripVarLongs() {
+    ByteBuffer buffer = ByteBuffer.allocate(10);
+    for (long value : new long[] {0, 1, -1, 63, -64, 64, -65, Integer.MAX_VALUE, Integer.MIN_VALUE, Long.MAX_VALUE, Long.MIN_VALUE}) {
+      buffer.clear();
+      KillrWeatherSerializer.putVarLong(buffer, value);
+      buffer.flip();
+      assertEquals(value, KillrWeatherSerializer.getVarLong(buffer));
+      assertEquals(0, buffer.remaining());
+    }
+  }
+
+  /**
+   * @return copies of the message through toBinary(Object) and toBinary(Object, ByteBuffer) into both a heap and a
+   *         direct buffer, each read back in the same way it was written
+   */
+  private static List<Object> roundTrip(Object message) throws Exception {
+    String manifest = serializer.manifest(message);
+    List<Object> copies = new ArrayList<>();
+    copies.add(serializer.fromBinary(serializer.toBinary(message), manifest));
+    for (ByteBuffer buffer : Arrays.asList(ByteBuffer.allocate(8192), ByteBuffer.allocateDirect(8192))) {
+      // not at the start of the buffer, as when written after other messages
+      buffer.position(3);
+      serializer.toBinary(message, buffer);
+      buffer.flip();
+      buffer.position(3);
+      copies.add(serializer.fromBinary(buffer, manifest));
+      assertEquals("whole message read from " + buffer, 0, buffer.remaining());
+    }
+    return copies;
+  }
+
+  private static void assertData(WeatherStation.Data expected, WeatherStation.Data actual) {
+    assertEquals(expected.eventTime, actual.eventTime);
+    assertEquals(expected.dataType, actual.dataType);
+    assertEquals(expected.value, actual.value, DELTA);
+  }
+}
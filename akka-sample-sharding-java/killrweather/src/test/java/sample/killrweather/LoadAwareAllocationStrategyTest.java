@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2009-2024 Lightbend Inc. <https://www.lightbend.com>
+ */
+package sample.killrweather;
+
+import akka.actor.ActorRef;
+import akka.actor.testkit.typed.javadsl.TestKitJunitResource;
+import akka.actor.typed.javadsl.Adapter;
+import org.junit.ClassRule;
+import org.junit.Test;
+import scala.collection.immutable.IndexedSeq;
+import scala.concurrent.Await;
+import scala.concurrent.Future;
+import scala.concurrent.duration.Duration;
+import scala.jdk.javaapi.CollectionConverters;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LoadAwareAllocationStrategyTest {
+
+  @ClassRule
+  public static final TestKitJunitResource testKit = new TestKitJunitResource("akka.actor.provider = local");
+
+  private static final double THRESHOLD = 0.2;
+
+  @Test
+  public void evenOutSkewedLoad() throws Exception {
+    // 10 hot shards among 100, all hot shards on the first node, the shard counts are already balanced
+    Map<String, Double> rates = new HashMap<>();
+    for (int shard = 0; shard < 100; shard++) {
+      rates.put(Integer.toString(shard), shard < 10 ? 100.0 : 1.0);
+    }
+    Map<ActorRef, List<String>> allocations = regions(3);
+    List<List<String>> shards = new ArrayList<>(allocations.values());
+    for (int shard = 0; shard < 100; shard++) {
+      shards.get(shard < 33 ? 0 : shard < 66 ? 1 : 2).add(Integer.toString(shard));
+    }
+    LoadAwareAllocationStrategy strategy = new LoadAwareAllocationStrategy(() -> rates, THRESHOLD, 3);
+    double average = 1090.0 / 3;
+    assertTrue(maxLoad(allocations, rates) > 2.5 * average);
+
+    rebalanceUntilStable(strategy, allocations);
+
+    double max = maxLoad(allocations, rates);
+    double min = minLoad(allocations, rates);
+    assertTrue("most loaded node " + max + " should be close to the average " + average, max <= (1 + THRESHOLD) * average);
+    assertTrue("nodes should differ by at most the threshold, was " + (max - min), max - min <= THRESHOLD * average);
+  }
+
+  @Test
+  public void balanceShardCountsWithoutRates() throws Exception {
+    LoadAwareAllocationStrategy strategy = new LoadAwareAllocationStrategy(Collections::emptyMap, THRESHOLD, 3);
+    Map<ActorRef, List<String>> allocations = regions(3);
+    for (int shard = 0; shard < 100; shard++) {
+      ActorRef region = result(strategy.allocateShard(null, Integer.toString(shard), toScala(allocations)));
+      allocations.get(region).add(Integer.toString(shard));
+    }
+    for (List<String> shards : allocations.values()) {
+      assertTrue(shards.size() == 33 || shards.size() == 34);
+    }
+
+    // a node joins
+    allocations.putAll(regions(1));
+    rebalanceUntilStable(strategy, allocations);
+    for (List<String> shards : allocations.values()) {
+      assertTrue("expected about 25 shards per node, was " + shards.size(), Math.abs(shards.size() - 25) <= 5);
+    }
+  }
+
+  @Test
+  public void notMoveShardHotterThanTheDifference() throws Exception {
+    Map<String, Double> rates = new HashMap<>();
+    rates.put("0", 1000.0);
+    Map<ActorRef, List<String>> allocations = regions(2);
+    List<List<String>> shards = new ArrayList<>(allocations.values());
+    shards.get(0).add("0");
+    for (int shard = 1; shard < 10; shard++) {
+      rates.put(Integer.toString(shard), 1.0);
+      shards.get(1).add(Integer.toString(shard));
+    }
+    LoadAwareAllocationStrategy strategy = new LoadAwareAllocationStrategy(() -> rates, THRESHOLD, 3);
+    Set<String> toRebalance = result(strategy.rebalance(toScala(allocations), Collections.emptySet()));
+    assertEquals(Collections.emptySet(), toRebalance);
+  }
+
+  private static Map<ActorRef, List<String>> regions(int count) {
+    Map<ActorRef, List<String>> allocations = new LinkedHashMap<>();
+    for (int i = 0; i < count; i++) {
+      allocations.put(Adapter.toClassic(testKit.createTestProbe().ref()), new ArrayList<>());
+    }
+    return allocations;
+  }
+
+  /**
+   * Hand off and allocate the shards to rebalance like the coordinator does, until there is nothing to rebalance
+   */
+  private static void rebalanceUntilStable(LoadAwareAllocationStrategy strategy, Map<ActorRef, List<String>> allocations) throws Exception {
+    for (int round = 0; round < 100; round++) {
+      Set<String> toRebalance = result(strategy.rebalance(toScala(allocations), Collections.emptySet()));
+      if (toRebalance.isEmpty()) return;
+      for (List<String> shards : allocations.values()) {
+        shards.removeAll(toRebalance);
+      }
+      for (String shard : toRebalance) {
+        ActorRef region = result(strategy.allocateShard(null, shard, toScala(allocations)));
+        allocations.get(region).add(shard);
+      }
+    }
+    throw new AssertionError("Rebalancing did not settle");
+  }
+
+  private static <T> T result(Future<T> future) throws Exception {
+    return Await.result(future, Duration.Inf());
+  }
+
+  private static Map<ActorRef, IndexedSeq<String>> toScala(Map<ActorRef, List<String>> allocations) {
+    Map<ActorRef, IndexedSeq<String>> scalaAllocations = new HashMap<>();
+    allocations.forEach((region, shards) -> scalaAllocations.put(region, CollectionConverters.asScala(shards).toIndexedSeq()));
+    return scalaAllocations;
+  }
+
+  private static double load(List<String> shards, Map<String, Double> rates) {
+    return shards.stream().mapToDouble(shard -> rates.getOrDefault(shard, 0.0)).sum();
+  }
+
+  private static double maxLoad(Map<ActorRef, List<String>> allocations, Map<String, Double> rates) {
+    return allocations.values().stream().mapToDouble(shards -> load(shards, rates)).max().getAsDouble();
+  }
+
+  private static double minLoad(Map<ActorRef, List<String>> allocations, Map<String, Double> rates) {
+    return allocations.values().stream().mapToDouble(shards -> load(shards, rates)).min().getAsDouble();
+  }
+}
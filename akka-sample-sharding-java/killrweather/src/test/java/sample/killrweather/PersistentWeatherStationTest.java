@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2009-2024 Lightbend Inc. <https://www.lightbend.com>
+ */
+package sample.killrweather;
+
+import akka.actor.testkit.typed.javadsl.TestKitJunitResource;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.Behavior;
+import akka.persistence.testkit.javadsl.EventSourcedBehaviorTestKit;
+import akka.persistence.testkit.javadsl.PersistenceTestKit;
+import akka.persistence.typed.PersistenceId;
+import com.typesafe.config.ConfigFactory;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+public class PersistentWeatherStationTest {
+
+  @ClassRule
+  public static final TestKitJunitResource testKit = new TestKitJunitResource(
+      ConfigFactory.parseString("akka.cluster.seed-nodes = []")
+          .withFallback(EventSourcedBehaviorTestKit.config())
+          .withFallback(ConfigFactory.load()));
+
+  private static final PersistenceTestKit persistenceTestKit = PersistenceTestKit.create(testKit.system());
+
+  private static final long START = System.currentTimeMillis();
+
+  @BeforeClass
+  public static void initRegions() {
+    // the stations feed their region, sharding buffers the deltas as the node never joins a cluster
+    WeatherRegion.initSharding(testKit.system());
+  }
+
+  @Before
+  public void clearJournal() {
+    persistenceTestKit.clearAll();
+  }
+
+  @Test
+  public void keepCountsWhenRecoveredAgain() {
+    PersistenceId persistenceId = persistenceId("1");
+    ActorRef<WeatherStation.Command> station = testKit.spawn(station(persistenceId));
+    record(station, 3);
+    assertEquals(3, temperatureCount(station));
+    testKit.stop(station);
+
+    for (int recovery = 0; recovery < 2; recovery++) {
+      station = testKit.spawn(station(persistenceId));
+      assertEquals(3, temperatureCount(station));
+      testKit.stop(station);
+    }
+  }
+
+  @Test
+  public void stopRatherThanReplayIntoTheSameStateWhenPersistFails() {
+    PersistenceId persistenceId = persistenceId("2");
+    ActorRef<WeatherStation.Command> station = testKit.spawn(station(persistenceId));
+    record(station, 3);
+
+    persistenceTestKit.failNextPersisted(persistenceId.id());
+    TestProbe<WeatherStation.DataRecorded> probe = testKit.createTestProbe();
+    station.tell(new WeatherStation.Record(
+        new WeatherStation.Data(START + 3000, WeatherStation.DataType.Temperature, 20.0), START, probe.getRef()));
+    probe.expectTerminated(station);
+
+    station = testKit.spawn(station(persistenceId));
+    assertEquals(3, temperatureCount(station));
+    testKit.stop(station);
+  }
+
+  @Test
+  public void serializeEventsAndSnapshots() {
+    // a snapshot after every other event, so that recovering also reads a snapshot through the serializer
+    WeatherStationSettings settings = WeatherStationSettings.create(ConfigFactory.parseString("snapshot-every = 2")
+        .withFallback(testKit.system().settings().config().getConfig("killrweather.weather-station")));
+    PersistenceId persistenceId = persistenceId("3");
+    // the state is not serialized, only its snapshot
+    EventSourcedBehaviorTestKit<WeatherStation.Command, PersistentWeatherStation.Event, StationState> station =
+        EventSourcedBehaviorTestKit.create(
+            testKit.system(),
+            PersistentWeatherStation.create(persistenceId.entityId(), persistenceId, settings),
+            EventSourcedBehaviorTestKit.enabledSerializationSettings().withVerifyState(false));
+
+    station.<WeatherStation.DataRecorded>runCommand(replyTo -> new WeatherStation.Record(
+        new WeatherStation.Data(START, WeatherStation.DataType.Temperature, 20.0), START, replyTo));
+    station.<WeatherStation.DataRecorded>runCommand(replyTo -> new WeatherStation.RecordObservation(
+        new WeatherStation.Observation(START + 1000, Arrays.asList(
+            new WeatherStation.Measurement(WeatherStation.DataType.Temperature, 21.0),
+            new WeatherStation.Measurement(WeatherStation.DataType.Pressure, 1013.0))),
+        START, replyTo));
+    station.<WeatherStation.DataRecorded>runCommand(replyTo -> new WeatherStation.RecordBatch(Arrays.asList(
+        new WeatherStation.Data(START + 2000, WeatherStation.DataType.Temperature, 22.0),
+        new WeatherStation.Data(START + 3000, WeatherStation.DataType.Temperature, 23.0)),
+        START, replyTo));
+    station.<WeatherStation.DataRecorded>runCommand(replyTo -> new WeatherStation.Record(
+        new WeatherStation.Data(START + 4000, WeatherStation.DataType.Temperature, 24.0), START, replyTo));
+
+    station.restart();
+    WeatherStation.QueryResult result = station.<WeatherStation.QueryResult>runCommand(replyTo ->
+        new WeatherStation.Query(WeatherStation.DataType.Temperature, WeatherStation.Function.Average, replyTo)).reply();
+    assertEquals(5, result.readings);
+    assertEquals(22.0, result.value.get(0).value, 0.0001);
+  }
+
+  @Test
+  public void recordEveryMeasurementOfAnObservation() {
+    ActorRef<WeatherStation.Command> station = testKit.spawn(station(persistenceId("4")));
+    TestProbe<WeatherStation.DataRecorded> probe = testKit.createTestProbe();
+    station.tell(new WeatherStation.RecordObservation(observation(START, 20.0, 10.0, 1013.0), START, probe.getRef()));
+    // the version changes with every reading, not with every message
+    assertEquals(3, probe.receiveMessage().version);
+    station.tell(new WeatherStation.RecordObservation(observation(START + 1000, 22.0, 12.0, 1011.0), START, probe.getRef()));
+    assertEquals(6, probe.receiveMessage().version);
+
+    assertEquals(21.0, average(station, WeatherStation.DataType.Temperature), 0.0);
+    assertEquals(11.0, average(station, WeatherStation.DataType.DewPoint), 0.0);
+    assertEquals(1012.0, average(station, WeatherStation.DataType.Pressure), 0.0);
+    testKit.stop(station);
+  }
+
+  // as sharding creates them, the station id is a number
+  private static PersistenceId persistenceId(String wsid) {
+    return PersistenceId.of(WeatherStation.TypeKey.name(), wsid);
+  }
+
+  private static Behavior<WeatherStation.Command> station(PersistenceId persistenceId) {
+    return PersistentWeatherStation.create(persistenceId.entityId(), persistenceId, WeatherStationSettings.create(testKit.system()));
+  }
+
+  private static void record(ActorRef<WeatherStation.Command> station, int readings) {
+    TestProbe<WeatherStation.DataRecorded> probe = testKit.createTestProbe();
+    for (int i = 0; i < readings; i++) {
+      station.tell(new WeatherStation.Record(
+          new WeatherStation.Data(START + i * 1000, WeatherStation.DataType.Temperature, 20.0 + i), START, probe.getRef()));
+      probe.receiveMessage();
+    }
+  }
+
+  private static WeatherStation.Observation observation(long eventTime, double temperature, double dewPoint, double pressure) {
+    return new WeatherStation.Observation(eventTime, Arrays.asList(
+        new WeatherStation.Measurement(WeatherStation.DataType.Temperature, temperature),
+        new WeatherStation.Measurement(WeatherStation.DataType.DewPoint, dewPoint),
+        new WeatherStation.Measurement(WeatherStation.DataType.Pressure, pressure)));
+  }
+
+  private static double average(ActorRef<WeatherStation.Command> station, WeatherStation.DataType dataType) {
+    TestProbe<WeatherStation.QueryResult> probe = testKit.createTestProbe();
+    station.tell(new WeatherStation.Query(dataType, WeatherStation.Function.Average, probe.getRef()));
+    WeatherStation.QueryResult result = probe.receiveMessage();
+    assertEquals(2, result.readings);
+    return result.value.get(0).value;
+  }
+
+  private static long temperatureCount(ActorRef<WeatherStation.Command> station) {
+    TestProbe<WeatherStation.QueryResult> probe = testKit.createTestProbe();
+    station.tell(new WeatherStation.Query(WeatherStation.DataType.Temperature, WeatherStation.Function.Average, probe.getRef()));
+    return probe.receiveMessage().readings;
+  }
+}
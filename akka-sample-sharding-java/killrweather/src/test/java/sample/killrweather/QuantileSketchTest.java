@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2009-2024 Lightbend Inc. <https://www.lightbend.com>
+ */
+package sample.killrweather;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class QuantileSketchTest {
+
+  private static final double ACCURACY = 0.01;
+  private static final double[] QUANTILES = {0, 0.01, 0.25, 0.5, 0.75, 0.9, 0.95, 0.99, 1};
+
+  @Test
+  public void estimateQuantilesWithinTheRelativeAccuracy() {
+    Random random = new Random(1);
+    double[] values = new double[10000];
+    QuantileSketch sketch = new QuantileSketch(ACCURACY, 2048);
+    for (int i = 0; i < values.length; i++) {
+      // spanning several orders of magnitude
+      values[i] = Math.exp(random.nextDouble() * 10);
+      sketch.add(values[i]);
+    }
+    assertEquals(values.length, sketch.count());
+    assertWithinAccuracy(values, sketch, QUANTILES);
+  }
+
+  @Test
+  public void estimateQuantilesOfNegativeValuesAndZeroes() {
+    Random random = new Random(2);
+    double[] values = new double[10000];
+    QuantileSketch sketch = new QuantileSketch(ACCURACY, 2048);
+    for (int i = 0; i < values.length; i++) {
+      values[i] = i % 10 == 0 ? 0 : random.nextGaussian() * 20;
+      sketch.add(values[i]);
+    }
+    assertWithinAccuracy(values, sketch, QUANTILES);
+  }
+
+  @Test
+  public void stayAccurateForHighQuantilesWhenTheLowestBinsAreCollapsed() {
+    double[] values = new double[1000];
+    // about 350 bins needed for 1 to 1000
+    QuantileSketch sketch = new QuantileSketch(ACCURACY, 100);
+    for (int i = 0; i < values.length; i++) {
+      values[i] = i + 1;
+      sketch.add(values[i]);
+    }
+    assertEquals(values.length, sketch.count());
+    assertWithinAccuracy(values, sketch, new double[] {0.5, 0.9, 0.99, 1});
+    // counted in the lowest bin that is left
+    assertTrue(sketch.quantile(0) > 1);
+  }
+
+  @Test
+  public void notEstimateAnythingWithoutValues() {
+    assertTrue(Double.isNaN(new QuantileSketch(ACCURACY, 2048).quantile(0.5)));
+  }
+
+  @Test
+  public void restoreTheSameEstimatesFromTheCounts() {
+    Random random = new Random(3);
+    QuantileSketch sketch = new QuantileSketch(ACCURACY, 2048);
+    for (int i = 0; i < 1000; i++) {
+      sketch.add(i % 7 == 0 ? 0 : random.nextGaussian() * 100);
+    }
+    QuantileSketch restored = new QuantileSketch(ACCURACY, 2048);
+    restored.restore(sketch.zeroCount(), sketch.positiveMinIndex(), sketch.positiveCounts(), sketch.negativeMinIndex(), sketch.negativeCounts());
+
+    assertEquals(sketch.count(), restored.count());
+    for (double quantile : QUANTILES) {
+      assertEquals(sketch.quantile(quantile), restored.quantile(quantile), 0.0);
+    }
+  }
+
+  private static void assertWithinAccuracy(double[] values, QuantileSketch sketch, double[] quantiles) {
+    double[] sorted = values.clone();
+    Arrays.sort(sorted);
+    for (double quantile : quantiles) {
+      double actual = sorted[(int) (quantile * (sorted.length - 1))];
+      double estimate = sketch.quantile(quantile);
+      assertTrue("quantile " + quantile + " estimated as " + estimate + " but was " + actual,
+          Math.abs(estimate - actual) <= ACCURACY * Math.abs(actual));
+    }
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2009-2024 Lightbend Inc. <https://www.lightbend.com>
+ */
+package sample.killrweather;
+
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class QueryCacheTest {
+
+  private static final Duration TTL = Duration.ofMillis(200);
+
+  @Test
+  public void hitOnlyForTheSameQuery() {
+    QueryCache cache = new QueryCache(100, Duration.ofMinutes(1));
+    WeatherStation.QueryResult result = result(1, 1);
+    cache.put(key(1, WeatherStation.Function.Average), result);
+
+    assertSame(result, cache.get(key(1, WeatherStation.Function.Average)));
+    assertNull(cache.get(key(1, WeatherStation.Function.HighLow)));
+    assertNull(cache.get(key(2, WeatherStation.Function.Average)));
+    QueryCache.Stats stats = cache.stats();
+    assertEquals(1, stats.hits);
+    assertEquals(2, stats.misses);
+  }
+
+  @Test
+  public void expireAfterTheTimeToLive() throws Exception {
+    QueryCache cache = new QueryCache(100, TTL);
+    cache.put(key(1, WeatherStation.Function.Average), result(1, 1));
+    Thread.sleep(TTL.toMillis() + 100);
+    assertNull(cache.get(key(1, WeatherStation.Function.Average)));
+    assertEquals(0, cache.stats().size);
+  }
+
+  @Test
+  public void invalidateWhenDataIsRecordedForTheStation() {
+    QueryCache cache = new QueryCache(100, Duration.ofMinutes(1));
+    cache.put(key(1, WeatherStation.Function.Average), result(1, 3));
+    cache.put(key(2, WeatherStation.Function.Average), result(2, 3));
+    cache.recorded(1, 4);
+
+    assertNull(cache.get(key(1, WeatherStation.Function.Average)));
+    assertEquals(3, cache.get(key(2, WeatherStation.Function.Average)).version);
+    // replied before the recorded data
+    cache.put(key(1, WeatherStation.Function.Average), result(1, 3));
+    assertNull(cache.get(key(1, WeatherStation.Function.Average)));
+    cache.put(key(1, WeatherStation.Function.Average), result(1, 4));
+    assertEquals(4, cache.get(key(1, WeatherStation.Function.Average)).version);
+  }
+
+  @Test
+  public void cacheAgainForAStationStartedAgainWithALowerVersion() throws Exception {
+    QueryCache cache = new QueryCache(100, TTL);
+    cache.put(key(1, WeatherStation.Function.Average), result(1, 10));
+    Thread.sleep(TTL.toMillis() + 100);
+
+    cache.put(key(1, WeatherStation.Function.Average), result(1, 1));
+    assertEquals(1, cache.get(key(1, WeatherStation.Function.Average)).version);
+  }
+
+  @Test
+  public void evictTheLeastRecentlyUsedResults() {
+    QueryCache cache = new QueryCache(2, Duration.ofMinutes(1));
+    cache.put(key(1, WeatherStation.Function.Average), result(1, 1));
+    cache.put(key(2, WeatherStation.Function.Average), result(2, 1));
+    cache.get(key(1, WeatherStation.Function.Average));
+    cache.put(key(3, WeatherStation.Function.Average), result(3, 1));
+
+    assertEquals(2, cache.stats().size);
+    assertNull(cache.get(key(2, WeatherStation.Function.Average)));
+    assertEquals(1, cache.get(key(1, WeatherStation.Function.Average)).version);
+    assertEquals(1, cache.get(key(3, WeatherStation.Function.Average)).version);
+  }
+
+  private static QueryCache.Key key(long wsid, WeatherStation.Function function) {
+    return new QueryCache.Key(wsid, WeatherStation.DataType.Temperature, function, WeatherStation.Query.NO_WINDOW,
+        WeatherStation.Query.OPEN_START, WeatherStation.Query.OPEN_END, WeatherStation.Query.DEFAULT_PERCENTILE, WeatherStation.Query.DEFAULT_TOP_K);
+  }
+
+  private static WeatherStation.QueryResult result(long wsid, long version) {
+    return new WeatherStation.QueryResult(Long.toString(wsid), WeatherStation.DataType.Temperature, WeatherStation.Function.Average,
+        0, Collections.emptyList(), version);
+  }
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright (C) 2009-2024 Lightbend Inc. <https://www.lightbend.com>
+ */
+package sample.killrweather;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class RegionTotalsTest {
+
+  @Test
+  public void leaveOutTheValuesOfDataTypesWithoutReadings() {
+    RegionTotals totals = new RegionTotals();
+    totals.add(WeatherStation.DataType.Temperature, 10.0);
+    totals.add(WeatherStation.DataType.Temperature, 20.0);
+
+    WeatherRegion.RegionSummary temperature = totals.summary("north", WeatherStation.DataType.Temperature, 1);
+    assertEquals(2, temperature.readings);
+    assertEquals(15.0, temperature.average, 0.0);
+    assertEquals(10.0, temperature.min, 0.0);
+    assertEquals(20.0, temperature.max, 0.0);
+
+    WeatherRegion.RegionSummary pressure = totals.summary("north", WeatherStation.DataType.Pressure, 1);
+    assertEquals(0, pressure.readings);
+    assertNull(pressure.average);
+    assertNull(pressure.min);
+    assertNull(pressure.max);
+  }
+}
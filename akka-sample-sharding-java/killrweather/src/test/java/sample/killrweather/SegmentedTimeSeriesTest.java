@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2009-2024 Lightbend Inc. <https://www.lightbend.com>
+ */
+package sample.killrweather;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class SegmentedTimeSeriesTest {
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  private Path directory;
+  // 4 readings per segment, at most 3 segments
+  private SegmentedTimeSeries series;
+
+  @Before
+  public void createSeries() throws Exception {
+    directory = folder.newFolder("temperature").toPath();
+    series = new SegmentedTimeSeries(directory, 4, 3);
+  }
+
+  @After
+  public void closeSeries() {
+    series.close();
+  }
+
+  @Test
+  public void keepReadingsInOrderAcrossSegments() {
+    for (long time = 10; time <= 100; time += 10) series.add(time, time / 10.0);
+    assertEquals(Arrays.asList(10L, 20L, 30L, 40L, 50L, 60L, 70L, 80L, 90L, 100L), eventTimes());
+    assertEquals(Arrays.asList(1.0, 2.0, 3.0, 4.0, 5.0, 6.0, 7.0, 8.0, 9.0, 10.0), values());
+    assertEquals(10, series.firstTime());
+    assertEquals(3, segmentFiles());
+  }
+
+  @Test
+  public void insertLateReadingsInTheNewestSegment() {
+    for (long time = 10; time <= 60; time += 10) series.add(time, time / 10.0);
+    series.add(55, 5.5);
+    series.add(45, 4.5);
+    assertEquals(Arrays.asList(10L, 20L, 30L, 40L, 45L, 50L, 55L, 60L), eventTimes());
+    assertEquals(Arrays.asList(1.0, 2.0, 3.0, 4.0, 4.5, 5.0, 5.5, 6.0), values());
+  }
+
+  @Test
+  public void insertLateReadingsNotOlderThanTheSealedSegments() {
+    for (long time = 10; time <= 50; time += 10) series.add(time, time / 10.0);
+    // the newest segment only has 50, the segment before it ends with 40
+    series.add(45, 4.5);
+    series.add(42, 4.2);
+    assertEquals(Arrays.asList(10L, 20L, 30L, 40L, 42L, 45L, 50L), eventTimes());
+    assertEquals(Arrays.asList(1.0, 2.0, 3.0, 4.0, 4.2, 4.5, 5.0), values());
+  }
+
+  @Test
+  public void dropLateReadingsBelongingInSealedSegments() {
+    for (long time = 10; time <= 60; time += 10) series.add(time, time / 10.0);
+    series.add(35, 3.5);
+    series.add(5, 0.5);
+    assertEquals(Arrays.asList(10L, 20L, 30L, 40L, 50L, 60L), eventTimes());
+    assertEquals(10, series.firstTime());
+  }
+
+  @Test
+  public void dropLateReadingsWhenTheNewestSegmentIsFull() {
+    for (long time = 10; time <= 80; time += 10) series.add(time, time / 10.0);
+    series.add(75, 7.5);
+    assertEquals(Arrays.asList(10L, 20L, 30L, 40L, 50L, 60L, 70L, 80L), eventTimes());
+    // a reading in order still starts a new segment
+    series.add(90, 9.0);
+    assertEquals(Long.valueOf(90), eventTimes().get(8));
+  }
+
+  @Test
+  public void deleteTheOldestSegmentWhenWrappingAround() {
+    for (long time = 10; time <= 160; time += 10) series.add(time, time / 10.0);
+    // 16 readings in segments of 4, only the newest 3 segments are kept
+    assertEquals(Arrays.asList(50L, 60L, 70L, 80L, 90L, 100L, 110L, 120L, 130L, 140L, 150L, 160L), eventTimes());
+    assertEquals(50, series.firstTime());
+    assertEquals(3, segmentFiles());
+    // late, in the newest segment which is full
+    series.add(155, 15.5);
+    series.add(170, 17.0);
+    series.add(165, 16.5);
+    assertEquals(Arrays.asList(90L, 100L, 110L, 120L, 130L, 140L, 150L, 160L, 165L, 170L), eventTimes());
+    assertEquals(3, segmentFiles());
+  }
+
+  @Test
+  public void trimWholeSegments() {
+    for (long time = 10; time <= 100; time += 10) series.add(time, time / 10.0);
+    series.trimBefore(60);
+    // 50 is kept, it is in the same segment as newer readings
+    assertEquals(Arrays.asList(50L, 60L, 70L, 80L, 90L, 100L), eventTimes());
+    assertEquals(2, segmentFiles());
+    series.trimBefore(101);
+    assertEquals(Long.MAX_VALUE, series.firstTime());
+    assertEquals(0, segmentFiles());
+  }
+
+  @Test
+  public void deleteSegmentsWhenClosed() {
+    for (long time = 10; time <= 100; time += 10) series.add(time, time / 10.0);
+    series.close();
+    assertEquals(0, segmentFiles());
+  }
+
+  @Test
+  public void replaceSegmentsLeftBehind() {
+    for (long time = 10; time <= 100; time += 10) series.add(time, time / 10.0);
+    SegmentedTimeSeries reopened = new SegmentedTimeSeries(directory, 4, 3);
+    assertEquals(0, segmentFiles());
+    assertEquals(Long.MAX_VALUE, reopened.firstTime());
+    reopened.close();
+  }
+
+  private List<WeatherStation.TimeWindow> readings() {
+    // each reading in a window of its own
+    WindowAccumulator accumulator = new WindowAccumulator(WeatherStation.Function.Current, 1);
+    series.feed(Long.MIN_VALUE, Long.MAX_VALUE, accumulator);
+    return accumulator.result();
+  }
+
+  private List<Long> eventTimes() {
+    List<Long> eventTimes = new ArrayList<>();
+    for (WeatherStation.TimeWindow reading : readings()) eventTimes.add(reading.start);
+    assertEquals("readings counted", series.size(), eventTimes.size());
+    return eventTimes;
+  }
+
+  private List<Double> values() {
+    List<Double> values = new ArrayList<>();
+    for (WeatherStation.TimeWindow reading : readings()) values.add(reading.value);
+    return values;
+  }
+
+  private int segmentFiles() {
+    File[] files = directory.toFile().listFiles((dir, name) -> name.endsWith(".seg"));
+    return files == null ? 0 : files.length;
+  }
+}
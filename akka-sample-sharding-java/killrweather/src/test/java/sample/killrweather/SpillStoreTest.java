@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2009-2024 Lightbend Inc. <https://www.lightbend.com>
+ */
+package sample.killrweather;
+
+import akka.actor.testkit.typed.javadsl.TestKitJunitResource;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+import akka.serialization.Serialization;
+import akka.serialization.SerializationExtension;
+import com.typesafe.config.ConfigFactory;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class SpillStoreTest {
+
+  @ClassRule
+  public static final TestKitJunitResource testKit = new TestKitJunitResource(
+      ConfigFactory.parseString("akka.cluster.seed-nodes = []\nkillrweather.weather-station.spill.enabled = on")
+          .withFallback(ConfigFactory.load()));
+
+  private static final Serialization serialization = SerializationExtension.get(testKit.system());
+  private static final WeatherStationSettings settings = WeatherStationSettings.create(testKit.system());
+
+  private static final long HOUR = 60 * 60 * 1000;
+  private static final long START = 472222 * HOUR;
+
+  @BeforeClass
+  public static void initRegions() {
+    // the stations feed their region, sharding buffers the deltas as the node never joins a cluster
+    WeatherRegion.initSharding(testKit.system());
+  }
+
+  @Test
+  public void restoreTheSpilledState() {
+    SpillStore store = new SpillStore(serialization, 1024 * 1024);
+    store.spill("1", 7, state(10).toSnapshot());
+    assertEquals(1, store.size());
+
+    StationSnapshot snapshot = store.take("1", 7);
+    assertNotNull(snapshot);
+    StationState restored = StationState.fromSnapshot(settings, snapshot, RawReadings.onHeap(settings));
+    assertEquals(10, restored.summary("1", WeatherStation.DataType.Temperature).count);
+    // taken out of the store
+    assertNull(store.take("1", 7));
+    assertEquals(0, store.bytes());
+  }
+
+  @Test
+  public void dropStateSpilledFromAnotherIncarnationOfTheShard() {
+    SpillStore store = new SpillStore(serialization, 1024 * 1024);
+    store.spill("1", 7, state(10).toSnapshot());
+    assertNull(store.take("1", 8));
+    assertEquals(0, store.size());
+  }
+
+  @Test
+  public void dropTheStatesSpilledTheLongestAgoWhenFull() {
+    StationSnapshot snapshot = state(10).toSnapshot();
+    SpillStore measure = new SpillStore(serialization, Long.MAX_VALUE);
+    measure.spill("1", 7, snapshot);
+    long size = measure.bytes();
+
+    SpillStore store = new SpillStore(serialization, size * 5 / 2);
+    store.spill("1", 7, snapshot);
+    store.spill("2", 7, snapshot);
+    // replaced, still spilled before station 2
+    store.spill("1", 7, snapshot);
+    assertEquals(2, store.size());
+    store.spill("3", 7, snapshot);
+
+    assertEquals(2, store.size());
+    assertEquals(2 * size, store.bytes());
+    assertNull(store.take("2", 7));
+    assertNotNull(store.take("1", 7));
+    assertNotNull(store.take("3", 7));
+  }
+
+  @Test
+  public void restoreTheStateOfAStationStartedAgain() {
+    ActorRef<WeatherStation.Command> station = testKit.spawn(WeatherStation.create("1", settings));
+    TestProbe<WeatherStation.DataRecorded> recorded = testKit.createTestProbe();
+    for (int i = 0; i < 3; i++) {
+      station.tell(new WeatherStation.Record(
+          new WeatherStation.Data(START + i * HOUR, WeatherStation.DataType.Temperature, 20.0 + i), START, recorded.getRef()));
+      recorded.receiveMessage();
+    }
+    testKit.stop(station);
+
+    // the same parent, as if started in the same shard
+    station = testKit.spawn(WeatherStation.create("1", settings));
+    TestProbe<WeatherStation.QueryResult> probe = testKit.createTestProbe();
+    station.tell(new WeatherStation.Query(WeatherStation.DataType.Temperature, WeatherStation.Function.Average, probe.getRef()));
+    WeatherStation.QueryResult result = probe.receiveMessage();
+    assertEquals(3, result.readings);
+    assertEquals(21.0, result.value.get(0).value, 0.0);
+    testKit.stop(station);
+  }
+
+  private static StationState state(int readings) {
+    StationState state = new StationState(settings);
+    for (int i = 0; i < readings; i++) {
+      state.record(new WeatherStation.Data(START + i * HOUR, WeatherStation.DataType.Temperature, i));
+    }
+    return state;
+  }
+}
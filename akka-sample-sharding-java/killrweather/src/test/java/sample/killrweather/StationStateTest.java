@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2009-2024 Lightbend Inc. <https://www.lightbend.com>
+ */
+package sample.killrweather;
+
+import com.typesafe.config.ConfigFactory;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class StationStateTest {
+
+  private static final WeatherStationSettings settings = WeatherStationSettings.create(
+      ConfigFactory.parseString("allowed-lateness = 10m, retention.fine-bucket-size = 5m")
+          .withFallback(ConfigFactory.load().getConfig("killrweather.weather-station")));
+
+  private static final long MINUTE = 60 * 1000;
+  // on a whole hour, the queries below are not aligned with any buckets unless rounded
+  private static final long NOW = 472222 * 60 * MINUTE;
+
+  @Test
+  public void keepLateReadingsWithinTheAllowedLatenessAsRawReadings() {
+    StationState state = new StationState(settings);
+    record(state, WeatherStation.DataType.Temperature, NOW, 1.0);
+    record(state, WeatherStation.DataType.Temperature, NOW - 5 * MINUTE, 2.0);
+    record(state, WeatherStation.DataType.Temperature, NOW - 10 * MINUTE, 3.0);
+
+    WeatherStation.QueryResult result = average(state, WeatherStation.DataType.Temperature, NOW - 10 * MINUTE, NOW + 1);
+    assertEquals(3, result.readings);
+    assertEquals(2.0, result.value.get(0).value, 0.0);
+  }
+
+  @Test
+  public void countTooLateReadingsOnlyInTheAggregatesAndBuckets() {
+    StationState state = new StationState(settings);
+    record(state, WeatherStation.DataType.Temperature, NOW, 1.0);
+    record(state, WeatherStation.DataType.Temperature, NOW - 10 * MINUTE - 1, 3.0);
+    assertEquals(2, state.summary("1", WeatherStation.DataType.Temperature).count);
+
+    // from the raw readings, which only have the reading on time
+    WeatherStation.QueryResult recent = average(state, WeatherStation.DataType.Temperature, NOW, NOW + 1);
+    assertEquals(1, recent.readings);
+    assertEquals(1.0, recent.value.get(0).value, 0.0);
+
+    // reaching back before the oldest raw reading, rounded to the 5 minute buckets that have both
+    WeatherStation.QueryResult rounded = average(state, WeatherStation.DataType.Temperature, NOW - 11 * MINUTE, NOW + 1);
+    assertEquals(2, rounded.readings);
+    assertEquals(2.0, rounded.value.get(0).value, 0.0);
+  }
+
+  @Test
+  public void trailTheNewestReadingOfEachDataType() {
+    StationState state = new StationState(settings);
+    record(state, WeatherStation.DataType.Temperature, NOW, 1.0);
+    // the first pressure reading is never too late, even though it is long before the newest temperature
+    record(state, WeatherStation.DataType.Pressure, NOW - 60 * MINUTE, 1000.0);
+    record(state, WeatherStation.DataType.Pressure, NOW - 65 * MINUTE, 1010.0);
+    // the watermark moves along with the newest reading
+    record(state, WeatherStation.DataType.Temperature, NOW + 30 * MINUTE, 2.0);
+    record(state, WeatherStation.DataType.Temperature, NOW + 20 * MINUTE, 3.0);
+    record(state, WeatherStation.DataType.Temperature, NOW + 19 * MINUTE, 4.0);
+
+    assertEquals(2, average(state, WeatherStation.DataType.Pressure, NOW - 65 * MINUTE, NOW - 59 * MINUTE + 1).readings);
+    WeatherStation.QueryResult temperature = average(state, WeatherStation.DataType.Temperature, NOW + 19 * MINUTE, NOW + 30 * MINUTE + 1);
+    assertEquals(2, temperature.readings);
+    assertEquals(2.5, temperature.value.get(0).value, 0.0);
+  }
+
+  @Test
+  public void startASingleWindowFromBucketsAtTheFirstReading() {
+    StationState state = new StationState(settings);
+    record(state, WeatherStation.DataType.Temperature, NOW + 7 * MINUTE, 1.0);
+    record(state, WeatherStation.DataType.Temperature, NOW + 50 * MINUTE, 3.0);
+
+    // aligned with the hourly buckets, the bucket starts at NOW
+    WeatherStation.TimeWindow window = average(state, WeatherStation.DataType.Temperature, NOW - 60 * MINUTE, NOW + 60 * MINUTE).value.get(0);
+    assertEquals(NOW + 7 * MINUTE, window.start);
+    assertEquals(NOW + 50 * MINUTE, window.end);
+    assertEquals(2.0, window.value, 0.0);
+  }
+
+  @Test
+  public void answerPercentilesAndTopValuesTheSameFromASnapshot() {
+    StationState state = new StationState(settings);
+    for (int i = 0; i < 1000; i++) {
+      record(state, WeatherStation.DataType.Temperature, NOW + i * MINUTE, (i * 37) % 1000 - 200.0);
+    }
+    StationState restored = StationState.fromSnapshot(settings, state.toSnapshot(), RawReadings.onHeap(settings));
+
+    for (double percentile : new double[] {1, 50, 95, 99}) {
+      WeatherStation.Query query = new WeatherStation.Query(WeatherStation.DataType.Temperature, WeatherStation.Function.Percentile,
+          WeatherStation.Query.NO_WINDOW, WeatherStation.Query.OPEN_START, WeatherStation.Query.OPEN_END, percentile, WeatherStation.Query.DEFAULT_TOP_K, null);
+      assertEquals(state.query("1", query).value.get(0).value, restored.query("1", query).value.get(0).value, 0.0);
+    }
+    WeatherStation.Query topK = new WeatherStation.Query(WeatherStation.DataType.Temperature, WeatherStation.Function.TopK,
+        WeatherStation.Query.NO_WINDOW, WeatherStation.Query.OPEN_START, WeatherStation.Query.OPEN_END, WeatherStation.Query.DEFAULT_PERCENTILE, 20, null);
+    List<WeatherStation.TimeWindow> expected = state.query("1", topK).value;
+    List<WeatherStation.TimeWindow> actual = restored.query("1", topK).value;
+    assertEquals(20, actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertEquals(expected.get(i).value, actual.get(i).value, 0.0);
+      assertEquals(expected.get(i).start, actual.get(i).start);
+    }
+  }
+
+  private static void record(StationState state, WeatherStation.DataType dataType, long eventTime, double value) {
+    state.record(new WeatherStation.Data(eventTime, dataType, value));
+  }
+
+  private static WeatherStation.QueryResult average(StationState state, WeatherStation.DataType dataType, long from, long to) {
+    return state.query("1", new WeatherStation.Query(dataType, WeatherStation.Function.Average, WeatherStation.Query.NO_WINDOW, from, to, null));
+  }
+}
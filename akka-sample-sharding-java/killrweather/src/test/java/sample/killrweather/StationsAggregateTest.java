@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2009-2024 Lightbend Inc. <https://www.lightbend.com>
+ */
+package sample.killrweather;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class StationsAggregateTest {
+
+  private static final ObjectMapper objectMapper = new ObjectMapper();
+
+  @Test
+  public void leaveOutTheValuesWhenNoStationHasReplied() throws Exception {
+    StationsAggregate aggregate = StationsAggregate.empty(WeatherStation.DataType.Temperature, 3, 2)
+        .merge(Collections.emptyList());
+
+    assertEquals(0, aggregate.responded);
+    assertNull(aggregate.average);
+    assertNull(aggregate.min);
+    assertNull(aggregate.max);
+    assertValidJson(aggregate);
+  }
+
+  @Test
+  public void leaveOutTheValuesWhenNoStationHasReadings() throws Exception {
+    StationsAggregate aggregate = StationsAggregate.empty(WeatherStation.DataType.Temperature, 3, 2)
+        .merge(Collections.singletonList(noReadings("1")));
+
+    assertEquals(1, aggregate.responded);
+    assertEquals(0, aggregate.readings);
+    assertNull(aggregate.average);
+    assertTrue(aggregate.highest.isEmpty());
+    assertValidJson(aggregate);
+  }
+
+  @Test
+  public void mergeTheStationsThatHaveRepliedSoFar() throws Exception {
+    StationsAggregate aggregate = StationsAggregate.empty(WeatherStation.DataType.Temperature, 4, 2)
+        .merge(Arrays.asList(noReadings("1"), summary("2", 2, 30.0, 10.0, 20.0, 12.0)))
+        .merge(Collections.singletonList(summary("3", 1, 25.0, 25.0, 25.0, 25.0)));
+
+    assertEquals(4, aggregate.stations);
+    assertEquals(3, aggregate.responded);
+    assertEquals(3, aggregate.readings);
+    assertEquals(55.0 / 3, aggregate.average, 0.0);
+    assertEquals(10.0, aggregate.min, 0.0);
+    assertEquals(25.0, aggregate.max, 0.0);
+    assertEquals(2, aggregate.highest.size());
+    assertEquals("3", aggregate.highest.get(0).wsid);
+    assertEquals("2", aggregate.highest.get(1).wsid);
+    assertValidJson(aggregate);
+  }
+
+  private static WeatherStation.Summary noReadings(String wsid) {
+    return new WeatherStation.Summary(wsid, WeatherStation.DataType.Temperature, 0, 0, Double.NaN, Double.NaN, Double.NaN, 0);
+  }
+
+  private static WeatherStation.Summary summary(String wsid, long count, double sum, double min, double max, double current) {
+    return new WeatherStation.Summary(wsid, WeatherStation.DataType.Temperature, count, sum, min, max, current, 1L);
+  }
+
+  private static void assertValidJson(Object value) throws Exception {
+    String json = objectMapper.writeValueAsString(value);
+    assertFalse(json, json.contains("NaN") || json.contains("Infinity"));
+    // strict parsing rejects NaN and Infinity
+    objectMapper.readTree(json);
+  }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2009-2024 Lightbend Inc. <https://www.lightbend.com>
+ */
+package sample.killrweather;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class TimeBucketsTest {
+
+  private static final long MINUTE = 60 * 1000;
+  private static final long HOUR = 60 * MINUTE;
+  // on a whole day, so windows of a few hours are aligned with it
+  private static final long NOW = 19675 * 24 * HOUR;
+
+  @Test
+  public void combineBucketsIntoWindowsAlignedSinceEpoch() {
+    TimeBuckets buckets = new TimeBuckets(HOUR, 100);
+    buckets.add(NOW + 10 * MINUTE, 1.0);
+    buckets.add(NOW + 70 * MINUTE, 3.0);
+    buckets.add(NOW + 130 * MINUTE, 5.0);
+    buckets.add(NOW + 190 * MINUTE, 7.0);
+    buckets.add(NOW + 191 * MINUTE, 9.0);
+
+    List<WeatherStation.TimeWindow> windows = feed(buckets, WeatherStation.Function.Average, 2 * HOUR, 0, buckets.size());
+    assertEquals(2, windows.size());
+    assertWindow(NOW, NOW + 2 * HOUR, 2.0, windows.get(0));
+    assertWindow(NOW + 2 * HOUR, NOW + 4 * HOUR, 7.0, windows.get(1));
+  }
+
+  @Test
+  public void keepTheLatestReadingOfEachBucketWhateverTheArrivalOrder() {
+    TimeBuckets buckets = new TimeBuckets(HOUR, 100);
+    buckets.add(NOW + 20 * MINUTE, 2.0);
+    buckets.add(NOW + 10 * MINUTE, 1.0);
+    buckets.add(NOW + 30 * MINUTE, 8.0);
+    buckets.add(NOW + 5 * MINUTE, 4.0);
+
+    List<WeatherStation.TimeWindow> current = feed(buckets, WeatherStation.Function.Current, HOUR, 0, buckets.size());
+    assertEquals(1, current.size());
+    assertWindow(NOW + 30 * MINUTE, NOW + 30 * MINUTE, 8.0, current.get(0));
+
+    List<WeatherStation.TimeWindow> highLow = feed(buckets, WeatherStation.Function.HighLow, HOUR, 0, buckets.size());
+    assertEquals(2, highLow.size());
+    assertWindow(NOW, NOW + HOUR, 1.0, highLow.get(0));
+    assertWindow(NOW, NOW + HOUR, 8.0, highLow.get(1));
+  }
+
+  @Test
+  public void insertBucketsForLateReadingsInStartTimeOrder() {
+    TimeBuckets buckets = new TimeBuckets(HOUR, 100);
+    buckets.add(NOW + 3 * HOUR, 3.0);
+    buckets.add(NOW + HOUR, 1.0);
+    buckets.add(NOW + 2 * HOUR, 2.0);
+
+    assertEquals(3, buckets.size());
+    assertEquals(1, buckets.firstIndexFrom(NOW + 2 * HOUR));
+    assertEquals(3, buckets.firstIndexFrom(NOW + 4 * HOUR));
+
+    List<WeatherStation.TimeWindow> windows = feed(buckets, WeatherStation.Function.Average, HOUR, 1, 3);
+    assertEquals(2, windows.size());
+    assertWindow(NOW + 2 * HOUR, NOW + 3 * HOUR, 2.0, windows.get(0));
+    assertWindow(NOW + 3 * HOUR, NOW + 4 * HOUR, 3.0, windows.get(1));
+  }
+
+  @Test
+  public void dropTheOldestBucketWhenFull() {
+    TimeBuckets buckets = new TimeBuckets(HOUR, 3);
+    // more than the initial capacity of the columns, to grow them and then move them back to the beginning
+    for (int hour = 0; hour < 40; hour++) {
+      buckets.add(NOW + hour * HOUR, hour);
+    }
+    assertEquals(3, buckets.size());
+    // older than the oldest bucket retained
+    buckets.add(NOW, 100.0);
+    assertEquals(3, buckets.size());
+
+    List<WeatherStation.TimeWindow> windows = feed(buckets, WeatherStation.Function.Average, HOUR, 0, buckets.size());
+    assertEquals(3, windows.size());
+    assertWindow(NOW + 37 * HOUR, NOW + 38 * HOUR, 37.0, windows.get(0));
+    assertWindow(NOW + 39 * HOUR, NOW + 40 * HOUR, 39.0, windows.get(2));
+  }
+
+  @Test
+  public void combineEverythingIntoASingleWindowForAWindowSizeOfZero() {
+    WindowAccumulator accumulator = new WindowAccumulator(WeatherStation.Function.Average, WeatherStation.Query.NO_WINDOW);
+    accumulator.add(NOW + 10 * MINUTE, 1, 2.0, 2.0, 2.0, NOW + 10 * MINUTE, 2.0);
+    accumulator.add(NOW + 5 * HOUR, 1, 4.0, 4.0, 4.0, NOW + 5 * HOUR, 4.0);
+
+    List<WeatherStation.TimeWindow> windows = accumulator.result();
+    assertEquals(2, accumulator.readings());
+    assertEquals(1, windows.size());
+    assertWindow(NOW + 10 * MINUTE, NOW + 5 * HOUR, 3.0, windows.get(0));
+  }
+
+  @Test
+  public void alignWindowsBeforeEpoch() {
+    WindowAccumulator accumulator = new WindowAccumulator(WeatherStation.Function.Average, HOUR);
+    accumulator.add(-10 * MINUTE, 1, 1.0, 1.0, 1.0, -10 * MINUTE, 1.0);
+    accumulator.add(10 * MINUTE, 1, 3.0, 3.0, 3.0, 10 * MINUTE, 3.0);
+
+    List<WeatherStation.TimeWindow> windows = accumulator.result();
+    assertEquals(2, windows.size());
+    assertWindow(-HOUR, 0, 1.0, windows.get(0));
+    assertWindow(0, HOUR, 3.0, windows.get(1));
+  }
+
+  private static List<WeatherStation.TimeWindow> feed(TimeBuckets buckets, WeatherStation.Function function, long windowSize, int from, int until) {
+    WindowAccumulator accumulator = new WindowAccumulator(function, windowSize);
+    buckets.feed(from, until, accumulator);
+    return accumulator.result();
+  }
+
+  private static void assertWindow(long start, long end, double value, WeatherStation.TimeWindow window) {
+    assertEquals(start, window.start);
+    assertEquals(end, window.end);
+    assertEquals(value, window.value, 0.0);
+  }
+}
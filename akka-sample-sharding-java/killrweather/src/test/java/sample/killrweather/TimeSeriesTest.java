@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2009-2024 Lightbend Inc. <https://www.lightbend.com>
+ */
+package sample.killrweather;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class TimeSeriesTest {
+
+  @Test
+  public void keepReadingsInOrder() {
+    TimeSeries series = new TimeSeries(100);
+    for (long time = 10; time <= 50; time += 10) series.add(time, time / 10.0);
+    assertEquals(Arrays.asList(10L, 20L, 30L, 40L, 50L), eventTimes(series));
+    assertEquals(Arrays.asList(1.0, 2.0, 3.0, 4.0, 5.0), values(series));
+    assertEquals(10, series.firstTime());
+  }
+
+  @Test
+  public void insertLateReadingsInPlace() {
+    TimeSeries series = new TimeSeries(100);
+    series.add(10, 1.0);
+    series.add(30, 3.0);
+    series.add(40, 4.0);
+    series.add(20, 2.0);
+    series.add(5, 0.5);
+    series.add(40, 4.1);
+    assertEquals(Arrays.asList(5L, 10L, 20L, 30L, 40L, 40L), eventTimes(series));
+    assertEquals(Arrays.asList(0.5, 1.0, 2.0, 3.0, 4.0, 4.1), values(series));
+    assertEquals(5, series.firstTime());
+  }
+
+  @Test
+  public void dropOldestReadingsWhenFull() {
+    TimeSeries series = new TimeSeries(4);
+    for (long time = 10; time <= 60; time += 10) series.add(time, time / 10.0);
+    assertEquals(Arrays.asList(30L, 40L, 50L, 60L), eventTimes(series));
+    // late but newer than the oldest retained, replaces the oldest
+    series.add(45, 4.5);
+    assertEquals(Arrays.asList(40L, 45L, 50L, 60L), eventTimes(series));
+    // older than anything retained
+    series.add(35, 3.5);
+    assertEquals(Arrays.asList(40L, 45L, 50L, 60L), eventTimes(series));
+    assertEquals(Arrays.asList(4.0, 4.5, 5.0, 6.0), values(series));
+  }
+
+  @Test
+  public void insertLateReadingsAcrossTheEndOfTheRing() {
+    TimeSeries series = new TimeSeries(4);
+    // the oldest reading is in the middle of the columns once they have wrapped around
+    for (long time = 10; time <= 60; time += 10) series.add(time, time / 10.0);
+    series.add(55, 5.5);
+    series.add(52, 5.2);
+    series.add(70, 7.0);
+    assertEquals(Arrays.asList(52L, 55L, 60L, 70L), eventTimes(series));
+    assertEquals(Arrays.asList(5.2, 5.5, 6.0, 7.0), values(series));
+  }
+
+  @Test
+  public void growAfterTrimming() {
+    TimeSeries series = new TimeSeries(100);
+    for (long time = 1; time <= 16; time++) series.add(time, time);
+    series.trimBefore(10);
+    assertEquals(10, series.firstTime());
+    // grows the columns with the retained readings not at their start
+    for (long time = 17; time <= 40; time++) series.add(time, time);
+    series.add(12, 12.5);
+    assertEquals(32, series.size());
+    List<Long> eventTimes = eventTimes(series);
+    assertEquals(Arrays.asList(10L, 11L, 12L, 12L, 13L), eventTimes.subList(0, 5));
+    assertEquals(Long.valueOf(40), eventTimes.get(eventTimes.size() - 1));
+  }
+
+  @Test
+  public void feedOnlyTheTimeRange() {
+    TimeSeries series = new TimeSeries(100);
+    for (long time = 10; time <= 50; time += 10) series.add(time, time / 10.0);
+    WindowAccumulator accumulator = new WindowAccumulator(WeatherStation.Function.Average, WeatherStation.Query.NO_WINDOW);
+    series.feed(20, 50, accumulator);
+    assertEquals(3, accumulator.readings());
+    assertEquals(3.0, accumulator.result().get(0).value, 0.0);
+  }
+
+  @Test
+  public void noFirstTimeWhenEmpty() {
+    TimeSeries series = new TimeSeries(4);
+    assertEquals(Long.MAX_VALUE, series.firstTime());
+    series.add(10, 1.0);
+    series.trimBefore(20);
+    assertEquals(Long.MAX_VALUE, series.firstTime());
+  }
+
+  private static List<Long> eventTimes(TimeSeries series) {
+    List<Long> eventTimes = new ArrayList<>();
+    for (int i = 0; i < series.size(); i++) eventTimes.add(series.eventTime(i));
+    return eventTimes;
+  }
+
+  private static List<Double> values(TimeSeries series) {
+    List<Double> values = new ArrayList<>();
+    for (int i = 0; i < series.size(); i++) values.add(series.value(i));
+    return values;
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2009-2024 Lightbend Inc. <https://www.lightbend.com>
+ */
+package sample.killrweather;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class TopValuesTest {
+
+  @Test
+  public void keepTheHighestValuesOfMoreThanTheCapacity() {
+    List<Integer> values = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      values.add(i);
+    }
+    Collections.shuffle(values, new Random(1));
+    TopValues top = new TopValues(5);
+    for (int value : values) {
+      top.add(value * 1000L, value);
+    }
+    assertEquals(5, top.size());
+
+    WeatherStation.TimeWindow[] highest = top.top(5);
+    assertEquals(5, highest.length);
+    for (int i = 0; i < highest.length; i++) {
+      assertEquals(99.0 - i, highest[i].value, 0.0);
+      // along with the time it was recorded at
+      assertEquals((99 - i) * 1000L, highest[i].start);
+    }
+    assertEquals(97.0, top.top(3)[2].value, 0.0);
+    // no more than were kept
+    assertEquals(5, top.top(10).length);
+  }
+
+  @Test
+  public void keepTheFirstOfTiedValues() {
+    TopValues top = new TopValues(3);
+    top.add(1, 5.0);
+    top.add(2, 7.0);
+    top.add(3, 5.0);
+    // as high as the lowest top value, it does not replace it
+    top.add(4, 5.0);
+    top.add(5, 1.0);
+
+    WeatherStation.TimeWindow[] highest = top.top(3);
+    assertEquals(7.0, highest[0].value, 0.0);
+    assertEquals(5.0, highest[1].value, 0.0);
+    assertEquals(5.0, highest[2].value, 0.0);
+    assertEquals(1 + 3, highest[1].start + highest[2].start);
+  }
+
+  @Test
+  public void returnFewerValuesThanAskedForWhenFewerWereAdded() {
+    TopValues top = new TopValues(10);
+    top.add(1, 2.0);
+    top.add(2, 3.0);
+
+    WeatherStation.TimeWindow[] highest = top.top(5);
+    assertEquals(2, highest.length);
+    assertEquals(3.0, highest[0].value, 0.0);
+    assertEquals(2.0, highest[1].value, 0.0);
+    assertEquals(0, new TopValues(10).top(5).length);
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2009-2024 Lightbend Inc. <https://www.lightbend.com>
+ */
+package sample.killrweather;
+
+import akka.Done;
+import akka.actor.testkit.typed.javadsl.TestKitJunitResource;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.delivery.ConsumerController;
+import akka.actor.typed.javadsl.Behaviors;
+import akka.cluster.sharding.typed.delivery.ShardingProducerController;
+import akka.http.javadsl.model.ContentTypes;
+import akka.http.javadsl.model.HttpRequest;
+import akka.http.javadsl.model.HttpResponse;
+import akka.http.javadsl.model.StatusCode;
+import akka.http.javadsl.model.StatusCodes;
+import akka.pattern.StatusReply;
+import com.typesafe.config.ConfigFactory;
+import org.junit.ClassRule;
+import org.junit.Test;
+import scala.collection.immutable.Map$;
+import scala.collection.immutable.Set$;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class WeatherIngestTest {
+
+  @ClassRule
+  public static final TestKitJunitResource testKit = new TestKitJunitResource(
+      ConfigFactory.parseString("akka.cluster.seed-nodes = []").withFallback(ConfigFactory.load()));
+
+  private static final WeatherStation.Observation OBSERVATION = new WeatherStation.Observation(
+      System.currentTimeMillis(), Collections.singletonList(new WeatherStation.Measurement(WeatherStation.DataType.Temperature, 20.0)));
+
+  @Test
+  public void rejectReadingsWhenTheNodeBufferIsFull() {
+    TestProbe<ShardingProducerController.Command<WeatherIngest.Reading>> producerController = testKit.createTestProbe();
+    ActorRef<WeatherIngest.Command> ingest =
+        testKit.spawn(WeatherIngest.create(producerController.getRef(), 2, 1, Duration.ofMinutes(1)));
+    ActorRef<ShardingProducerController.RequestNext<WeatherIngest.Reading>> requestNextTo = start(producerController);
+    TestProbe<StatusReply<WeatherStation.DataRecorded>> probe = testKit.createTestProbe();
+    // no demand yet, so only two readings fit
+    for (int i = 0; i < 3; i++) {
+      ingest.tell(new WeatherIngest.Ingest(1, OBSERVATION, probe.getRef()));
+    }
+
+    WeatherIngest.Overloaded overloaded = (WeatherIngest.Overloaded) probe.receiveMessage().getError();
+    assertFalse(overloaded.singleStation);
+    // the buffered readings are sent once there is demand
+    TestProbe<ShardingProducerController.MessageWithConfirmation<WeatherIngest.Reading>> askNextTo = testKit.createTestProbe();
+    requestNextTo.tell(requestNext(askNextTo.getRef(), Set$.MODULE$.<String>empty().incl("1"), Map$.MODULE$.empty()));
+    assertEquals("1", askNextTo.receiveMessage().entityId());
+  }
+
+  @Test
+  public void rejectReadingsForAStationWithTooManyBuffered() {
+    TestProbe<ShardingProducerController.Command<WeatherIngest.Reading>> producerController = testKit.createTestProbe();
+    ActorRef<WeatherIngest.Command> ingest =
+        testKit.spawn(WeatherIngest.create(producerController.getRef(), 100, 1, Duration.ofMinutes(1)));
+    ActorRef<ShardingProducerController.RequestNext<WeatherIngest.Reading>> requestNextTo = start(producerController);
+    TestProbe<ShardingProducerController.MessageWithConfirmation<WeatherIngest.Reading>> askNextTo = testKit.createTestProbe();
+    // station 1 already has a reading waiting for demand, station 2 has none
+    requestNextTo.tell(requestNext(askNextTo.getRef(), Set$.MODULE$.empty(), Map$.MODULE$.<String, Object>empty().updated("1", 1)));
+
+    TestProbe<StatusReply<WeatherStation.DataRecorded>> probe = testKit.createTestProbe();
+    ingest.tell(new WeatherIngest.Ingest(1, OBSERVATION, probe.getRef()));
+    WeatherIngest.Overloaded overloaded = (WeatherIngest.Overloaded) probe.receiveMessage().getError();
+    assertTrue(overloaded.singleStation);
+    askNextTo.expectNoMessage(Duration.ofMillis(100));
+
+    // other stations still get their readings through
+    ingest.tell(new WeatherIngest.Ingest(2, OBSERVATION, probe.getRef()));
+    ShardingProducerController.MessageWithConfirmation<WeatherIngest.Reading> sent = askNextTo.receiveMessage();
+    assertEquals("2", sent.entityId());
+    sent.replyTo().tell(Done.getInstance());
+    assertTrue(probe.receiveMessage().isSuccess());
+  }
+
+  @Test
+  public void answerOverloadedIngestWith503Or429() throws Exception {
+    // station 1 is the only one not keeping up
+    ActorRef<WeatherIngest.Command> ingest = testKit.spawn(Behaviors.receiveMessage(command -> {
+      WeatherIngest.Ingest reading = (WeatherIngest.Ingest) command;
+      reading.replyTo.tell(StatusReply.error(new WeatherIngest.Overloaded("Try again later", reading.wsid == 1)));
+      return Behaviors.same();
+    }));
+    WeatherRoutes routes = new WeatherRoutes(testKit.system(), Optional.of(ingest));
+
+    assertEquals(StatusCodes.TOO_MANY_REQUESTS, post(routes, 1));
+    assertEquals(StatusCodes.SERVICE_UNAVAILABLE, post(routes, 2));
+  }
+
+  @Test
+  public void recordAgainAfterAFailureAndConfirmOnce() {
+    TestProbe<WeatherStation.Command> station = testKit.createTestProbe();
+    TestProbe<ConsumerController.Start<WeatherIngest.Reading>> consumerController = testKit.createTestProbe();
+    testKit.spawn(WeatherIngestConsumer.create("1", station.getRef(), consumerController.getRef(), Duration.ofMillis(300)));
+    ActorRef<ConsumerController.Delivery<WeatherIngest.Reading>> deliverTo = consumerController.receiveMessage().deliverTo();
+
+    TestProbe<ConsumerController.Confirmed> confirmTo = testKit.createTestProbe();
+    deliverTo.tell(new ConsumerController.Delivery<>(new WeatherIngest.Reading(OBSERVATION), confirmTo.getRef(), "ingest-1", 1));
+    // no reply, the ask times out
+    station.expectMessageClass(WeatherStation.RecordObservation.class);
+    confirmTo.expectNoMessage(Duration.ofMillis(200));
+
+    WeatherStation.RecordObservation again = station.expectMessageClass(WeatherStation.RecordObservation.class);
+    assertEquals(OBSERVATION, again.observation);
+    again.replyTo.tell(new WeatherStation.DataRecorded("1", 1));
+    confirmTo.expectMessage(ConsumerController.confirmed());
+    station.expectNoMessage(Duration.ofMillis(500));
+  }
+
+  private static ActorRef<ShardingProducerController.RequestNext<WeatherIngest.Reading>> start(
+      TestProbe<ShardingProducerController.Command<WeatherIngest.Reading>> producerController) {
+    @SuppressWarnings("unchecked")
+    ShardingProducerController.Start<WeatherIngest.Reading> start =
+        producerController.expectMessageClass(ShardingProducerController.Start.class);
+    return start.producer();
+  }
+
+  private static ShardingProducerController.RequestNext<WeatherIngest.Reading> requestNext(
+      ActorRef<ShardingProducerController.MessageWithConfirmation<WeatherIngest.Reading>> askNextTo,
+      scala.collection.immutable.Set<String> entitiesWithDemand,
+      scala.collection.immutable.Map<String, Object> bufferedForEntitiesWithoutDemand) {
+    return new ShardingProducerController.RequestNext<>(
+        testKit.system().deadLetters(), askNextTo, entitiesWithDemand, bufferedForEntitiesWithoutDemand);
+  }
+
+  private static StatusCode post(WeatherRoutes routes, long wsid) throws Exception {
+    HttpRequest request = HttpRequest.POST("/weather/" + wsid).withEntity(ContentTypes.APPLICATION_JSON,
+        "{\"eventTime\":" + OBSERVATION.eventTime + ",\"values\":[{\"dataType\":\"temperature\",\"value\":20.0}]}");
+    HttpResponse response = routes.weather().seal().handler(testKit.system()).apply(request).toCompletableFuture().get(3, TimeUnit.SECONDS);
+    response.discardEntityBytes(testKit.system());
+    return response.status();
+  }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2009-2024 Lightbend Inc. <https://www.lightbend.com>
+ */
+package sample.killrweather;
+
+import akka.actor.testkit.typed.javadsl.TestKitJunitResource;
+import akka.http.javadsl.model.HttpRequest;
+import akka.http.javadsl.model.HttpResponse;
+import akka.http.javadsl.model.StatusCodes;
+import akka.japi.function.Function;
+import com.typesafe.config.ConfigFactory;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.util.Optional;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class WeatherRoutesTest {
+
+  @ClassRule
+  public static final TestKitJunitResource testKit = new TestKitJunitResource(
+      ConfigFactory.parseString("akka.cluster.seed-nodes = []").withFallback(ConfigFactory.load()));
+
+  // sealed, so that rejections are turned into responses as the server does
+  private static final Function<HttpRequest, CompletionStage<HttpResponse>> routes =
+      new WeatherRoutes(testKit.system(), Optional.empty()).weather().seal().handler(testKit.system());
+
+  @Test
+  public void rejectWindowsThatAreNotPositive() throws Exception {
+    assertEquals(StatusCodes.BAD_REQUEST, get("/weather/1?type=temperature&function=average&window=-1h").status());
+    assertEquals(StatusCodes.BAD_REQUEST, get("/weather/1?type=temperature&function=average&window=0m").status());
+  }
+
+  @Test
+  public void rejectMoreTopValuesThanTheStationsKeep() throws Exception {
+    assertEquals(StatusCodes.BAD_REQUEST, get("/weather/1?type=temperature&function=topk&n=101").status());
+    assertEquals(StatusCodes.BAD_REQUEST, get("/weather/1?type=temperature&function=topk&n=0").status());
+    assertEquals(StatusCodes.BAD_REQUEST, get("/weather?type=temperature&stations=1-3&top=101").status());
+  }
+
+  private static HttpResponse get(String uri) throws Exception {
+    HttpResponse response = routes.apply(HttpRequest.GET(uri)).toCompletableFuture().get(3, TimeUnit.SECONDS);
+    response.discardEntityBytes(testKit.system());
+    return response;
+  }
+}
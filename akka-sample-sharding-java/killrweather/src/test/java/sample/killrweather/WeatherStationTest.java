@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2009-2024 Lightbend Inc. <https://www.lightbend.com>
+ */
+package sample.killrweather;
+
+import akka.actor.testkit.typed.javadsl.TestKitJunitResource;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+import com.typesafe.config.ConfigFactory;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+public class WeatherStationTest {
+
+  @ClassRule
+  public static final TestKitJunitResource testKit = new TestKitJunitResource(
+      ConfigFactory.parseString("akka.cluster.seed-nodes = []").withFallback(ConfigFactory.load()));
+
+  private static final long START = System.currentTimeMillis();
+
+  @BeforeClass
+  public static void initRegions() {
+    // the stations feed their region, sharding buffers the deltas as the node never joins a cluster
+    WeatherRegion.initSharding(testKit.system());
+  }
+
+  @Test
+  public void recordEveryMeasurementOfAnObservation() {
+    ActorRef<WeatherStation.Command> station =
+        testKit.spawn(WeatherStation.create("1", WeatherStationSettings.create(testKit.system())));
+    TestProbe<WeatherStation.DataRecorded> probe = testKit.createTestProbe();
+    station.tell(new WeatherStation.RecordObservation(observation(START, 20.0, 10.0, 1013.0), START, probe.getRef()));
+    // the version changes with every reading, not with every message
+    assertEquals(3, probe.receiveMessage().version);
+    station.tell(new WeatherStation.RecordObservation(observation(START + 1000, 22.0, 12.0, 1011.0), START, probe.getRef()));
+    assertEquals(6, probe.receiveMessage().version);
+
+    assertEquals(21.0, average(station, WeatherStation.DataType.Temperature), 0.0);
+    assertEquals(11.0, average(station, WeatherStation.DataType.DewPoint), 0.0);
+    assertEquals(1012.0, average(station, WeatherStation.DataType.Pressure), 0.0);
+  }
+
+  private static WeatherStation.Observation observation(long eventTime, double temperature, double dewPoint, double pressure) {
+    return new WeatherStation.Observation(eventTime, Arrays.asList(
+        new WeatherStation.Measurement(WeatherStation.DataType.Temperature, temperature),
+        new WeatherStation.Measurement(WeatherStation.DataType.DewPoint, dewPoint),
+        new WeatherStation.Measurement(WeatherStation.DataType.Pressure, pressure)));
+  }
+
+  private static double average(ActorRef<WeatherStation.Command> station, WeatherStation.DataType dataType) {
+    TestProbe<WeatherStation.QueryResult> probe = testKit.createTestProbe();
+    station.tell(new WeatherStation.Query(dataType, WeatherStation.Function.Average, probe.getRef()));
+    WeatherStation.QueryResult result = probe.receiveMessage();
+    assertEquals(2, result.readings);
+    return result.value.get(0).value;
+  }
+}